@@ -34,6 +34,8 @@ public class MeasuredValue {
 	public String valueKey;
 	
 	public Range range;
+	/** severity of the range the value is in, from TestIndicators */
+	public byte severity;
 
 	/** 
 	 * Constructor
@@ -63,6 +65,7 @@ public class MeasuredValue {
   
     	valueKey = parameter.getKeyOfValue(_value);
     	range = parameter.getRangeOfValue(_value);
+    	severity = (range != null) ? range.severity : TestIndicators.NONE_SEVERITY;
     }
     
     /**
@@ -72,15 +75,9 @@ public class MeasuredValue {
      * @return vector of DataIndicator items
      */
     public Vector <DataIndicator> getDataIndicators(int hiddenColumn) {
-    	String colour;
+    	String colour = TestIndicators.getColour(severity);
     	
-    	if (range != null) {
-    		colour = range.colour;
-    	} else {
-    		colour = TestIndicators.NONE;
-    	}
-    	
-    	DataIndicator nameDI = new DataIndicator(-1, TestIndicators.NONE, DataUtils.calendarToString(sample.date));
+    	DataIndicator nameDI = new DataIndicator(-1, TestIndicators.NONE, DataUtils.epochDayToString(sample.epochDay));
     	DataIndicator samplingPointDI = new DataIndicator (-1, colour, sample.samplingPoint.pointName);
     	DataIndicator townDI = new DataIndicator (-1, colour, sample.samplingPoint.townName);
     	DataIndicator parameterDI = new DataIndicator (-1, colour, parameter.testNameShort);
@@ -19,7 +19,6 @@ package com.aquatest.dbinterface.objects;
 
 
 import java.util.HashMap;
-import java.util.Iterator;
 
 /**
  * Models a parameter as specified in the database
@@ -74,7 +73,8 @@ public class Parameter {
 	
 	
 	/**
-	 * Gets the range that the specified value falls within based on the current parameter
+	 * Gets the range that the specified value falls within based on the current parameter.
+	 * Where ranges overlap, the most severe one is returned (see {@link RangeIndex}).
 	 * @param value value to find range for
 	 * @return Range that the value falls within
 	 */
@@ -83,18 +83,6 @@ public class Parameter {
 			return null;
 		}
 		
-		Iterator<Integer> i = valueRule.ranges.keySet().iterator();
-    	
-    	while (i.hasNext()) {
-    		
-    		int key = (Integer) i.next();
-    		
-    		Range range = valueRule.ranges.get(key);
-    		
-    		if ((range.minimum <= value) && (range.maximum >= value)) {
-    			return range;    			
-    		}		    		
-    	}
-    	return null;
+		return valueRule.rangeIndex.getRange(value);
 	}
 }
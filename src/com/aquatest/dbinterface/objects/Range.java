@@ -17,6 +17,8 @@
  */
 package com.aquatest.dbinterface.objects;
 
+import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
+
 /**
  * Models a range as specified in the database. </p>
  * Each type of number has some ranges, with some colours. </p>
@@ -29,6 +31,8 @@ public class Range {
 	public double minimum;
 	public double maximum;
 	public String colour;
+	/** severity of the colour, from TestIndicators */
+	public byte severity;
 	public int wqmAuthorityId;
 	
 	/**
@@ -49,6 +53,7 @@ public class Range {
 		minimum = _minimum;
 		maximum = _maximum;
 		colour = _colour;
+		severity = TestIndicators.getSeverity(_colour);
 		wqmAuthorityId = _wqmAuthorityId;
 	}
 }
@@ -0,0 +1,136 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.objects;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Finds the range a value falls within by binary search, instead of checking
+ * every range of a value rule. </p>
+ *
+ * The minimums and maximums of all the ranges are sorted into one array of
+ * bounds. The range at each bound, and the range between each bound and the
+ * next, are worked out once when the index is built. Where ranges overlap,
+ * the most severe colour wins (red, then yellow, then green, then any other
+ * colour), and ranges of the same colour are chosen by lowest id. </p>
+ *
+ * The index does not change once it has been built.
+ */
+public class RangeIndex {
+
+	/** sorted minimums and maximums of the ranges, without duplicates */
+	private final double[] bounds;
+	/** range at each bound, or null */
+	private final Range[] atBound;
+	/** range between each bound and the next, or null */
+	private final Range[] afterBound;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ranges ranges of a value rule
+	 */
+	public RangeIndex(Collection<Range> ranges) {
+
+		Range[] rangeArray = ranges.toArray(new Range[ranges.size()]);
+		int rangeCount = rangeArray.length;
+
+		// collect the bounds - adding 0 turns -0 into 0, which the binary
+		// search would otherwise treat as a different number
+		double[] allBounds = new double[rangeCount * 2];
+		int boundCount = 0;
+		for (int i = 0; i < rangeCount; i++) {
+			allBounds[boundCount++] = rangeArray[i].minimum + 0.0;
+			allBounds[boundCount++] = rangeArray[i].maximum + 0.0;
+		}
+		Arrays.sort(allBounds, 0, boundCount);
+
+		// remove duplicates, and NaN bounds, which no value is within
+		int uniqueCount = 0;
+		for (int i = 0; i < boundCount; i++) {
+			double bound = allBounds[i];
+			if (Double.isNaN(bound))
+				break;
+			if ((uniqueCount == 0) || (bound != allBounds[uniqueCount - 1]))
+				allBounds[uniqueCount++] = bound;
+		}
+
+		bounds = new double[uniqueCount];
+		System.arraycopy(allBounds, 0, bounds, 0, uniqueCount);
+
+		// work out the range at and after each bound
+		atBound = new Range[uniqueCount];
+		afterBound = new Range[uniqueCount];
+		for (int i = 0; i < uniqueCount; i++) {
+			double bound = bounds[i];
+			boolean last = (i == uniqueCount - 1);
+			double nextBound = last ? bound : bounds[i + 1];
+
+			for (int j = 0; j < rangeCount; j++) {
+				Range range = rangeArray[j];
+
+				if ((range.minimum <= bound) && (range.maximum >= bound))
+					atBound[i] = worse(atBound[i], range);
+
+				// ranges end on bounds, so a range covers the gap to the next
+				// bound if it covers both ends
+				if (!last && (range.minimum <= bound)
+						&& (range.maximum >= nextBound))
+					afterBound[i] = worse(afterBound[i], range);
+			}
+		}
+	}
+
+	/**
+	 * Gets the range that a value falls within
+	 *
+	 * @param value value to find range for
+	 * @return Range that the value falls within, or null if it is in none
+	 */
+	public Range getRange(double value) {
+
+		int i = Arrays.binarySearch(bounds, value + 0.0);
+
+		if (i >= 0)
+			return atBound[i];
+
+		// the value is between two bounds, or outside all of them
+		int insertionPoint = -(i + 1);
+		if ((insertionPoint == 0) || (insertionPoint == bounds.length))
+			return null;
+
+		return afterBound[insertionPoint - 1];
+	}
+
+	/**
+	 * Chooses which of two overlapping ranges a value in both is given.
+	 */
+	// method declared static for Android optimisation
+	private static Range worse(Range current, Range candidate) {
+
+		if (current == null)
+			return candidate;
+
+		if ((candidate.severity > current.severity)
+				|| ((candidate.severity == current.severity) && (candidate.id < current.id)))
+			return candidate;
+
+		return current;
+	}
+}
@@ -34,7 +34,9 @@ public class Sample {
 	public SamplingPoint samplingPoint;
 	public int samplerId;
 	public String notes;
-    public Calendar date;
+    /** date the sample was taken, in days since 1970-01-01 */
+    public int epochDay;
+    private Calendar date;
     
     
     public HashMap <Integer, MeasuredValue> measuredValues;
@@ -46,18 +48,31 @@ public class Sample {
 	 * @param _samplingPoint
 	 * @param _samplerId
 	 * @param _notes
-	 * @param _date
+	 * @param _epochDay date taken, in days since 1970-01-01
 	 */
-	public Sample (int _id, SamplingPoint _samplingPoint, int _samplerId, String _notes, Calendar _date) {
+	public Sample (int _id, SamplingPoint _samplingPoint, int _samplerId, String _notes, int _epochDay) {
 		id = _id;
 		samplingPoint = _samplingPoint;
 		samplerId = _samplerId;
 		notes = _notes;
-        date = _date;
+        epochDay = _epochDay;
         
         measuredValues = new HashMap <Integer, MeasuredValue>();//Vector <MeasuredValue>();
 	}
 	
+	/**
+	 * Get the date this sample was taken. The Calendar is only created the first time it is 
+	 * asked for.
+	 * 
+	 * @return the date
+	 */
+	public Calendar getDate() {
+		if (date == null) {
+			date = DataUtils.epochDayToCalendar(epochDay);
+		}
+		return date;
+	}
+	
 	/**
 	 * Get the colour of this sample according to whether any of its measured values are failures, 
 	 * warnings, or all passed
@@ -65,25 +80,31 @@ public class Sample {
 	 * @return the colour as a String
 	 */
 	public String getColour() {
+		return TestIndicators.getColour(getSeverity());
+	}
+	
+	/**
+	 * Get the severity of this sample, which is the severity of its worst measured value, and 
+	 * at least a pass
+	 * 
+	 * @return the severity, from TestIndicators
+	 */
+	public byte getSeverity() {
 		
-		String colour = TestIndicators.PASS;
+		byte severity = TestIndicators.PASS_SEVERITY;
 		
-        Iterator<Integer> i = measuredValues.keySet().iterator();
+        Iterator<MeasuredValue> i = measuredValues.values().iterator();
     	
         while (i.hasNext()) {
         	
-        	MeasuredValue mV = measuredValues.get(i.next());
-        	
-        	if (mV.range == null) {
-        		continue;
-        	}
+        	byte valueSeverity = i.next().severity;
     		
-    		if (mV.range.colour.compareTo(TestIndicators.FAIL) == 0)
-    			return TestIndicators.FAIL;
-    		else if (mV.range.colour.compareTo(TestIndicators.WARNING) == 0)
-    			colour = TestIndicators.WARNING;
+    		if (valueSeverity == TestIndicators.FAIL_SEVERITY)
+    			return valueSeverity;
+    		else if (valueSeverity > severity)
+    			severity = valueSeverity;
     	}
-		return colour;
+		return severity;
 	}
 	
 	
@@ -97,24 +118,24 @@ public class Sample {
 		double totalCount = 0;
 		double passCount = 0;
 		
-        Iterator<Integer> i = measuredValues.keySet().iterator();
+        Iterator<MeasuredValue> i = measuredValues.values().iterator();
     	
         while (i.hasNext()) {
         	
-        	MeasuredValue mV = measuredValues.get(i.next());
-        	String colour;
+        	MeasuredValue mV = i.next();
+        	byte severity;
         	
         	if (mV.range != null) {
-        		colour = mV.range.colour;
+        		severity = mV.severity;
         	} else {
-        		colour = TestIndicators.PASS;//TODO mike
+        		severity = TestIndicators.PASS_SEVERITY;//TODO mike
         	}
     		
-    		if ((colour.compareTo(TestIndicators.PASS) == 0) || (colour.compareTo(TestIndicators.WARNING) == 0)) {
+    		if ((severity == TestIndicators.PASS_SEVERITY) || (severity == TestIndicators.WARNING_SEVERITY)) {
     			totalCount++;
     			passCount++;
     		}	
-    		else if (colour.compareTo(TestIndicators.FAIL) == 0)
+    		else if (severity == TestIndicators.FAIL_SEVERITY)
     			totalCount++;
     	}
 		
@@ -166,11 +187,11 @@ public class Sample {
 		if (showPointName) {
 			if (samplingPoint.pointName.length() > 20)
 				rowLabel = samplingPoint.pointName.substring(0,20) + "...";
-			else rowLabel = samplingPoint.pointName.substring(0,20);
+			else rowLabel = samplingPoint.pointName;
 			
-			rowLabel = rowLabel + " " + DataUtils.calendarToStringShort(date);
+			rowLabel = rowLabel + " " + DataUtils.epochDayToStringShort(epochDay);
 		}
-		else rowLabel = DataUtils.calendarToStringShort(date);
+		else rowLabel = DataUtils.epochDayToStringShort(epochDay);
         
         dIs.add(new DataIndicator(-1, TestIndicators.NONE, rowLabel));
 	
@@ -183,7 +204,7 @@ public class Sample {
         		
         		MeasuredValue mV = measuredValues.get(p.id);
         	
-        		dIs.add(new DataIndicator(mV.value, mV.range.colour, p.getKeyOfValue(mV.value)));
+        		dIs.add(new DataIndicator(mV.value, TestIndicators.getColour(mV.severity), p.getKeyOfValue(mV.value)));
         	}
         	else {
         		dIs.add(new DataIndicator(-1, TestIndicators.NONE, ""));
@@ -97,27 +97,34 @@ public class SamplingPoint
 	 */
 	public String getColour()
 	{
+		return TestIndicators.getColour(getSeverity());
+	}
 
-		String colour = TestIndicators.NONE;
+	/**
+	 * Get the severity of this sampling point, which is the severity of its
+	 * worst sample.
+	 * 
+	 * @return the severity, from TestIndicators, or NONE_SEVERITY if there
+	 *         are no samples
+	 */
+	public byte getSeverity()
+	{
 
-		Iterator<Integer> i = samples.keySet().iterator();
+		byte severity = TestIndicators.NONE_SEVERITY;
+
+		Iterator<Sample> i = samples.values().iterator();
 
 		while (i.hasNext())
 		{
 
-			Sample s = samples.get(i.next());
-			String sampleColour = s.getColour();
-
-			if ((sampleColour.compareTo(TestIndicators.PASS) == 0)
-					&& (colour.compareTo(TestIndicators.NONE) == 0))
-				colour = TestIndicators.PASS;
+			byte sampleSeverity = i.next().getSeverity();
 
-			else if (sampleColour.compareTo(TestIndicators.FAIL) == 0)
-				return TestIndicators.FAIL;
-			else if (sampleColour.compareTo(TestIndicators.YELLOW) == 0)
-				colour = TestIndicators.YELLOW;
+			if (sampleSeverity == TestIndicators.FAIL_SEVERITY)
+				return sampleSeverity;
+			else if (sampleSeverity > severity)
+				severity = sampleSeverity;
 		}
-		return colour;
+		return severity;
 	}
 
 	/**
@@ -187,7 +194,7 @@ public class SamplingPoint
 
 				while (i1.hasNext())
 				{
-					if (s.date.compareTo(i1.next().date) < 0)
+					if (s.epochDay < i1.next().epochDay)
 					{
 
 
@@ -308,7 +315,7 @@ public class SamplingPoint
 			double c = 0;
 			double totalCount = 0;
 			double passCount = 0;
-			String colour = TestIndicators.NONE;
+			byte severity = TestIndicators.NONE_SEVERITY;
 
 			Parameter p = i.next();
 
@@ -326,23 +333,14 @@ public class SamplingPoint
 
 					totalCount++;
 
-					if (mV.range.colour.compareTo(TestIndicators.PASS) == 0)
-					{
-						passCount++;
-						if (colour == TestIndicators.NONE)
-							colour = TestIndicators.PASS;
+					byte valueSeverity = mV.range.severity;
 
-					}
-					else if (mV.range.colour.compareTo(TestIndicators.WARNING) == 0)
-					{
+					if ((valueSeverity == TestIndicators.PASS_SEVERITY)
+							|| (valueSeverity == TestIndicators.WARNING_SEVERITY))
 						passCount++;
-						if (colour != TestIndicators.FAIL)
-							colour = TestIndicators.WARNING;
-					}
-					else if (mV.range.colour.compareTo(TestIndicators.FAIL) == 0)
-					{
-						colour = TestIndicators.FAIL;
-					}
+
+					if (valueSeverity > severity)
+						severity = valueSeverity;
 				}
 				// else {
 				// dIs.add(new DataIndicator(-1, TestIndicators.NONE, ""));
@@ -354,7 +352,8 @@ public class SamplingPoint
 			if (totalCount > 0)
 				c = passCount / totalCount;
 
-			dIs.add(new DataIndicator(c, colour, dF.format(c)));
+			dIs.add(new DataIndicator(c, TestIndicators.getColour(severity),
+					dF.format(c)));
 		}
 
 		return dIs;
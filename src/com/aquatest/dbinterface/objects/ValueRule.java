@@ -29,6 +29,7 @@ public class ValueRule {
 	public String description;
 	public int parameterId;
 	public HashMap <Integer, Range> ranges;
+	public RangeIndex rangeIndex;
 	
 	/**
 	 * Constructor
@@ -44,5 +45,6 @@ public class ValueRule {
 		description = _description;
 		parameterId = _parameterId;
 		ranges = _ranges;
+		rangeIndex = new RangeIndex(_ranges.values());
 	}
 }
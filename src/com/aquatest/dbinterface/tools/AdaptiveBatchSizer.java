@@ -0,0 +1,177 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.HashMap;
+
+import com.aquatest.webservice.AquaTestWebService;
+
+/**
+ * Chooses how many records to request in each sync web service call. </p>
+ *
+ * A separate batch size is kept for each table and change type. It starts at
+ * the default size, doubles after each full page that arrives quickly, and
+ * halves after a slow or failed page. The batch size is also capped so that a
+ * page, at the number of bytes per row seen so far, takes no more than a small
+ * share of the free heap. </p>
+ *
+ * One instance is shared by all the fetcher threads, so the methods are
+ * synchronised.
+ */
+public class AdaptiveBatchSizer
+{
+	/** smallest batch size that will be requested */
+	public static final int MIN_BATCH_SIZE = 50;
+	/** largest batch size that will be requested for added or updated rows */
+	public static final int MAX_BATCH_SIZE = 5000;
+	/** largest batch size for deleted rows, which only contain an id */
+	public static final int MAX_DELETE_BATCH_SIZE = 20000;
+	/** batch size used for the first deleted rows page of a table */
+	public static final int DEFAULT_DELETE_BATCH_SIZE = 2000;
+
+	/** pages that take less time than this (in milliseconds) grow the batch */
+	public static final long FAST_PAGE_TIME = 2000;
+	/** pages that take more time than this (in milliseconds) shrink the batch */
+	public static final long SLOW_PAGE_TIME = 10000;
+
+	/** largest share of the free heap a single page may take */
+	private static final int HEAP_SHARE_DIVISOR = 8;
+
+	/**
+	 * Batch size and row size observed for one table and change type.
+	 */
+	private static class BatchState
+	{
+		int batchSize;
+		/** average size of a row in the response, or 0 if not yet known */
+		long bytesPerRow = 0;
+	}
+
+	private HashMap<String, BatchState> states = new HashMap<String, BatchState>();
+
+	/**
+	 * Returns the number of records to request in the next call.
+	 *
+	 * @param table
+	 *            table being fetched
+	 * @param type
+	 *            type of change being fetched (TYPE_ADDED, TYPE_UPDATED,
+	 *            TYPE_DELETED)
+	 * @return batch size
+	 */
+	public synchronized int getBatchSize(String table, int type)
+	{
+		BatchState state = getState(table, type);
+		return capToHeap(state, state.batchSize);
+	}
+
+	/**
+	 * Records a page that was fetched successfully.
+	 *
+	 * @param table
+	 *            table being fetched
+	 * @param type
+	 *            type of change being fetched
+	 * @param batchSize
+	 *            number of records requested
+	 * @param rows
+	 *            number of records returned
+	 * @param bytes
+	 *            size of the response in bytes
+	 * @param time
+	 *            time taken to download and parse the page, in milliseconds
+	 */
+	public synchronized void pageCompleted(String table, int type,
+			int batchSize, int rows, long bytes, long time)
+	{
+		BatchState state = getState(table, type);
+
+		if (rows > 0)
+		{
+			long pageBytesPerRow = Math.max(1, bytes / rows);
+			state.bytesPerRow = (state.bytesPerRow == 0) ? pageBytesPerRow
+					: (state.bytesPerRow + pageBytesPerRow) / 2;
+		}
+
+		if (time > SLOW_PAGE_TIME)
+		{
+			state.batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+		}
+		else if ((time < FAST_PAGE_TIME) && (rows >= batchSize))
+		{
+			// only grow if the page was full, otherwise there was no more data
+			// and a bigger batch would not have helped
+			state.batchSize = Math.min(getMaxBatchSize(type), batchSize * 2);
+		}
+	}
+
+	/**
+	 * Records a page that could not be fetched.
+	 *
+	 * @param table
+	 *            table being fetched
+	 * @param type
+	 *            type of change being fetched
+	 * @param batchSize
+	 *            number of records requested
+	 */
+	public synchronized void pageFailed(String table, int type, int batchSize)
+	{
+		BatchState state = getState(table, type);
+		state.batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+	}
+
+	private BatchState getState(String table, int type)
+	{
+		String key = table + ":" + type;
+
+		BatchState state = states.get(key);
+		if (state == null)
+		{
+			state = new BatchState();
+			state.batchSize = (type == DatabaseUpdater.TYPE_DELETED) ? DEFAULT_DELETE_BATCH_SIZE
+					: Integer.parseInt(AquaTestWebService.BATCH_SIZE_VALUE);
+			states.put(key, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Limits a batch size so that the page fits comfortably in the free heap.
+	 */
+	// method declared static for Android optimisation
+	private static int capToHeap(BatchState state, int batchSize)
+	{
+		if (state.bytesPerRow == 0)
+			return batchSize;
+
+		Runtime runtime = Runtime.getRuntime();
+		long freeHeap = runtime.maxMemory()
+				- (runtime.totalMemory() - runtime.freeMemory());
+		long maxRows = (freeHeap / HEAP_SHARE_DIVISOR) / state.bytesPerRow;
+
+		return (int) Math.max(MIN_BATCH_SIZE, Math.min(batchSize, maxRows));
+	}
+
+	// method declared static for Android optimisation
+	private static int getMaxBatchSize(int type)
+	{
+		return (type == DatabaseUpdater.TYPE_DELETED) ? MAX_DELETE_BATCH_SIZE
+				: MAX_BATCH_SIZE;
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.text.DecimalFormat;
+
+import android.database.Cursor;
+
+import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
+
+/**
+ * Counts of the measured values of an area that fall in each colour of range,
+ * as returned by {@link SampleQueries#AREA_COMPLIANCE}. </p>
+ *
+ * A value in a range of any other colour is counted in {@link #count} only.
+ */
+public class Compliance
+{
+	/** number of measured values */
+	public int count;
+	/** number of values in a red range */
+	public int failCount;
+	/** number of values in a yellow range */
+	public int warningCount;
+	/** number of values in a green range */
+	public int passCount;
+	/** number of values in no range, or whose parameter has no value rule */
+	public int noRangeCount;
+
+	/**
+	 * Reads the counts from the current row of a cursor.
+	 *
+	 * @param cursor
+	 *            cursor positioned on a row of counts
+	 * @param firstColumn
+	 *            column of the total count, which is followed by the fail,
+	 *            warning, pass and no range counts
+	 */
+	public Compliance(Cursor cursor, int firstColumn)
+	{
+		count = cursor.getInt(firstColumn);
+		failCount = cursor.getInt(firstColumn + 1);
+		warningCount = cursor.getInt(firstColumn + 2);
+		passCount = cursor.getInt(firstColumn + 3);
+		noRangeCount = cursor.getInt(firstColumn + 4);
+	}
+
+	/**
+	 * Returns the severity of the worst value.
+	 *
+	 * @param noRangePasses
+	 *            true if values in no range count as a pass
+	 * @return the worst severity, or {@link TestIndicators#NONE_SEVERITY} if
+	 *         none have a colour
+	 */
+	public byte getSeverity(boolean noRangePasses)
+	{
+		if (failCount > 0)
+			return TestIndicators.FAIL_SEVERITY;
+		else if (warningCount > 0)
+			return TestIndicators.WARNING_SEVERITY;
+		else if ((passCount > 0) || (noRangePasses && (noRangeCount > 0)))
+			return TestIndicators.PASS_SEVERITY;
+		else
+			return TestIndicators.NONE_SEVERITY;
+	}
+
+	/**
+	 * Converts the counts to the fraction of values that passed or were in a
+	 * warning range, with the worst colour. Values in no range count as a
+	 * pass, and values of other colours are left out.
+	 *
+	 * @return the quality as a DataIndicator object
+	 */
+	public DataIndicator getIndicator()
+	{
+		if (count == 0)
+			return new DataIndicator(0, TestIndicators.NONE, "");
+
+		double totalCount = failCount + warningCount + passCount
+				+ noRangeCount;
+		double goodCount = warningCount + passCount + noRangeCount;
+
+		DecimalFormat dF = new DecimalFormat("#.#%");
+
+		return new DataIndicator(goodCount / totalCount, TestIndicators
+				.getColour(getSeverity(true)),
+				dF.format(goodCount / totalCount));
+	}
+
+	/**
+	 * Converts the counts of a day to the fraction of all values that passed
+	 * or were in a warning range, with the worst colour. Values in no range
+	 * have no colour, as in the calendar.
+	 *
+	 * @return the quality as a DataIndicator object
+	 */
+	public DataIndicator getDayIndicator()
+	{
+		double goodCount = warningCount + passCount;
+
+		DecimalFormat dF = new DecimalFormat("#.#%");
+
+		return new DataIndicator(goodCount / count, TestIndicators
+				.getColour(getSeverity(false)),
+				dF.format(goodCount / count));
+	}
+}
@@ -0,0 +1,349 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
+
+/**
+ * Keeps the dailycompliance table, which holds the {@link Compliance} counts
+ * of the measured values of each town on each day that samples were taken.
+ * The quality of a municipality is the sum of the counts of its towns. </p>
+ *
+ * Triggers on the sample, measured value and sampling point tables record
+ * each town and day whose values change in the dailycompliancechange table,
+ * and {@link #refresh(SQLiteDatabase)} then counts those days again. A change
+ * to a value rule or range changes the colour of any value, so it records a
+ * row with no town or day, which makes the next refresh count everything
+ * again.
+ */
+public class DailyCompliance
+{
+	/** value rule of the parameter of a measured value */
+	private static final String VALUE_RULE = "(SELECT MIN(valuerule._id) FROM valuerule "
+			+ "WHERE valuerule.parameter = measuredvalue.parameter)";
+
+	/**
+	 * Severity of the worst range a measured value is in, from
+	 * {@link TestIndicators}, or -1 if it is in no range.
+	 * Ranges are matched the same way {@link DatabaseAdaptor} loads them, so
+	 * a normal range hides an abnormal range with the same id.
+	 */
+	private static final String SEVERITY = "MAX(IFNULL((SELECT MAX(CASE abnormalrange.colour WHEN '"
+			+ TestIndicators.FAIL
+			+ "' THEN "
+			+ TestIndicators.FAIL_SEVERITY
+			+ " WHEN '"
+			+ TestIndicators.WARNING
+			+ "' THEN "
+			+ TestIndicators.WARNING_SEVERITY
+			+ " WHEN '"
+			+ TestIndicators.PASS
+			+ "' THEN "
+			+ TestIndicators.PASS_SEVERITY
+			+ " ELSE "
+			+ TestIndicators.NONE_SEVERITY
+			+ " END) FROM abnormalrange "
+			+ "WHERE abnormalrange.valuerule = "
+			+ VALUE_RULE
+			+ " AND abnormalrange.minimum <= measuredvalue.value AND abnormalrange.maximum >= measuredvalue.value "
+			+ "AND abnormalrange._id NOT IN (SELECT normalrange._id FROM normalrange)), -1), "
+			+ "IFNULL((SELECT "
+			+ TestIndicators.PASS_SEVERITY
+			+ " FROM normalrange WHERE normalrange.valuerule = "
+			+ VALUE_RULE
+			+ " AND normalrange.minimum <= measuredvalue.value AND normalrange.maximum >= measuredvalue.value LIMIT 1), -1))";
+
+	/**
+	 * Counts the values of the rows selected by the given FROM clause, by town
+	 * and day.
+	 */
+	// the LIMIT stops SQLite from merging the subquery into the outer query,
+	// which would work out the severity once for each count
+	private static final String INSERT_COUNTS = "INSERT INTO dailycompliance "
+			+ "(town, datetaken, count, failcount, warningcount, passcount, norangecount) "
+			+ "SELECT town, datetaken, COUNT(*), SUM(severity = "
+			+ TestIndicators.FAIL_SEVERITY
+			+ "), SUM(severity = "
+			+ TestIndicators.WARNING_SEVERITY
+			+ "), SUM(severity = "
+			+ TestIndicators.PASS_SEVERITY
+			+ "), SUM(severity = -1) "
+			+ "FROM (SELECT samplingpoint.wqmarea AS town, sample.datetaken AS datetaken, "
+			+ SEVERITY + " AS severity ";
+
+	private static final String GROUP_COUNTS = "LIMIT -1) GROUP BY town, datetaken";
+
+	/** counts the values of every town and day */
+	private static final String INSERT_ALL = INSERT_COUNTS
+			+ "FROM sample "
+			+ "INNER JOIN samplingpoint ON samplingpoint._id = sample.samplingpoint "
+			+ "INNER JOIN measuredvalue ON measuredvalue.sample = sample._id "
+			+ GROUP_COUNTS;
+
+	/**
+	 * Counts the values of the towns and days that have changed. CROSS JOIN
+	 * makes SQLite start from the changes, which are usually few, instead of
+	 * scanning the measured values.
+	 */
+	private static final String INSERT_CHANGED = INSERT_COUNTS
+			+ "FROM dailycompliancechange "
+			+ "CROSS JOIN samplingpoint ON samplingpoint.wqmarea = dailycompliancechange.town "
+			+ "CROSS JOIN sample ON sample.samplingpoint = samplingpoint._id AND sample.datetaken = dailycompliancechange.datetaken "
+			+ "CROSS JOIN measuredvalue ON measuredvalue.sample = sample._id "
+			+ GROUP_COUNTS;
+
+	private static final String DELETE_CHANGED = "DELETE FROM dailycompliance WHERE rowid IN "
+			+ "(SELECT dailycompliance.rowid FROM dailycompliancechange "
+			+ "CROSS JOIN dailycompliance ON dailycompliance.town = dailycompliancechange.town "
+			+ "AND dailycompliance.datetaken = dailycompliancechange.datetaken)";
+
+	/** records that everything must be counted again */
+	private static final String CHANGE_ALL = "INSERT INTO dailycompliancechange (town, datetaken) "
+			+ "SELECT NULL, NULL WHERE NOT EXISTS "
+			+ "(SELECT 1 FROM dailycompliancechange WHERE town IS NULL AND datetaken IS NULL);";
+
+	/**
+	 * Statements that create the tables and triggers, for
+	 * {@link DatabaseProvider}. The table is filled by the first
+	 * {@link #refresh(SQLiteDatabase)}.
+	 */
+	static final String[] CREATE_STATEMENTS = {
+			"CREATE TABLE IF NOT EXISTS dailycompliance (town INTEGER, datetaken TEXT, "
+					+ "count INTEGER, failcount INTEGER, warningcount INTEGER, passcount INTEGER, norangecount INTEGER, "
+					+ "PRIMARY KEY (town, datetaken))",
+			"CREATE TABLE IF NOT EXISTS dailycompliancechange (town INTEGER, datetaken TEXT, "
+					+ "UNIQUE (town, datetaken))",
+
+			// a REPLACE removes the old row without firing the delete
+			// triggers, so the day of the old row is recorded before inserting
+			"CREATE TRIGGER IF NOT EXISTS sample_compliance_replace BEFORE INSERT ON sample BEGIN "
+					+ changeSample("NEW._id") + " END",
+			"CREATE TRIGGER IF NOT EXISTS sample_compliance_insert AFTER INSERT ON sample BEGIN "
+					+ changeSample("NEW._id") + " END",
+			"CREATE TRIGGER IF NOT EXISTS sample_compliance_update AFTER UPDATE ON sample BEGIN "
+					+ changeOldSample() + " " + changeSample("NEW._id")
+					+ " END",
+			"CREATE TRIGGER IF NOT EXISTS sample_compliance_delete AFTER DELETE ON sample BEGIN "
+					+ changeOldSample() + " END",
+
+			"CREATE TRIGGER IF NOT EXISTS measuredvalue_compliance_replace BEFORE INSERT ON measuredvalue BEGIN "
+					+ changeSample("(SELECT measuredvalue.sample FROM measuredvalue WHERE measuredvalue._id = NEW._id)")
+					+ " END",
+			"CREATE TRIGGER IF NOT EXISTS measuredvalue_compliance_insert AFTER INSERT ON measuredvalue BEGIN "
+					+ changeSample("NEW.sample") + " END",
+			"CREATE TRIGGER IF NOT EXISTS measuredvalue_compliance_update AFTER UPDATE ON measuredvalue BEGIN "
+					+ changeSample("OLD.sample") + " "
+					+ changeSample("NEW.sample") + " END",
+			"CREATE TRIGGER IF NOT EXISTS measuredvalue_compliance_delete AFTER DELETE ON measuredvalue BEGIN "
+					+ changeSample("OLD.sample") + " END",
+
+			"CREATE TRIGGER IF NOT EXISTS samplingpoint_compliance_replace BEFORE INSERT ON samplingpoint BEGIN "
+					+ changeSamplingPoint("NEW._id") + " END",
+			"CREATE TRIGGER IF NOT EXISTS samplingpoint_compliance_insert AFTER INSERT ON samplingpoint BEGIN "
+					+ changeSamplingPoint("NEW._id") + " END",
+			"CREATE TRIGGER IF NOT EXISTS samplingpoint_compliance_update AFTER UPDATE ON samplingpoint BEGIN "
+					+ changeOldSamplingPoint() + " "
+					+ changeSamplingPoint("NEW._id") + " END",
+			"CREATE TRIGGER IF NOT EXISTS samplingpoint_compliance_delete AFTER DELETE ON samplingpoint BEGIN "
+					+ changeOldSamplingPoint() + " END",
+
+			"CREATE TRIGGER IF NOT EXISTS valuerule_compliance_insert AFTER INSERT ON valuerule BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS valuerule_compliance_update AFTER UPDATE ON valuerule BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS valuerule_compliance_delete AFTER DELETE ON valuerule BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS normalrange_compliance_insert AFTER INSERT ON normalrange BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS normalrange_compliance_update AFTER UPDATE ON normalrange BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS normalrange_compliance_delete AFTER DELETE ON normalrange BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS abnormalrange_compliance_insert AFTER INSERT ON abnormalrange BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS abnormalrange_compliance_update AFTER UPDATE ON abnormalrange BEGIN "
+					+ CHANGE_ALL + " END",
+			"CREATE TRIGGER IF NOT EXISTS abnormalrange_compliance_delete AFTER DELETE ON abnormalrange BEGIN "
+					+ CHANGE_ALL + " END",
+
+			// nothing has been counted yet
+			CHANGE_ALL };
+
+	/**
+	 * Builds a trigger statement that records the town and day of a sample.
+	 */
+	// method declared static for Android optimisation
+	private static String changeSample(String sampleId)
+	{
+		return "INSERT OR IGNORE INTO dailycompliancechange (town, datetaken) "
+				+ "SELECT samplingpoint.wqmarea, sample.datetaken FROM sample "
+				+ "INNER JOIN samplingpoint ON samplingpoint._id = sample.samplingpoint "
+				+ "WHERE sample._id = " + sampleId + ";";
+	}
+
+	/**
+	 * Builds a trigger statement that records the town and day of the sample
+	 * before it changed.
+	 */
+	// method declared static for Android optimisation
+	private static String changeOldSample()
+	{
+		return "INSERT OR IGNORE INTO dailycompliancechange (town, datetaken) "
+				+ "SELECT samplingpoint.wqmarea, OLD.datetaken FROM samplingpoint "
+				+ "WHERE samplingpoint._id = OLD.samplingpoint;";
+	}
+
+	/**
+	 * Builds a trigger statement that records the town and days of the
+	 * samples of a sampling point.
+	 */
+	// method declared static for Android optimisation
+	private static String changeSamplingPoint(String samplingPointId)
+	{
+		return "INSERT OR IGNORE INTO dailycompliancechange (town, datetaken) "
+				+ "SELECT samplingpoint.wqmarea, sample.datetaken FROM samplingpoint "
+				+ "INNER JOIN sample ON sample.samplingpoint = samplingpoint._id "
+				+ "WHERE samplingpoint._id = " + samplingPointId + ";";
+	}
+
+	/**
+	 * Builds a trigger statement that records the days of the samples of a
+	 * sampling point under the town it had before it changed.
+	 */
+	// method declared static for Android optimisation
+	private static String changeOldSamplingPoint()
+	{
+		return "INSERT OR IGNORE INTO dailycompliancechange (town, datetaken) "
+				+ "SELECT OLD.wqmarea, sample.datetaken FROM sample "
+				+ "WHERE sample.samplingpoint = OLD._id;";
+	}
+
+	/**
+	 * Reads the towns and days that have changed since the last refresh. This
+	 * must be called before {@link #refresh(SQLiteDatabase)}, which forgets
+	 * them.
+	 *
+	 * @param database
+	 *            database to read the changes from
+	 * @return the changed towns and days, or a change to everything if any
+	 *         change was not recorded by town and day
+	 */
+	// method declared static for Android optimisation
+	public static DataChanges readChanges(SQLiteDatabase database)
+	{
+		Cursor cursor = database.rawQuery(
+				"SELECT town, datetaken FROM dailycompliancechange", null);
+
+		try
+		{
+			int count = cursor.getCount();
+			int[] towns = new int[count];
+			int[] epochDays = new int[count];
+
+			int changeCount = 0;
+			while (cursor.moveToNext())
+			{
+				// a value with no town is in no area, and a value with no day
+				// in no period
+				if (cursor.isNull(0) != cursor.isNull(1))
+					continue;
+
+				// a change to everything, or a day that cannot be read
+				String date = cursor.getString(1);
+				if ((date == null) || (date.length() < 10))
+					return new DataChanges(null, null);
+
+				towns[changeCount] = cursor.getInt(0);
+				epochDays[changeCount] = DataUtils.stringToEpochDay(date);
+				changeCount++;
+			} // while
+
+			if (changeCount < count)
+			{
+				int[] changedTowns = new int[changeCount];
+				System.arraycopy(towns, 0, changedTowns, 0, changeCount);
+				towns = changedTowns;
+
+				int[] changedDays = new int[changeCount];
+				System.arraycopy(epochDays, 0, changedDays, 0, changeCount);
+				epochDays = changedDays;
+			} // if
+
+			return new DataChanges(towns, epochDays);
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Counts the values of the towns and days that have changed since the
+	 * last refresh again. This must be called in the transaction that made
+	 * the changes, so that the table is never seen out of date.
+	 *
+	 * @param database
+	 *            database to refresh
+	 * @return number of changed towns and days that were counted, or -1 if
+	 *         everything was counted
+	 */
+	// method declared static for Android optimisation
+	public static long refresh(SQLiteDatabase database)
+	{
+		long changes = DatabaseUtils.longForQuery(database,
+				"SELECT COUNT(*) FROM dailycompliancechange", null);
+		if (changes == 0)
+			return 0;
+
+		boolean all = DatabaseUtils.longForQuery(database,
+				"SELECT COUNT(*) FROM dailycompliancechange WHERE town IS NULL AND datetaken IS NULL",
+				null) > 0;
+
+		if (all)
+		{
+			database.execSQL("DELETE FROM dailycompliance");
+			database.execSQL(INSERT_ALL);
+		}
+		else
+		{
+			database.execSQL(DELETE_CHANGED);
+			database.execSQL(INSERT_CHANGED);
+		} // if
+
+		database.execSQL("DELETE FROM dailycompliancechange");
+
+		return all ? -1 : changes;
+	}
+
+	/**
+	 * Empties the table, for when all the data has been deleted.
+	 *
+	 * @param database
+	 *            database to clear
+	 */
+	// method declared static for Android optimisation
+	public static void clear(SQLiteDatabase database)
+	{
+		database.execSQL("DELETE FROM dailycompliance");
+		database.execSQL("DELETE FROM dailycompliancechange");
+	}
+}
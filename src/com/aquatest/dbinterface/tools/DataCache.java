@@ -18,12 +18,12 @@
 package com.aquatest.dbinterface.tools;
 
 import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
 
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
 import android.util.Log;
 
@@ -32,18 +32,36 @@ import com.aquatest.dbinterface.objects.Parameter;
 import com.aquatest.dbinterface.objects.Sample;
 import com.aquatest.dbinterface.objects.SamplingPoint;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
+import com.aquatest.dbinterface.tools.SampleQueries.Query;
 
 /**
- * Class used to store data for all areas of the application.
+ * Class used to store data for all areas of the application. </p>
  * 
+ * The measured values are stored either in a {@link SampleWindow}, which
+ * keeps them in arrays of primitives, or as Sample and MeasuredValue objects
+ * in each sampling point. The methods of this class return the same data from
+ * either store. The window is used unless the objects are asked for.
  */
 public class DataCache
 {
 
 	DatabaseAdaptor parent;
 
+	/**
+	 * Sampling points of the area. When the values are stored in the window,
+	 * the sampling points have no samples, and their data must be read
+	 * through this class.
+	 */
 	public HashMap<Integer, SamplingPoint> samplingPoints;
-	public HashMap<Integer, Vector<Integer[]>> parameterToSampleMap;
+
+	/** measured values, or null if they are stored as objects */
+	public SampleWindow window;
+
+	/**
+	 * samples that have each parameter, built while the objects are loaded,
+	 * or null if the values are stored in the window
+	 */
+	private ParameterSampleIndex parameterSamples;
 
 	public int areaId;
 	public int areaType;
@@ -68,6 +86,30 @@ public class DataCache
 	public DataCache(DatabaseAdaptor _parent, int _areaId, int _areaType,
 			Calendar _startDate, Calendar _endDate)
 	{
+		this(_parent, _areaId, _areaType, _startDate, _endDate, false);
+	}
+
+
+	/**
+	 * Constructor
+	 * 
+	 * @param _parent
+	 *            DatabaseAdaptor used to interact with database
+	 * @param _areaId
+	 *            id of area that we are retrieving data for
+	 * @param _areaType
+	 *            municipality or town
+	 * @param _startDate
+	 *            start date to retrieve data from
+	 * @param _endDate
+	 *            end date to retrieve data to
+	 * @param storeObjects
+	 *            true to store the values as Sample and MeasuredValue objects
+	 *            instead of in a SampleWindow
+	 */
+	public DataCache(DatabaseAdaptor _parent, int _areaId, int _areaType,
+			Calendar _startDate, Calendar _endDate, boolean storeObjects)
+	{
 
 		parent = _parent;
 		startDate = _startDate;
@@ -77,55 +119,36 @@ public class DataCache
 		startDate = _startDate;
 		endDate = _endDate;
 
-		// parameterToSampleMap = parent.parameters;
-		// dateToSampleMap = new HashMap<Calendar, Vector<Integer[]>>();
-		parameterToSampleMap = new HashMap<Integer, Vector<Integer[]>>();
+		String startDateString = DataUtils.calendarToString(startDate);
+		String endDateString = DataUtils.calendarToString(endDate);
 
-		String startDateString = null;
-		String endDateString = null;
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-		startDateString = sdf.format(startDate.getTime());
-		endDateString = sdf.format(endDate.getTime());
-
-		String samplePointsQueryString = null;
-		String dataQueryString = null;
-
-		if (_areaType == DatabaseAdaptor.TOWN)
-		{
+		samplingPoints = loadSamplingPointsByAreaAndDate(SampleQueries.AREA_DATA,
+				SampleQueries.areaArgs(areaType, areaId, startDateString,
+						endDateString), storeObjects);
+	}
 
-			samplePointsQueryString = "SELECT _id, pointname, x_coord, y_coord, pointarea, wqmarea FROM samplingpoint WHERE wqmarea = "
-					+ areaId + " ORDER BY pointarea";
-
-			dataQueryString = "SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken from sample "
-					+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-					+ "WHERE sample.datetaken <= '"
-					+ endDateString
-					+ "' AND sample.datetaken >= '"
-					+ startDateString
-					+ "' "
-					+ "AND samplingpoint IN (SELECT _id FROM samplingpoint WHERE wqmarea = "
-					+ _areaId + ") ORDER BY datetaken, samplingpoint";
-		}
-		else
-		{
 
-			samplePointsQueryString = "SELECT samplingpoint._id, pointname, x_coord, y_coord, pointarea, wqmarea FROM samplingpoint inner join wqmarea "
-					+ "on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-					+ areaId + " ORDER BY pointarea";
-
-			dataQueryString = "SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken from sample "
-					+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-					+ "WHERE sample.datetaken <= '"
-					+ endDateString
-					+ "' AND sample.datetaken >= '"
-					+ startDateString
-					+ "' "
-					+ "AND samplingpoint IN (SELECT samplingpoint._id FROM samplingpoint inner join wqmarea on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-					+ areaId + ")";
-		}
-
-		samplingPoints = loadSamplingPointsByAreaAndDate(
-				samplePointsQueryString, dataQueryString);
+	/**
+	 * Constructor
+	 * 
+	 * @param _parent
+	 *            DatabaseAdaptor used to interact with database
+	 * @param _areaId
+	 *            id of area that we are retrieving data for
+	 * @param _areaType
+	 *            municipality or town
+	 * @param parameterId
+	 *            id of parameter to filter data by
+	 * @param _startDate
+	 *            start date to retrieve data from
+	 * @param _endDate
+	 *            end date to retrieve data to
+	 */
+	public DataCache(DatabaseAdaptor _parent, int _areaId, int _areaType,
+			int parameterId, Calendar _startDate, Calendar _endDate)
+	{
+		this(_parent, _areaId, _areaType, parameterId, _startDate, _endDate,
+				false);
 	}
 
 
@@ -144,9 +167,13 @@ public class DataCache
 	 *            start date to retrieve data from
 	 * @param _endDate
 	 *            end date to retrieve data to
+	 * @param storeObjects
+	 *            true to store the values as Sample and MeasuredValue objects
+	 *            instead of in a SampleWindow
 	 */
 	public DataCache(DatabaseAdaptor _parent, int _areaId, int _areaType,
-			int parameterId, Calendar _startDate, Calendar _endDate)
+			int parameterId, Calendar _startDate, Calendar _endDate,
+			boolean storeObjects)
 	{
 
 		parent = _parent;
@@ -157,69 +184,63 @@ public class DataCache
 		startDate = _startDate;
 		endDate = _endDate;
 
-		// dateToSampleMap = new HashMap<Calendar, Vector<Integer[]>>();
-		parameterToSampleMap = new HashMap<Integer, Vector<Integer[]>>();
-
-		String startDateString = null;
-		String endDateString = null;
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-		startDateString = sdf.format(startDate.getTime());
-		endDateString = sdf.format(endDate.getTime());
+		String startDateString = DataUtils.calendarToString(startDate);
+		String endDateString = DataUtils.calendarToString(endDate);
 
-		String samplePointsQueryString = null;
-		String dataQueryString = null;
+		samplingPoints = loadSamplingPointsByAreaAndDate(
+				SampleQueries.AREA_PARAMETER_DATA, SampleQueries.areaArgs(
+						areaType, areaId, startDateString, endDateString,
+						parameterId), storeObjects);
+	}
 
-		if (_areaType == DatabaseAdaptor.TOWN)
-		{
 
-			samplePointsQueryString = "SELECT _id, pointname, x_coord, y_coord, pointarea, wqmarea FROM samplingpoint WHERE wqmarea = "
-					+ areaId;
-
-			dataQueryString = "SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken from sample "
-					+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-					+ "WHERE sample.datetaken <= '"
-					+ endDateString
-					+ "' AND sample.datetaken >= '"
-					+ startDateString
-					+ "' "
-					+ "AND parameter = "
-					+ parameterId
-					+ " "
-					+ "AND samplingpoint IN (SELECT _id FROM samplingpoint WHERE wqmarea = "
-					+ _areaId + ")" + " ORDER BY  datetaken, samplingpoint";
-		}
-		else
-		{
+	/**
+	 * Constructor that selects the data of a period, and optionally of one
+	 * parameter, from the data of the same area for a period that contains
+	 * it. The database is not read.
+	 * 
+	 * @param source
+	 *            data of the same area, stored in a SampleWindow
+	 * @param parameterId
+	 *            id of parameter to filter data by, or
+	 *            {@link DataCacheRegistry#ALL_PARAMETERS}
+	 * @param _startDate
+	 *            start date to select data from
+	 * @param _endDate
+	 *            end date to select data to
+	 */
+	public DataCache(DataCache source, int parameterId, Calendar _startDate,
+			Calendar _endDate)
+	{
 
-			samplePointsQueryString = "SELECT samplingpoint._id, pointname, x_coord, y_coord, pointarea, wqmarea FROM samplingpoint "
-					+ "inner join wqmarea on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-					+ areaId;
-
-			dataQueryString = "SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken from sample "
-					+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-					+ "WHERE sample.datetaken <= '"
-					+ endDateString
-					+ "' AND sample.datetaken >= '"
-					+ startDateString
-					+ "' "
-					+ "AND parameter = "
-					+ parameterId
-					+ " "
-					+ "AND samplingpoint IN (SELECT samplingpoint._id FROM samplingpoint inner join wqmarea on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-					+ areaId + ")" + "ORDER BY datetaken, samplingpoint";
-		}
+		parent = source.parent;
+		areaId = source.areaId;
+		areaType = source.areaType;
+		startDate = _startDate;
+		endDate = _endDate;
 
-		samplingPoints = loadSamplingPointsByAreaAndDate(
-				samplePointsQueryString, dataQueryString);
+		// the sampling points hold no data of their own, so they are shared
+		samplingPoints = source.samplingPoints;
+		window = new SampleWindow(source.window, DataUtils
+				.calendarToEpochDay(startDate), DataUtils
+				.calendarToEpochDay(endDate), parameterId);
 	}
 
 
 	/**
 	 * Get sampling points and data from the database based on the constructor
 	 * used to create the DataCache.
+	 * 
+	 * @param dataQuery
+	 *            query of the measured values, from {@link SampleQueries}
+	 * @param dataArgs
+	 *            arguments of the data query
+	 * @param storeObjects
+	 *            true to store the values as objects in the sampling points,
+	 *            false to store them in the window
 	 */
 	private HashMap<Integer, SamplingPoint> loadSamplingPointsByAreaAndDate(
-			String _samplePointsQueryString, String _dataQueryString)
+			Query dataQuery, String[] dataArgs, boolean storeObjects)
 	{
 
 		HashMap<Integer, SamplingPoint> sP = new HashMap<Integer, SamplingPoint>();
@@ -229,8 +250,8 @@ public class DataCache
 		 */
 		
 		// query the sample points
-		Cursor cursor = parent.database
-				.rawQuery(_samplePointsQueryString, null);
+		Cursor cursor = SampleQueries.SAMPLING_POINTS.query(parent.database,
+				SampleQueries.areaArgs(areaType, areaId));
 
 		// save the results
 		if (cursor.moveToFirst())
@@ -268,10 +289,25 @@ public class DataCache
 		 */
 
 		// query the data
-		Cursor cursor1 = parent.database.rawQuery(_dataQueryString, null);
+		Cursor cursor1 = dataQuery.query(parent.database, dataArgs);
+
+		// samples that have each parameter, for the index
+		int rowCount = storeObjects ? cursor1.getCount() : 0;
+		int[] valueParameterIds = new int[rowCount];
+		int[] valueSampleIds = new int[rowCount];
+		int[] valuePointIds = new int[rowCount];
+		int valueCount = 0;
 
-		if (cursor1.moveToFirst())
+		if (!storeObjects)
 		{
+			// store the data in arrays, leaving the sampling points empty
+			window = new SampleWindow(parent, sP, cursor1);
+		}
+		else if (cursor1.moveToFirst())
+		{
+			// dates are copied into one buffer, rather than read as a String
+			// each
+			CharArrayBuffer dateBuffer = new CharArrayBuffer(10);
 
 			do
 			{
@@ -280,12 +316,8 @@ public class DataCache
 				int parameterId = cursor1.getInt(2);
 				double value = cursor1.getDouble(3);
 				int measuredvalueid = cursor1.getInt(4);
-				String dateString = cursor1.getString(5);
-
-				Calendar date = Calendar.getInstance();
-				date.set(Integer.parseInt(dateString.substring(0, 4)),
-						Integer.parseInt(dateString.substring(5, 7)) - 1,
-						Integer.parseInt(dateString.substring(8, 10)));
+				cursor1.copyStringToBuffer(5, dateBuffer);
+				int epochDay = DataUtils.charsToEpochDay(dateBuffer.data);
 
 
 				if (sP.containsKey(samplingPointId))
@@ -308,7 +340,7 @@ public class DataCache
 					{
 
 						Sample sample = new Sample(id, samplingPoint, 0, null,
-								date);
+								epochDay);
 
 						// try..catch block prevents Force Close when
 						// parameter==null
@@ -323,7 +355,7 @@ public class DataCache
 						}
 						catch (IllegalArgumentException e)
 						{
-							Log.e("DataCache.loadSamplingPointsByAreaAndDate(String, String)",
+							Log.e("DataCache.loadSamplingPointsByAreaAndDate(Query, String[], boolean)",
 									"Illegal argument to MeasuredValue constructor",
 									e);
 						}
@@ -338,20 +370,10 @@ public class DataCache
 										paramObject, value));
 
 
-					Integer[] keyPair = { id, samplingPointId };
-					if (!parameterToSampleMap.containsKey(parameterId))
-					{
-
-						Vector<Integer[]> keyPairs = new Vector<Integer[]>();
-						keyPairs.add(keyPair);
-						parameterToSampleMap.put(parameterId, keyPairs);
-					}
-					else
-					{
-						if (!parameterToSampleMap.get(parameterId).contains(
-								keyPair))
-							parameterToSampleMap.get(parameterId).add(keyPair);
-					}
+					valueParameterIds[valueCount] = parameterId;
+					valueSampleIds[valueCount] = id;
+					valuePointIds[valueCount] = samplingPointId;
+					valueCount++;
 				}
 
 			}
@@ -360,10 +382,73 @@ public class DataCache
 
 		cursor1.close();
 
+		if (storeObjects)
+			parameterSamples = new ParameterSampleIndex(valueParameterIds,
+					valueSampleIds, valuePointIds, valueCount);
+
 		return sP;
 	}
 
 
+	/**
+	 * Get the index of the samples that have each parameter. </p>
+	 * 
+	 * When the values are stored in the window, a new index is built for each
+	 * call and belongs to the caller, because a DataCache may be shared
+	 * between screens and must not change once it has been loaded.
+	 * 
+	 * @return index of samples by parameter
+	 */
+	public ParameterSampleIndex getParameterSamples()
+	{
+		if (parameterSamples != null)
+			return parameterSamples;
+
+		return new ParameterSampleIndex(window.parameterIds, window.sampleIds,
+				window.pointIds, window.size);
+	}
+
+
+	/**
+	 * Estimates the memory used by the data, so that a
+	 * {@link DataCacheRegistry} can limit how much it keeps.
+	 * 
+	 * @return estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		// a sampling point with its names, and its entry in the HashMap
+		long bytes = 200L * samplingPoints.size();
+
+		if (window != null)
+		{
+			bytes += window.estimateBytes();
+		}
+		else
+		{
+			// a sample or measured value, and its entry in a HashMap
+			Iterator<SamplingPoint> i = samplingPoints.values().iterator();
+			while (i.hasNext())
+			{
+				HashMap<Integer, Sample> samples = i.next().samples;
+				bytes += 100L * samples.size();
+
+				Iterator<Sample> j = samples.values().iterator();
+				while (j.hasNext())
+				{
+					bytes += 100L * j.next().measuredValues.size();
+				}
+			} // while
+		} // if
+
+		// only the object store keeps an index
+		if (parameterSamples != null)
+			bytes += parameterSamples.estimateBytes();
+
+		return bytes;
+	}
+
+
 	/**
 	 * Get parameters ordered by name
 	 * 
@@ -438,10 +523,15 @@ public class DataCache
 	/**
 	 * Get parameter data in a format that can be displayed in a DataList
 	 * 
-	 * @return parameter data
+	 * @return parameter data, built when each row is asked for if the values
+	 *         are stored in the window
 	 */
-	public Vector<Vector<DataIndicator>> getParametersDataIndicatorsGroupedByDate()
+	public DataRows getParametersDataIndicatorsGroupedByDate()
 	{
+		if (window != null)
+			return window
+					.getParametersDataIndicatorsGroupedByDate(getOrderedParameters1());
+
 		Vector<Vector<DataIndicator>> dIs = new Vector<Vector<DataIndicator>>();
 
 		Vector<SamplingPoint> orderedSPs = getOrderedSamplingPoints();
@@ -460,7 +550,7 @@ public class DataCache
 				dIs.add(dI);
 		}
 
-		return dIs;
+		return DataRows.fromVector(dIs);
 	}
 
 
@@ -469,11 +559,15 @@ public class DataCache
 	 * 
 	 * @param showPointNames
 	 *            whether to hide or show sampling point names
-	 * @return parameter data
+	 * @return parameter data, built when each row is asked for if the values
+	 *         are stored in the window
 	 */
-	public Vector<Vector<DataIndicator>> getParametersDataIndicators(
+	public DataRows getParametersDataIndicators(
 			boolean showPointNames)
 	{
+		if (window != null)
+			return window.getParametersDataIndicators(getOrderedParameters1(),
+					showPointNames);
 
 		Vector<Vector<DataIndicator>> dIs = new Vector<Vector<DataIndicator>>();
 
@@ -490,7 +584,31 @@ public class DataCache
 					showPointNames));
 		}
 
-		return dIs;
+		return DataRows.fromVector(dIs);
+	}
+
+
+	/**
+	 * Get parameter data of one sampling point in a format that can be
+	 * displayed in a DataList
+	 * 
+	 * @param dataId
+	 *            id of the sampling point
+	 * @param showPointName
+	 *            whether to hide or show the sampling point name
+	 * @return parameter data, built when each row is asked for if the values
+	 *         are stored in the window
+	 */
+	public DataRows getSamplingPointParametersDataIndicators(
+			int dataId, boolean showPointName)
+	{
+		if (window != null)
+			return window.getSamplingPointParametersDataIndicators(dataId,
+					getOrderedParameters1(), showPointName);
+
+		return DataRows.fromVector(samplingPoints.get(dataId)
+				.getParametersDataIndicators(getOrderedParameters1(),
+						showPointName));
 	}
 
 
@@ -527,11 +645,14 @@ public class DataCache
 	 * 
 	 * @param hiddenColumn
 	 *            index of a column to hide
-	 * @return data to be displayed
+	 * @return data to be displayed, built when each row is asked for if the
+	 *         values are stored in the window
 	 */
-	public Vector<Vector<DataIndicator>> getMeasuredValueDataIndicators(
+	public DataRows getMeasuredValueDataIndicators(
 			int hiddenColumn)
 	{
+		if (window != null)
+			return window.getMeasuredValueDataIndicators(hiddenColumn);
 
 		Vector<Vector<DataIndicator>> dIs = new Vector<Vector<DataIndicator>>();
 		Vector<SamplingPoint> orderedSPs = getOrderedSamplingPoints();
@@ -546,7 +667,30 @@ public class DataCache
 			dIs.addAll(sP.getMeasureValueDataIndicators(hiddenColumn));
 		}
 
-		return dIs;
+		return DataRows.fromVector(dIs);
+	}
+
+
+	/**
+	 * Get measured values data of one sampling point in a format that can be
+	 * displayed in a DataList.
+	 * 
+	 * @param dataId
+	 *            id of the sampling point
+	 * @param hiddenColumn
+	 *            index of a column to hide
+	 * @return data to be displayed, built when each row is asked for if the
+	 *         values are stored in the window
+	 */
+	public DataRows getSamplingPointMeasuredValueDataIndicators(
+			int dataId, int hiddenColumn)
+	{
+		if (window != null)
+			return window.getSamplingPointMeasuredValueDataIndicators(dataId,
+					hiddenColumn);
+
+		return DataRows.fromVector(samplingPoints.get(dataId)
+				.getMeasureValueDataIndicators(hiddenColumn));
 	}
 
 
@@ -590,15 +734,19 @@ public class DataCache
 	 */
 	public Vector<Parameter> getOrderedParameters1()
 	{
+		if (window != null)
+			return window.getOrderedParameters();
 
 		Vector<Parameter> mVector = new Vector<Parameter>();
 
-		Iterator<Integer> i = parameterToSampleMap.keySet().iterator();
+		ParameterSampleIndex index = getParameterSamples();
 
-		while (i.hasNext())
+		// do this to optimise the Android code
+		int parameterCount = index.getParameterCount();
+		for (int p = 0; p < parameterCount; p++)
 		{
 
-			int key = (Integer) i.next();
+			int key = index.getParameterId(p);
 
 			Parameter parameter = parent.parameters.get(key);
 
@@ -640,6 +788,22 @@ public class DataCache
 	}
 
 
+	/**
+	 * Get the severity of a specific sampling point.
+	 * 
+	 * @param dataId
+	 *            id of the sampling point
+	 * @return severity, from TestIndicators
+	 */
+	public byte getSamplingPointSeverity(int dataId)
+	{
+		if (window != null)
+			return window.getSamplingPointSeverity(dataId);
+
+		return samplingPoints.get(dataId).getSeverity();
+	}
+
+
 	/**
 	 * Get compliance for a specific sampling point.
 	 * 
@@ -652,12 +816,23 @@ public class DataCache
 
 		DecimalFormat dF = new DecimalFormat("#.##%");
 
-		int[] counts = samplingPoints.get(dataId).getCompliance();
+		int[] counts;
+		byte severity;
+		if (window != null)
+		{
+			counts = new int[2];
+			severity = window.countSamplingPointCompliance(dataId, counts);
+		}
+		else
+		{
+			counts = samplingPoints.get(dataId).getCompliance();
+			severity = samplingPoints.get(dataId).getSeverity();
+		}
 		double passCount = counts[0];
 		double totalCount = counts[1];
 
 		DataIndicator dI = new DataIndicator(passCount / totalCount,
-				samplingPoints.get(dataId).getColour(), dF.format(passCount
+				TestIndicators.getColour(severity), dF.format(passCount
 						/ totalCount));
 
 		return dI;
@@ -674,42 +849,47 @@ public class DataCache
 	{
 		double totalCount = 0;
 		double passCount = 0;
-		String colour = TestIndicators.NONE;
+		byte severity = TestIndicators.NONE_SEVERITY;
 
-		Iterator<Integer> i = samplingPoints.keySet().iterator();
-
-		while (i.hasNext())
+		if (window != null)
 		{
+			int[] counts = new int[2];
+			severity = window.countCompliance(counts);
+			passCount = counts[0];
+			totalCount = counts[1];
+		}
+		else
+		{
+			Iterator<Integer> i = samplingPoints.keySet().iterator();
 
-			int key = (Integer) i.next();
+			while (i.hasNext())
+			{
 
-			SamplingPoint samplingPoint = samplingPoints.get(key);
+				int key = (Integer) i.next();
+
+				SamplingPoint samplingPoint = samplingPoints.get(key);
 
-			int[] compliance = samplingPoint.getCompliance();
+				int[] compliance = samplingPoint.getCompliance();
 
-			// Log.v("Steve", "SP: " + compliance[0] + "," + compliance[1]);
+				// Log.v("Steve", "SP: " + compliance[0] + "," + compliance[1]);
 
 
-			totalCount += compliance[1];
-			passCount += compliance[0];
+				totalCount += compliance[1];
+				passCount += compliance[0];
 
-			String samplingPointColour = samplingPoint.getColour();
+				byte samplingPointSeverity = samplingPoint.getSeverity();
 
-			if ((samplingPointColour.compareTo(TestIndicators.PASS) == 0)
-					&& (colour.compareTo(TestIndicators.NONE) == 0))
-				colour = TestIndicators.PASS;
-			else if (samplingPointColour.compareTo(TestIndicators.FAIL) == 0)
-				colour = TestIndicators.FAIL;
-			else if ((samplingPointColour.compareTo(TestIndicators.YELLOW) == 0)
-					&& (colour.compareTo(TestIndicators.FAIL) != 0))
-				colour = TestIndicators.YELLOW;
+				if (samplingPointSeverity > severity)
+					severity = samplingPointSeverity;
+			}
 		}
 
 		// Log.v("Steve", "SP: " + passCount + "," + totalCount);
 
 		DecimalFormat dF = new DecimalFormat("#.##%");
-		DataIndicator dI = new DataIndicator(passCount / totalCount, colour,
-				dF.format(passCount / totalCount));
+		DataIndicator dI = new DataIndicator(passCount / totalCount,
+				TestIndicators.getColour(severity), dF.format(passCount
+						/ totalCount));
 
 		return dI;
 	}
@@ -0,0 +1,234 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Calendar;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads DataCache objects on background threads, so that the screens are not
+ * held up while the database is read. </p>
+ *
+ * The result of each load is given to its callback through the callback
+ * executor, which in the application runs it on the main thread. A load that
+ * is cancelled is never given to its callback, and is not run at all if it
+ * has not started yet. </p>
+ *
+ * The loader uses no Android classes, so it can be run against a fake source
+ * of data.
+ */
+public class DataCacheLoader
+{
+	/** number of loads run at the same time, unless set otherwise */
+	public static final int DEFAULT_THREADS = 1;
+
+	/**
+	 * Source of the data of an area, such as the application's
+	 * {@link DataCacheRegistry}.
+	 */
+	public interface Source
+	{
+		/**
+		 * Get the data of an area for a period. This is called on a
+		 * background thread.
+		 */
+		DataCache getDataCache(int areaType, int areaId, int parameterId,
+				Calendar startDate, Calendar endDate);
+	}
+
+	/**
+	 * Receives the result of a load, through the callback executor.
+	 */
+	public interface Callback
+	{
+		/** Called with the data once it has loaded */
+		void onLoaded(DataCache dataCache);
+
+		/** Called if the data could not be loaded */
+		void onFailed(RuntimeException e);
+	}
+
+	private final Source source;
+	private final Executor callbackExecutor;
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param _source
+	 *            source of the data
+	 * @param _callbackExecutor
+	 *            runs the callbacks, such as on the main thread
+	 * @param threadCount
+	 *            number of loads to run at the same time
+	 */
+	public DataCacheLoader(Source _source, Executor _callbackExecutor,
+			int threadCount)
+	{
+		source = _source;
+		callbackExecutor = _callbackExecutor;
+
+		// the threads are only created when there is something to load, and
+		// run below the priority of the screens
+		executor = new ThreadPoolExecutor(threadCount, threadCount, 0,
+				TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "DataCacheLoader");
+						thread.setDaemon(true);
+						thread.setPriority(Thread.NORM_PRIORITY - 1);
+						return thread;
+					}
+				});
+	}
+
+
+	/**
+	 * Starts loading the data of an area for a period.
+	 *
+	 * @param areaType
+	 *            municipality or town
+	 * @param areaId
+	 *            id of the area
+	 * @param parameterId
+	 *            id of the parameter to filter the data by, or
+	 *            {@link DataCacheRegistry#ALL_PARAMETERS}
+	 * @param startDate
+	 *            start date of the data
+	 * @param endDate
+	 *            end date of the data
+	 * @param callback
+	 *            receives the data once it has loaded
+	 * @return the load, which can be cancelled
+	 */
+	public Request load(int areaType, int areaId, int parameterId,
+			Calendar startDate, Calendar endDate, Callback callback)
+	{
+		Request request = new Request(areaType, areaId, parameterId,
+				startDate, endDate, callback);
+		executor.execute(request);
+		return request;
+	}
+
+
+	/**
+	 * Stops the background threads. Loads that have not started are dropped.
+	 */
+	public void shutdown()
+	{
+		executor.shutdownNow();
+	}
+
+
+	/**
+	 * A load of the data of an area, which can be cancelled once it is no
+	 * longer wanted, such as when its screen is closed.
+	 */
+	public class Request implements Runnable
+	{
+		private final int areaType;
+		private final int areaId;
+		private final int parameterId;
+		private final Calendar startDate;
+		private final Calendar endDate;
+		private final Callback callback;
+
+		private volatile boolean cancelled = false;
+
+		Request(int _areaType, int _areaId, int _parameterId,
+				Calendar _startDate, Calendar _endDate, Callback _callback)
+		{
+			areaType = _areaType;
+			areaId = _areaId;
+			parameterId = _parameterId;
+			// the caller may change its dates while this is waiting
+			startDate = (Calendar) _startDate.clone();
+			endDate = (Calendar) _endDate.clone();
+			callback = _callback;
+		}
+
+
+		/**
+		 * Cancels the load. If this is called on the thread that runs the
+		 * callbacks, the callback is certain not to be called afterwards.
+		 */
+		public void cancel()
+		{
+			cancelled = true;
+			executor.remove(this);
+		}
+
+
+		/**
+		 * @return <code>true</code> if the load has been cancelled
+		 */
+		public boolean isCancelled()
+		{
+			return cancelled;
+		}
+
+
+		/**
+		 * Loads the data on a background thread, and passes it to the
+		 * callback executor.
+		 */
+		public void run()
+		{
+			if (cancelled)
+				return;
+
+			DataCache dataCache = null;
+			RuntimeException error = null;
+			try
+			{
+				dataCache = source.getDataCache(areaType, areaId, parameterId,
+						startDate, endDate);
+			}
+			catch (RuntimeException e)
+			{
+				error = e;
+			}
+
+			if (cancelled)
+				return;
+
+			final DataCache result = dataCache;
+			final RuntimeException failure = error;
+			callbackExecutor.execute(new Runnable()
+			{
+				public void run()
+				{
+					// the load may have been cancelled while this waited
+					if (cancelled)
+						return;
+
+					if (failure != null)
+						callback.onFailed(failure);
+					else
+						callback.onLoaded(result);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,372 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.aquatest.dbinterface.objects.SamplingPoint;
+
+/**
+ * Keeps the DataCache objects loaded for each area and period, so that moving
+ * back and forth between the screens of the same area does not query the
+ * database again. </p>
+ *
+ * The caches are kept in order of use, and the least recently used are
+ * dropped once their estimated size passes a limit. A cache is dropped when
+ * an update changes the data of one of its towns on a day in its period. </p>
+ *
+ * Data for part of a period that is kept, or for one parameter of it, is
+ * selected from the kept data instead of being loaded. </p>
+ *
+ * A DataCache does not change once it has been loaded, so the same one can be
+ * given to each screen that asks for it.
+ */
+public class DataCacheRegistry
+{
+	/** parameter id of a cache of all the parameters */
+	public static final int ALL_PARAMETERS = -1;
+
+	/** entries in order of use, least recent first */
+	private final LinkedHashMap<Key, CachedData> entries = new LinkedHashMap<Key, CachedData>(
+			16, 0.75f, true);
+
+	/** largest total estimated size of the caches, in bytes */
+	private final long maxBytes;
+	/** total estimated size of the caches, in bytes */
+	private long totalBytes = 0;
+	/**
+	 * number of times the data has been invalidated - data loaded while it
+	 * was invalidated may be out of date, so it is not kept
+	 */
+	private int generation = 0;
+
+	/** number of times kept data was found */
+	public int hitCount = 0;
+	/** number of times kept data was not found */
+	public int missCount = 0;
+	/** number of times data was selected from other kept data */
+	public int derivedCount = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param _maxBytes
+	 *            largest total estimated size of the caches, in bytes
+	 */
+	public DataCacheRegistry(long _maxBytes)
+	{
+		maxBytes = _maxBytes;
+	}
+
+
+	/**
+	 * Get the data of an area for a period, loading it if it is not kept.
+	 *
+	 * @param parent
+	 *            DatabaseAdaptor used to load the data
+	 * @param areaType
+	 *            municipality or town
+	 * @param areaId
+	 *            id of the area
+	 * @param parameterId
+	 *            id of the parameter to filter the data by, or
+	 *            {@link #ALL_PARAMETERS}
+	 * @param startDate
+	 *            start date of the data
+	 * @param endDate
+	 *            end date of the data
+	 * @return the data
+	 */
+	public DataCache getDataCache(DatabaseAdaptor parent, int areaType,
+			int areaId, int parameterId, Calendar startDate, Calendar endDate)
+	{
+		Key key = new Key(areaType, areaId, parameterId, DataUtils
+				.calendarToEpochDay(startDate), DataUtils
+				.calendarToEpochDay(endDate));
+
+		int loadGeneration = getGeneration();
+		DataCache dataCache = get(key);
+		if (dataCache == null)
+		{
+			// drilling down from a longer period, or from all the parameters,
+			// only needs part of the data that is already kept
+			DataCache source = findSource(key);
+			if (source != null)
+			{
+				dataCache = new DataCache(source, parameterId, startDate,
+						endDate);
+			}
+			else if (parameterId == ALL_PARAMETERS)
+			{
+				dataCache = new DataCache(parent, areaId, areaType, startDate,
+						endDate);
+			}
+			else
+			{
+				dataCache = new DataCache(parent, areaId, areaType,
+						parameterId, startDate, endDate);
+			}
+			put(key, dataCache, loadGeneration);
+		} // if
+
+		return dataCache;
+	}
+
+
+	private synchronized int getGeneration()
+	{
+		return generation;
+	}
+
+
+	/**
+	 * Get the data of an area for a period, if it is kept.
+	 */
+	private synchronized DataCache get(Key key)
+	{
+		CachedData cachedData = entries.get(key);
+		if (cachedData == null)
+		{
+			missCount++;
+			return null;
+		}
+
+		hitCount++;
+		return cachedData.dataCache;
+	}
+
+
+	/**
+	 * Finds the smallest data kept for the same area whose window holds all
+	 * the data of a key, and marks it as used.
+	 */
+	private synchronized DataCache findSource(Key key)
+	{
+		Key sourceKey = null;
+		CachedData source = null;
+
+		Iterator<Map.Entry<Key, CachedData>> i = entries.entrySet()
+				.iterator();
+		while (i.hasNext())
+		{
+			Map.Entry<Key, CachedData> entry = i.next();
+			Key k = entry.getKey();
+			CachedData cachedData = entry.getValue();
+
+			if ((k.areaType == key.areaType) && (k.areaId == key.areaId)
+					&& ((k.parameterId == ALL_PARAMETERS) || (k.parameterId == key.parameterId))
+					&& (k.startDay <= key.startDay) && (k.endDay >= key.endDay)
+					&& (cachedData.dataCache.window != null)
+					&& ((source == null) || (cachedData.bytes < source.bytes)))
+			{
+				sourceKey = k;
+				source = cachedData;
+			}
+		} // while
+
+		if (source == null)
+			return null;
+
+		derivedCount++;
+		entries.get(sourceKey);
+		return source.dataCache;
+	}
+
+
+	/**
+	 * Keeps the data of an area, and drops the least recently used data until
+	 * the total size is within the limit. Data larger than the limit, or
+	 * loaded before the last invalidation, is not kept.
+	 */
+	private synchronized void put(Key key, DataCache dataCache,
+			int loadGeneration)
+	{
+		if (loadGeneration != generation)
+			return;
+
+		long bytes = dataCache.estimateBytes();
+		if (bytes > maxBytes)
+			return;
+
+		CachedData cachedData = new CachedData(dataCache, bytes);
+		CachedData oldData = entries.put(key, cachedData);
+		if (oldData != null)
+			totalBytes -= oldData.bytes;
+		totalBytes += bytes;
+
+		Iterator<CachedData> i = entries.values().iterator();
+		while ((totalBytes > maxBytes) && i.hasNext())
+		{
+			CachedData eldest = i.next();
+			if (eldest != cachedData)
+			{
+				totalBytes -= eldest.bytes;
+				i.remove();
+			}
+		} // while
+	}
+
+
+	/**
+	 * Drops the data of the areas and periods that an update changed.
+	 *
+	 * @param changes
+	 *            towns and days that were changed
+	 */
+	public synchronized void invalidate(DataChanges changes)
+	{
+		generation++;
+
+		if (changes.isAll())
+		{
+			clear();
+			return;
+		}
+
+		Iterator<Map.Entry<Key, CachedData>> i = entries.entrySet()
+				.iterator();
+		while (i.hasNext())
+		{
+			Map.Entry<Key, CachedData> entry = i.next();
+			Key key = entry.getKey();
+			CachedData cachedData = entry.getValue();
+
+			int[] towns = cachedData.towns;
+			for (int j = 0; j < towns.length; j++)
+			{
+				if (changes.contains(towns[j], key.startDay, key.endDay))
+				{
+					totalBytes -= cachedData.bytes;
+					i.remove();
+					break;
+				}
+			} // for
+		} // while
+	}
+
+
+	/**
+	 * Drops all the data, for when the whole database has changed.
+	 */
+	public synchronized void clear()
+	{
+		generation++;
+		entries.clear();
+		totalBytes = 0;
+	}
+
+
+	/**
+	 * Get the total estimated size of the data that is kept.
+	 *
+	 * @return size in bytes
+	 */
+	public synchronized long getTotalBytes()
+	{
+		return totalBytes;
+	}
+
+
+	/**
+	 * Identifies the data of an area for a period.
+	 */
+	private static final class Key
+	{
+		final int areaType;
+		final int areaId;
+		final int parameterId;
+		final int startDay;
+		final int endDay;
+
+		Key(int _areaType, int _areaId, int _parameterId, int _startDay,
+				int _endDay)
+		{
+			areaType = _areaType;
+			areaId = _areaId;
+			parameterId = _parameterId;
+			startDay = _startDay;
+			endDay = _endDay;
+		}
+
+		@Override
+		public boolean equals(Object testObject)
+		{
+			if (!(testObject instanceof Key))
+				return false;
+
+			Key key = (Key) testObject;
+			return (areaType == key.areaType) && (areaId == key.areaId)
+					&& (parameterId == key.parameterId)
+					&& (startDay == key.startDay) && (endDay == key.endDay);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			int hash = areaType;
+			hash = hash * 31 + areaId;
+			hash = hash * 31 + parameterId;
+			hash = hash * 31 + startDay;
+			return hash * 31 + endDay;
+		}
+	}
+
+
+	/**
+	 * The data of an area, with its size and the towns its sampling points
+	 * are in.
+	 */
+	private static final class CachedData
+	{
+		final DataCache dataCache;
+		final long bytes;
+		/** towns of the sampling points of the data, sorted */
+		final int[] towns;
+
+		CachedData(DataCache _dataCache, long _bytes)
+		{
+			dataCache = _dataCache;
+			bytes = _bytes;
+
+			// the data of a town with no sampling points can only change if
+			// a sampling point does, which changes everything
+			int[] pointTowns = new int[_dataCache.samplingPoints.size()];
+			int count = 0;
+			Iterator<SamplingPoint> i = _dataCache.samplingPoints.values()
+					.iterator();
+			while (i.hasNext())
+			{
+				pointTowns[count++] = i.next().townId;
+			}
+			Arrays.sort(pointTowns);
+
+			int townCount = 0;
+			for (int j = 0; j < count; j++)
+			{
+				if ((j == 0) || (pointTowns[j] != pointTowns[j - 1]))
+					pointTowns[townCount++] = pointTowns[j];
+			}
+			towns = new int[townCount];
+			System.arraycopy(pointTowns, 0, towns, 0, townCount);
+		}
+	}
+}
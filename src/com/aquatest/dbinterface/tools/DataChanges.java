@@ -0,0 +1,88 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+/**
+ * The towns and days whose measured values an update changed, as recorded in
+ * the dailycompliancechange table by {@link DailyCompliance}. </p>
+ *
+ * Changes that are not recorded by town and day, such as a change to a value
+ * rule or a sampling point, may change the data of any area, and are given as
+ * a change to everything.
+ */
+public class DataChanges
+{
+	/** changed towns, or null if everything may have changed */
+	public final int[] towns;
+	/** changed day of each town, in days since 1970-01-01 */
+	public final int[] epochDays;
+
+	/**
+	 * Constructor
+	 *
+	 * @param _towns
+	 *            changed towns, or null if everything may have changed
+	 * @param _epochDays
+	 *            changed day of each town, in days since 1970-01-01
+	 */
+	public DataChanges(int[] _towns, int[] _epochDays)
+	{
+		towns = _towns;
+		epochDays = _epochDays;
+	}
+
+
+	/**
+	 * Checks whether everything may have changed.
+	 *
+	 * @return true if the changes are not known by town and day
+	 */
+	public boolean isAll()
+	{
+		return (towns == null) || (epochDays == null);
+	}
+
+
+	/**
+	 * Checks whether any of the days of a town changed.
+	 *
+	 * @param town
+	 *            id of the town
+	 * @param startDay
+	 *            first day, in days since 1970-01-01
+	 * @param endDay
+	 *            last day, in days since 1970-01-01
+	 * @return true if the town changed on a day from startDay to endDay
+	 */
+	public boolean contains(int town, int startDay, int endDay)
+	{
+		if (isAll())
+			return true;
+
+		// do this to optimise the Android code
+		int count = towns.length;
+		for (int i = 0; i < count; i++)
+		{
+			if ((towns[i] == town) && (epochDays[i] >= startDay)
+					&& (epochDays[i] <= endDay))
+				return true;
+		} // for
+
+		return false;
+	}
+}
@@ -0,0 +1,131 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Vector;
+
+/**
+ * Rows of a DataList, which are built when they are asked for instead of all
+ * at once, so that only the rows on the screen need to be in memory. </p>
+ *
+ * Recently built rows are kept, each in the slot of its position modulo
+ * {@link #CACHE_SIZE}, so a row that is asked for again while it is on the
+ * screen is not built again, and the rows of one screen never push each other
+ * out.
+ */
+public abstract class DataRows
+{
+	/** number of built rows that are kept, more than fit on a screen */
+	public static final int CACHE_SIZE = 64;
+
+	/** position of the row kept in each slot, or -1 */
+	private int[] cachedPositions;
+	private Vector<Vector<DataIndicator>> cachedRows;
+
+	/**
+	 * Get the number of rows.
+	 *
+	 * @return number of rows
+	 */
+	public abstract int size();
+
+
+	/**
+	 * Builds a row.
+	 *
+	 * @param position
+	 *            position of the row, from 0 to size() - 1
+	 * @return the row
+	 */
+	protected abstract Vector<DataIndicator> buildRow(int position);
+
+
+	/**
+	 * Get a row, building it if it is not kept.
+	 *
+	 * @param position
+	 *            position of the row, from 0 to size() - 1
+	 * @return the row
+	 */
+	public Vector<DataIndicator> get(int position)
+	{
+		if (cachedPositions == null)
+		{
+			int slotCount = Math.max(1, Math.min(CACHE_SIZE, size()));
+			cachedPositions = new int[slotCount];
+			for (int i = 0; i < slotCount; i++)
+			{
+				cachedPositions[i] = -1;
+			}
+			cachedRows = new Vector<Vector<DataIndicator>>(slotCount);
+			cachedRows.setSize(slotCount);
+		}
+
+		int slot = position % cachedPositions.length;
+		if (cachedPositions[slot] == position)
+			return cachedRows.get(slot);
+
+		Vector<DataIndicator> row = buildRow(position);
+		cachedPositions[slot] = position;
+		cachedRows.set(slot, row);
+		return row;
+	}
+
+
+	/**
+	 * Wraps rows that have already been built.
+	 *
+	 * @param rows
+	 *            the rows
+	 * @return the rows as a DataRows
+	 */
+	// method declared static for Android optimisation
+	public static DataRows fromVector(Vector<Vector<DataIndicator>> rows)
+	{
+		return new BuiltRows(rows);
+	}
+
+
+	/**
+	 * Rows that have already been built, which are not cached again.
+	 */
+	private static class BuiltRows extends DataRows
+	{
+		private final Vector<Vector<DataIndicator>> rows;
+
+		BuiltRows(Vector<Vector<DataIndicator>> _rows)
+		{
+			rows = _rows;
+		}
+
+		public int size()
+		{
+			return rows.size();
+		}
+
+		protected Vector<DataIndicator> buildRow(int position)
+		{
+			return rows.get(position);
+		}
+
+		public Vector<DataIndicator> get(int position)
+		{
+			return rows.get(position);
+		}
+	}
+}
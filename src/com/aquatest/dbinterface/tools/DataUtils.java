@@ -17,7 +17,6 @@
  */
 package com.aquatest.dbinterface.tools;
 
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import android.content.ContentUris;
 import android.net.Uri;
@@ -49,6 +48,57 @@ public class DataUtils {
 		public static final String FAIL = RED;
 		public static final String NONE = GREY;
 
+		/*
+		 * Severities of the test results, so that results can be combined
+		 * without comparing colour strings. A worse result has a higher
+		 * severity, so the worst of several results is the highest.
+		 */
+		public static final byte NONE_SEVERITY = 0;
+		public static final byte PASS_SEVERITY = 1;
+		public static final byte WARNING_SEVERITY = 2;
+		public static final byte FAIL_SEVERITY = 3;
+
+		/**
+		 * Get the severity of a colour code.
+		 * 
+		 * @param colour
+		 *            colour code to return the severity of
+		 * @return severity of the colour, or NONE_SEVERITY if it is not a
+		 *         pass, warning or failure colour
+		 */
+		// method declared static for Android optimisation
+		public static byte getSeverity(String colour) {
+			if (FAIL.equals(colour)) {
+				return FAIL_SEVERITY;
+			} else if (WARNING.equals(colour)) {
+				return WARNING_SEVERITY;
+			} else if (PASS.equals(colour)) {
+				return PASS_SEVERITY;
+			}
+
+			return NONE_SEVERITY;
+		}
+
+		/**
+		 * Get the colour code of a severity, for display.
+		 * 
+		 * @param severity
+		 *            severity to return the colour code of
+		 * @return colour code of the severity
+		 */
+		// method declared static for Android optimisation
+		public static String getColour(byte severity) {
+			switch (severity) {
+			case FAIL_SEVERITY:
+				return FAIL;
+			case WARNING_SEVERITY:
+				return WARNING;
+			case PASS_SEVERITY:
+				return PASS;
+			default:
+				return NONE;
+			}
+		}
 	}
 
 	/**
@@ -103,6 +153,26 @@ public class DataUtils {
 		return TestIndicators.WHITE_COLOR;
 	}
 
+	/**
+	 * Get actual colour to display based on a severity.
+	 * 
+	 * @param severity
+	 *            severity to return actual colour for
+	 * @return actual colour to display
+	 */
+	public static int getColor(byte severity) {
+		switch (severity) {
+		case TestIndicators.FAIL_SEVERITY:
+			return TestIndicators.RED_COLOR;
+		case TestIndicators.WARNING_SEVERITY:
+			return TestIndicators.YELLOW_COLOR;
+		case TestIndicators.PASS_SEVERITY:
+			return TestIndicators.GREEN_COLOR;
+		default:
+			return TestIndicators.GREY_COLOR;
+		}
+	}
+
 	/**
 	 * Method to subtract days from a date.
 	 * 
@@ -129,9 +199,14 @@ public class DataUtils {
 	 */
 	public static String calendarToString(Calendar date) {
 
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+		StringBuilder text = new StringBuilder(10);
+		appendDigits(text, date.get(Calendar.YEAR), 4);
+		text.append('-');
+		appendDigits(text, date.get(Calendar.MONTH) + 1, 2);
+		text.append('-');
+		appendDigits(text, date.get(Calendar.DAY_OF_MONTH), 2);
 
-		return sdf.format(date.getTime());
+		return text.toString();
 	}
 
 	/**
@@ -143,9 +218,194 @@ public class DataUtils {
 	 */
 	public static String calendarToStringShort(Calendar date) {
 
-		SimpleDateFormat sdf = new SimpleDateFormat("MM/dd");
+		StringBuilder text = new StringBuilder(5);
+		appendDigits(text, date.get(Calendar.MONTH) + 1, 2);
+		text.append('/');
+		appendDigits(text, date.get(Calendar.DAY_OF_MONTH), 2);
+
+		return text.toString();
+	}
 
-		return sdf.format(date.getTime());
+	/**
+	 * Convert the day of a Calendar object to the number of days since
+	 * 1970-01-01.
+	 * 
+	 * @param date
+	 *            date to convert
+	 * @return days since 1970-01-01
+	 */
+	public static int calendarToEpochDay(Calendar date) {
+		return toEpochDay(date.get(Calendar.YEAR),
+				date.get(Calendar.MONTH) + 1, date.get(Calendar.DAY_OF_MONTH));
+	}
+
+	/**
+	 * Convert a date formatted as yyyy-MM-dd to the number of days since
+	 * 1970-01-01, without creating any objects.
+	 * 
+	 * @param date
+	 *            date to convert
+	 * @return days since 1970-01-01
+	 */
+	public static int stringToEpochDay(String date) {
+		return toEpochDay(parseDigits(date, 0, 4), parseDigits(date, 5, 7),
+				parseDigits(date, 8, 10));
+	}
+
+	/**
+	 * Convert a date formatted as yyyy-MM-dd, read from a cursor into an
+	 * array of characters, to the number of days since 1970-01-01.
+	 * 
+	 * @param date
+	 *            characters of the date to convert
+	 * @return days since 1970-01-01
+	 */
+	public static int charsToEpochDay(char[] date) {
+		return toEpochDay(parseDigits(date, 0, 4), parseDigits(date, 5, 7),
+				parseDigits(date, 8, 10));
+	}
+
+	/**
+	 * Convert a number of days since 1970-01-01 to a Calendar set to the
+	 * start of that day.
+	 * 
+	 * @param epochDay
+	 *            days since 1970-01-01
+	 * @return date converted to Calendar
+	 */
+	public static Calendar epochDayToCalendar(int epochDay) {
+
+		int yearMonthDay = toYearMonthDay(epochDay);
+
+		Calendar date = Calendar.getInstance();
+		date.clear();
+		date.set(yearMonthDay / 10000, (yearMonthDay / 100) % 100 - 1,
+				yearMonthDay % 100);
+
+		return date;
+	}
+
+	/**
+	 * Counts the days from 1970-01-01 to a date.
+	 */
+	// method declared static for Android optimisation
+	private static int toEpochDay(int year, int month, int day) {
+
+		// count years from March, so that leap days fall at the end of a year
+		if (month <= 2) {
+			year--;
+		}
+		int era = ((year >= 0) ? year : year - 399) / 400;
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month + ((month > 2) ? -3 : 9)) + 2) / 5 + day - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * Convert a number of days since 1970-01-01 to a String formatted as
+	 * yyyy-MM-dd.
+	 * 
+	 * @param epochDay
+	 *            days since 1970-01-01
+	 * @return date converted to String
+	 */
+	public static String epochDayToString(int epochDay) {
+		return formatEpochDay(epochDay, true);
+	}
+
+	/**
+	 * Convert a number of days since 1970-01-01 to a String formatted as
+	 * MM/dd.
+	 * 
+	 * @param epochDay
+	 *            days since 1970-01-01
+	 * @return date converted to String
+	 */
+	public static String epochDayToStringShort(int epochDay) {
+		return formatEpochDay(epochDay, false);
+	}
+
+	/**
+	 * Formats a number of days since 1970-01-01 as yyyy-MM-dd, or as MM/dd if
+	 * the year is left out.
+	 */
+	// method declared static for Android optimisation
+	private static String formatEpochDay(int epochDay, boolean withYear) {
+
+		int yearMonthDay = toYearMonthDay(epochDay);
+
+		StringBuilder date = new StringBuilder(10);
+		if (withYear) {
+			appendDigits(date, yearMonthDay / 10000, 4);
+			date.append('-');
+			appendDigits(date, (yearMonthDay / 100) % 100, 2);
+			date.append('-');
+		} else {
+			appendDigits(date, (yearMonthDay / 100) % 100, 2);
+			date.append('/');
+		}
+		appendDigits(date, yearMonthDay % 100, 2);
+
+		return date.toString();
+	}
+
+	/**
+	 * Works out the date of a number of days since 1970-01-01, as the number
+	 * yyyyMMdd, so that no object has to be created to return it.
+	 */
+	// method declared static for Android optimisation
+	private static int toYearMonthDay(int epochDay) {
+
+		// the reverse of toEpochDay
+		int days = epochDay + 719468;
+		int era = ((days >= 0) ? days : days - 146096) / 146097;
+		int dayOfEra = days - era * 146097;
+		int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		int monthFromMarch = (5 * dayOfYear + 2) / 153;
+		int day = dayOfYear - (153 * monthFromMarch + 2) / 5 + 1;
+		int month = monthFromMarch + ((monthFromMarch < 10) ? 3 : -9);
+		int year = yearOfEra + era * 400 + ((month <= 2) ? 1 : 0);
+
+		return year * 10000 + month * 100 + day;
+	}
+
+	/**
+	 * Reads the number between two positions of a String.
+	 */
+	// method declared static for Android optimisation
+	private static int parseDigits(String text, int start, int end) {
+		int number = 0;
+		for (int i = start; i < end; i++) {
+			number = number * 10 + (text.charAt(i) - '0');
+		}
+		return number;
+	}
+
+	/**
+	 * Reads the number between two positions of an array of characters.
+	 */
+	// method declared static for Android optimisation
+	private static int parseDigits(char[] text, int start, int end) {
+		int number = 0;
+		for (int i = start; i < end; i++) {
+			number = number * 10 + (text[i] - '0');
+		}
+		return number;
+	}
+
+	/**
+	 * Appends a number, padded with zeros to a number of digits.
+	 */
+	// method declared static for Android optimisation
+	private static void appendDigits(StringBuilder text, int number, int digits) {
+		String numberText = Integer.toString(number);
+		for (int i = numberText.length(); i < digits; i++) {
+			text.append('0');
+		}
+		text.append(numberText);
 	}
 
 	public static class SamplingPointColumns {
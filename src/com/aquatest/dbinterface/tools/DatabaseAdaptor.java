@@ -18,12 +18,11 @@
 package com.aquatest.dbinterface.tools;
 
 import java.io.IOException;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Vector;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -41,6 +40,7 @@ import com.aquatest.dbinterface.tools.DataUtils.ParameterColumns;
 import com.aquatest.dbinterface.tools.DataUtils.RangeColumns;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
 import com.aquatest.dbinterface.tools.DataUtils.ValueRuleColumns;
+import com.aquatest.debug.DebugConstants;
 import com.aquatest.ui.AquaTestApp;
 
 /**
@@ -52,6 +52,11 @@ public class DatabaseAdaptor
 	private DatabaseProvider provider;
 	public SQLiteDatabase database;
 
+	/** copy of the database that DatabaseUpdater writes to, while it is open */
+	private SQLiteDatabase stagingDatabase;
+	/** statements compiled for the staging database */
+	private StatementCache stagingStatements;
+
 	public HashMap<Integer, Parameter> parameters;
 	private HashMap<Integer, Range> ranges;
 	private HashMap<Integer, ValueRule> valueRules;
@@ -59,6 +64,15 @@ public class DatabaseAdaptor
 
 	public HashMap<Integer, Municipality> municipalities;
 
+	/**
+	 * Guards the database and the base data against being replaced while a
+	 * background thread reads them. Background reads hold the read lock; the
+	 * database is replaced, cleared and its base data reset while the write
+	 * lock is held, which waits for the reads that have started to finish,
+	 * so the main thread must not take it.
+	 */
+	public final ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
+
 	// these identify different area types
 	/** Municipality area type id */
 	public static final int MUNICIPALITY = 0;
@@ -119,6 +133,13 @@ public class DatabaseAdaptor
 			throw sqle;
 		}
 
+		// java compiler optimises this "if" statement away; a database that
+		// needs migrating has its plans logged once it has the new schema
+		if (DebugConstants.LOG_QUERY_PLANS && !needsMigration())
+		{
+			QueryPlanDiagnostic.logQueryPlans(database);
+		}
+
 		// reset base data from the database
 		reset();
 	}
@@ -128,13 +149,46 @@ public class DatabaseAdaptor
 	 */
 	public void reset()
 	{
+		dataLock.writeLock().lock();
+		try
+		{
+			ranges = getRanges();
+			valueRules = getValueRules();
+			valueKeys = getValueKeys();
+			parameters = getParameters();
+			municipalities = getMunicipalities();
+		}
+		finally
+		{
+			dataLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Check if the schema of the database must be brought up to date by
+	 * {@link #migrate()} before the data can be viewed.
+	 * 
+	 * @return true if the database needs migrating
+	 */
+	public boolean needsMigration()
+	{
+		return DatabaseProvider.needsMigration(database);
+	}
 
-		ranges = getRanges();
-		valueRules = getValueRules();
-		valueKeys = getValueKeys();
-		parameters = getParameters();
-		municipalities = getMunicipalities();
+	/**
+	 * Brings the schema of the database up to date. This can take minutes on
+	 * a large database, so it must not be called on the main thread, and the
+	 * data must not be viewed until it has finished.
+	 */
+	public void migrate()
+	{
+		DatabaseProvider.migrate(database);
 
+		// java compiler optimises this "if" statement away
+		if (DebugConstants.LOG_QUERY_PLANS)
+		{
+			QueryPlanDiagnostic.logQueryPlans(database);
+		}
 	}
 
 	/**
@@ -174,7 +228,8 @@ public class DatabaseAdaptor
 	}
 
 	/**
-	 * Get value rule of a specified parameter.
+	 * Get value rule of a specified parameter. If the parameter has more than
+	 * one, the one with the lowest id is used, as in {@link DailyCompliance}.
 	 * 
 	 * @param parameterId
 	 *        id of parameter
@@ -185,18 +240,17 @@ public class DatabaseAdaptor
 
 		ValueRule valueRule = null;
 
-		Iterator<Integer> i = valueRules.keySet().iterator();
+		Iterator<ValueRule> i = valueRules.values().iterator();
 
 		while (i.hasNext())
 		{
 
-			int key = (Integer) i.next();
+			ValueRule candidate = i.next();
 
-			if (valueRules.get(key).parameterId == parameterId)
+			if ((candidate.parameterId == parameterId)
+				&& ((valueRule == null) || (candidate.id < valueRule.id)))
 			{
-				valueRule = valueRules.get(key);
-
-				break;
+				valueRule = candidate;
 			}
 		}
 
@@ -712,15 +766,8 @@ public class DatabaseAdaptor
 			.calendarToString(DataUtils.calendarSubtractDays(
 				Calendar.getInstance(), OVERVIEW_PERIOD_DAYS));
 
-		cursor = database
-			.rawQuery(
-				"SELECT * FROM parameter WHERE _id in "
-					+ "(SELECT parameter FROM sample INNER JOIN measuredvalue on sample._id = sample "
-					+ "WHERE datetaken >= '"
-					+ startDate
-					+ "' "
-					+ "AND samplingpoint in (SELECT _id FROM samplingpoint where wqmarea = "
-					+ townId + ")) " + "ORDER BY testname", null);
+		cursor = SampleQueries.ACTIVE_PARAMETERS.query(database,
+			SampleQueries.areaArgs(TOWN, townId, startDate));
 
 		if (cursor.moveToFirst())
 		{
@@ -783,99 +830,82 @@ public class DatabaseAdaptor
 		Calendar startDate, Calendar endDate)
 	{
 
-		String colour = TestIndicators.NONE;
-		double totalCount = 0;
-		double passCount = 0;
-
-		String startDateString = null;
-		String endDateString = null;
-		SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-		startDateString = sdf.format(startDate.getTime());
-		endDateString = sdf.format(endDate.getTime());
+		String startDateString = DataUtils.calendarToString(startDate);
+		String endDateString = DataUtils.calendarToString(endDate);
 
-		String queryString = null;
+		// the values are classified and counted by SQLite, so only one row is
+		// read
+		Cursor cursor = SampleQueries.AREA_COMPLIANCE.query(database,
+			SampleQueries.areaArgs(areaType, areaId, startDateString,
+				endDateString));
 
-		if (areaType == MUNICIPALITY)
+		try
 		{
-			queryString = "SELECT datetaken, parameter, value from sample "
-				+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-				+ "WHERE sample.datetaken <= '"
-				+ endDateString
-				+ "' AND sample.datetaken >= '"
-				+ startDateString
-				+ "' "
-				+ "AND samplingpoint IN (SELECT samplingpoint._id FROM samplingpoint inner join wqmarea on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-				+ areaId + ")" + " ORDER BY datetaken";
+			cursor.moveToFirst();
+			return new Compliance(cursor, 0).getIndicator();
 		}
-		else
+		finally
 		{
-			queryString = "SELECT datetaken, parameter, value from sample "
-				+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-				+ "WHERE sample.datetaken <= '"
-				+ endDateString
-				+ "' AND sample.datetaken >= '"
-				+ startDateString
-				+ "' "
-				+ "AND samplingpoint IN (SELECT _id FROM samplingpoint WHERE wqmarea = "
-				+ areaId + ")" + " ORDER BY datetaken";
+			cursor.close();
 		}
+	}
 
-		Cursor cursor = database.rawQuery(queryString, null);
-
-		if (cursor.moveToFirst())
-		{
-
-			do
-			{
-				Parameter parameter = parameters.get(cursor.getInt(1));
-				double value = cursor.getDouble(2);
-				Range tempRange = parameter.getRangeOfValue(value);
-				
-				// TODO mike
-				String tempColour = TestIndicators.PASS;
-				
-				if (tempRange != null) {
-					tempColour = tempRange.colour;
-				} 
+	/**
+	 * Get the overall quality of each town in a municipality for a specified
+	 * period, from one query. Towns with no measured values in the period are
+	 * given the same result as {@link #getAreaOverallQuality} gives them.
+	 * 
+	 * @param municipalityId
+	 *        id of the municipality
+	 * @param startDate
+	 *        start date of period
+	 * @param endDate
+	 *        end date of period
+	 * @return map of town ids to the quality as a DataIndicator object
+	 */
+	public HashMap<Integer, DataIndicator> getTownsOverallQuality(
+		int municipalityId, Calendar startDate, Calendar endDate)
+	{
 
-				if (tempColour.compareTo(TestIndicators.FAIL) == 0)
-				{
-					colour = tempColour;
-					totalCount++;
-					// return tempColour;
-				}
-				else if (tempColour.compareTo(TestIndicators.WARNING) == 0)
-				{
-					if (colour.compareTo(TestIndicators.FAIL) != 0)
-						colour = tempColour;
+		HashMap<Integer, DataIndicator> townQuality = new HashMap<Integer, DataIndicator>();
 
-					totalCount++;
-					passCount++;
-				}
-				else if (tempColour.compareTo(TestIndicators.PASS) == 0)
-				{
-					if (colour.compareTo(TestIndicators.NONE) == 0)
-						colour = tempColour;
+		String startDateString = DataUtils.calendarToString(startDate);
+		String endDateString = DataUtils.calendarToString(endDate);
 
-					totalCount++;
-					passCount++;
-				}
+		Cursor cursor = SampleQueries.TOWN_COMPLIANCE.query(database,
+			SampleQueries.areaArgs(MUNICIPALITY, municipalityId,
+				startDateString, endDateString));
 
-			}
-			while (cursor.moveToNext());
+		try
+		{
+			while (cursor.moveToNext())
+			{
+				townQuality.put(cursor.getInt(0),
+					new Compliance(cursor, 1).getIndicator());
+			} // while
 		}
-		else
+		finally
 		{
 			cursor.close();
-			return new DataIndicator(0, colour, "");
 		}
 
-		cursor.close();
-
-		DecimalFormat dF = new DecimalFormat("#.#%");
+		// fill in the towns that have no data
+		Municipality municipality = getMunicipality(municipalityId);
+		if (municipality != null)
+		{
+			Iterator<Integer> i = municipality.towns.keySet().iterator();
+			while (i.hasNext())
+			{
+				Integer townId = i.next();
+				if (!townQuality.containsKey(townId))
+				{
+					townQuality.put(townId, new DataIndicator(0,
+						TestIndicators.NONE, ""));
+				}
+			} // while
+		}
 
-		return new DataIndicator(passCount / totalCount, colour,
-			dF.format(passCount / totalCount));
+		return townQuality;
 	}
 
 	/**
@@ -898,108 +928,27 @@ public class DatabaseAdaptor
 
 		HashMap<String, DataIndicator> dateSeries = new HashMap<String, DataIndicator>();
 
-		String startDateString = null;
-		String endDateString = null;
-
-		startDateString = DataUtils.calendarToString(startDate);
-		endDateString = DataUtils.calendarToString(endDate);
+		String startDateString = DataUtils.calendarToString(startDate);
+		String endDateString = DataUtils.calendarToString(endDate);
 
-		String queryString = null;
+		// each day is counted once, by the update that changes it
+		Cursor cursor = SampleQueries.DAILY_COMPLIANCE.query(database,
+			SampleQueries.areaArgs(areaType, areaId, startDateString,
+				endDateString));
 
-		if (areaType == MUNICIPALITY)
-		{
-			queryString = "SELECT datetaken, parameter, value from sample "
-				+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-				+ "WHERE sample.datetaken <= '"
-				+ endDateString
-				+ "' AND sample.datetaken >= '"
-				+ startDateString
-				+ "' "
-				+ "AND samplingpoint IN (SELECT samplingpoint._id FROM samplingpoint inner join wqmarea on wqmarea._id = samplingpoint.wqmarea WHERE wqmarea.wqmauthority = "
-				+ areaId + ")" + "ORDER BY datetaken";
-		}
-		else
+		try
 		{
-			queryString = "SELECT datetaken, parameter, value from sample "
-				+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
-				+ "WHERE sample.datetaken <= '"
-				+ endDateString
-				+ "' AND sample.datetaken >= '"
-				+ startDateString
-				+ "' "
-				+ "AND samplingpoint IN (SELECT _id FROM samplingpoint WHERE wqmarea = "
-				+ areaId + ")" + " ORDER BY datetaken";
+			while (cursor.moveToNext())
+			{
+				dateSeries.put(cursor.getString(0),
+					new Compliance(cursor, 1).getDayIndicator());
+			} // while
 		}
-
-		Cursor cursor = database.rawQuery(queryString, null);
-
-		if (cursor.moveToFirst())
+		finally
 		{
-			String currentDateString = cursor.getString(0);
-			double totalCount = 0;
-			double passCount = 0;
-			String currentDateColour = TestIndicators.NONE;
-
-			do
-			{
-				Parameter recordParameter = parameters.get(cursor.getInt(1));
-				double recordValue = cursor.getDouble(2);
-				String recordDateString = cursor.getString(0);
-				Range tempRange;
-
-				String recordColour = TestIndicators.NONE;
-				if (recordParameter != null)
-				{
-					tempRange = recordParameter.getRangeOfValue(recordValue);
-					
-					if (tempRange != null) {
-						recordColour = tempRange.colour; //TODO mike
-					}
-				}
-
-				if (recordDateString.compareTo(currentDateString) != 0)
-				{
-					DecimalFormat dF = new DecimalFormat("#.#%");
-					DataIndicator dI = new DataIndicator(
-						passCount / totalCount, currentDateColour,
-						dF.format(passCount / totalCount));
-					dateSeries.put(currentDateString, dI);
-					// Log.v(TAG, recordDateString + " " +
-					// dF.format(passCount / totalCount));
-
-					currentDateString = recordDateString;
-
-					totalCount = 0;
-					currentDateColour = TestIndicators.NONE;
-					passCount = 0;
-				}
-
-				totalCount++;
-				if (recordColour.compareTo(TestIndicators.FAIL) == 0)
-				{
-					currentDateColour = TestIndicators.FAIL;
-				}
-				else if (recordColour.compareTo(TestIndicators.PASS) == 0)
-				{
-					passCount++;
-					if (currentDateColour.compareTo(TestIndicators.NONE) == 0)
-					{
-						currentDateColour = TestIndicators.PASS;
-					}
-				}
-				else if (recordColour.compareTo(TestIndicators.WARNING) == 0)
-				{
-					passCount++;
-					if (currentDateColour.compareTo(TestIndicators.FAIL) != 0)
-					{
-						currentDateColour = TestIndicators.WARNING;
-					}
-				}
-			}
-			while (cursor.moveToNext());
+			cursor.close();
 		}
 
-		cursor.close();
 		return dateSeries;
 	}
 
@@ -1059,10 +1008,140 @@ public class DatabaseAdaptor
 	 */
 	public void clearDatabase()
 	{
-		for (int i = 0; i < tables.length; i++)
+		dataLock.writeLock().lock();
+		try
+		{
+			for (int i = 0; i < tables.length; i++)
+			{
+				database.execSQL("DELETE FROM " + tables[i]);
+			}
+			DailyCompliance.clear(database);
+		}
+		finally
+		{
+			dataLock.writeLock().unlock();
+		}
+
+		// an unfinished update would no longer match the cleared data
+		discardStagingDatabase();
+	}
+
+	/**
+	 * Opens the staging database that updates are written to. </p>
+	 * 
+	 * Updates are written to a copy of the database so that they can be
+	 * committed a page at a time, and resumed if they are interrupted, while
+	 * the rest of the app only ever sees the data from before the update or
+	 * after it. If an earlier update was interrupted, its staging database is
+	 * opened again.
+	 * 
+	 * @return opened staging database
+	 * @throws IOException
+	 *             if the staging database could not be created
+	 */
+	public synchronized SQLiteDatabase openStagingDatabase()
+			throws IOException
+	{
+		if (stagingDatabase == null)
 		{
-			database.execSQL("DELETE FROM " + tables[i]);
+			stagingDatabase = provider.openStagingDataBase();
+			stagingStatements = new StatementCache(stagingDatabase);
 		}
+		return stagingDatabase;
+	}
+
+	/**
+	 * Returns the statements compiled for the staging database. They are kept
+	 * for as long as the staging database is open, which includes later
+	 * attempts at an update that did not complete.
+	 * 
+	 * @return statement cache, or <code>null</code> if the staging database
+	 *         is not open
+	 */
+	public synchronized StatementCache getStagingStatementCache()
+	{
+		return stagingStatements;
+	}
+
+	/**
+	 * Closes the staging database, keeping it so that an unfinished update can
+	 * be resumed.
+	 */
+	public synchronized void closeStagingDatabase()
+	{
+		if (stagingDatabase != null)
+		{
+			// statements must be closed before their database
+			stagingStatements.clear();
+			stagingStatements = null;
+
+			stagingDatabase.close();
+			stagingDatabase = null;
+		}
+	}
+
+	/**
+	 * Deletes the staging database, losing any unfinished update.
+	 */
+	public synchronized void discardStagingDatabase()
+	{
+		closeStagingDatabase();
+		provider.deleteStagingDataBase();
+	}
+
+	/**
+	 * Replaces the database with the staging database, if it holds a finished
+	 * update. Base data must be reset after this has been done.
+	 * 
+	 * @return the time the finished update started, or -1 if there was no
+	 *         finished update
+	 */
+	public synchronized long replaceWithStagingDatabase()
+	{
+		// staging database is still being written to
+		if ((stagingDatabase != null) || !provider.hasStagingDataBase())
+			return -1;
+
+		long updateTime;
+		SQLiteDatabase staging = null;
+		try
+		{
+			// a staging database from an older version is migrated with the
+			// database it replaces, away from the main thread
+			staging = provider.openStagingDataBase(false);
+			updateTime = SyncState.getCompletedUpdateTime(staging);
+		}
+		catch (IOException e)
+		{
+			return -1;
+		}
+		finally
+		{
+			if (staging != null)
+			{
+				staging.close();
+			}
+		}
+
+		if (updateTime == -1)
+			return -1;
+
+		// background reads of the old database must finish before it closes
+		dataLock.writeLock().lock();
+		try
+		{
+			database = provider.replaceWithStagingDataBase();
+		}
+		finally
+		{
+			dataLock.writeLock().unlock();
+		}
+
+		// the staging database is left behind if it could not be moved
+		if (provider.hasStagingDataBase())
+			return -1;
+
+		return updateTime;
 	}
 
 }
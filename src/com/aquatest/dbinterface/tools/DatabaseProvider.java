@@ -17,6 +17,8 @@
  */
 package com.aquatest.dbinterface.tools;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,7 +32,15 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 
 /**
- * Class to create a new database if database doesn't exist and to copy correct schema to database; otherwise open existing database.
+ * Class to create a new database if database doesn't exist and to copy correct schema to database; otherwise open existing database. </p>
+ * 
+ * The schema is versioned twice. SQLiteOpenHelper is only used to create the 
+ * empty file that the database in the assets folder is copied over, so its 
+ * version, HELPER_VERSION, is never changed and onUpgrade() does nothing. 
+ * The changes made to the copied schema are versioned by SCHEMA_VERSION, 
+ * which {@link #migrate(SQLiteDatabase)} stores as the user_version of the 
+ * database. The helper must not be used to open an existing database, as it 
+ * would read that user_version as its own version.
  */
 public class DatabaseProvider extends SQLiteOpenHelper {
 
@@ -43,6 +53,54 @@ public class DatabaseProvider extends SQLiteOpenHelper {
 	// this is done for memory optimisation
 	private static final String DB_FULL_PATH_AND_NAME = DB_PATH + DB_NAME;
 
+	/**
+	 * Copy of the database that updates are written to before they are made
+	 * visible to the rest of the app.
+	 */
+	private static final String STAGING_DB_FULL_PATH_AND_NAME = DB_PATH
+			+ "aquatest_sync.db";
+
+	/** version given to SQLiteOpenHelper, which is not the schema version */
+	private static final int HELPER_VERSION = 1;
+
+	/**
+	 * Version of the schema changes made by {@link #migrate(SQLiteDatabase)}.
+	 * This is stored as the user_version of the database.
+	 */
+	public static final int SCHEMA_VERSION = 3;
+
+	/**
+	 * Statements that bring the schema from each version to the next: the
+	 * statements at index i upgrade version i to version i + 1. </p>
+	 * 
+	 * The tables themselves come from the database in the assets folder, so
+	 * these only add to it. To change the schema, add a new version to the
+	 * end and increase SCHEMA_VERSION - never change a version that has been
+	 * released.
+	 */
+	private static final String[][] MIGRATIONS = {
+		// version 1: indexes for the sample and measured value queries, which
+		// otherwise scan the whole of measuredvalue
+		{
+			"CREATE INDEX IF NOT EXISTS sample_datetaken ON sample (datetaken, samplingpoint)",
+			"CREATE INDEX IF NOT EXISTS sample_samplingpoint ON sample (samplingpoint, datetaken)",
+			// covers the join from sample, so the table itself is not read
+			"CREATE INDEX IF NOT EXISTS measuredvalue_sample ON measuredvalue (sample, parameter, value)",
+			"CREATE INDEX IF NOT EXISTS measuredvalue_parameter ON measuredvalue (parameter, sample)",
+			"CREATE INDEX IF NOT EXISTS samplingpoint_wqmarea ON samplingpoint (wqmarea)",
+			"ANALYZE"
+		},
+		// version 2: indexes for classifying measured values by range in SQL
+		{
+			"CREATE INDEX IF NOT EXISTS valuerule_parameter ON valuerule (parameter, _id)",
+			"CREATE INDEX IF NOT EXISTS abnormalrange_valuerule ON abnormalrange (valuerule, minimum)",
+			"CREATE INDEX IF NOT EXISTS normalrange_valuerule ON normalrange (valuerule, minimum)",
+			"ANALYZE"
+		},
+		// version 3: daily compliance counts, kept up to date by triggers
+		DailyCompliance.CREATE_STATEMENTS
+	};
+
 	private SQLiteDatabase database;
 	private final Context context;
 
@@ -52,7 +110,7 @@ public class DatabaseProvider extends SQLiteOpenHelper {
 	 * @param context
 	 */
 	public DatabaseProvider(Context context) {
-		super(context, DB_NAME, null, 1);
+		super(context, DB_NAME, null, HELPER_VERSION);
 		this.context = context;
 	}
 
@@ -129,23 +187,141 @@ public class DatabaseProvider extends SQLiteOpenHelper {
 		// Open the empty db as the output stream
 		OutputStream myOutput = new FileOutputStream(DB_FULL_PATH_AND_NAME);
 
-		// transfer bytes from the inputfile to the outputfile
-		byte[] buffer = new byte[1024];
-		int length;
-		while ((length = myInput.read(buffer)) > 0) {
-			myOutput.write(buffer, 0, length);
+		copyStream(myInput, myOutput);
+	}
+
+	/**
+	 * Copies all bytes from one stream to another, then closes both streams.
+	 */
+	private static void copyStream(InputStream myInput, OutputStream myOutput)
+			throws IOException {
+
+		try {
+			// transfer bytes from the inputfile to the outputfile
+			byte[] buffer = new byte[8192];
+			int length;
+			while ((length = myInput.read(buffer)) > 0) {
+				myOutput.write(buffer, 0, length);
+			}
+
+			myOutput.flush();
+		} finally {
+			// Close the streams
+			myOutput.close();
+			myInput.close();
+		}
+	}
+
+	/**
+	 * Opens the staging database that updates are written to, creating it as
+	 * a copy of the current database if it does not already exist. </p>
+	 * 
+	 * The current database must not be written to while the staging database
+	 * is in use, as those changes would be lost when the staging database
+	 * replaces it.
+	 * 
+	 * @return opened staging database
+	 * @throws IOException
+	 *             if the copy could not be made
+	 * @throws SQLException
+	 */
+	public SQLiteDatabase openStagingDataBase() throws IOException,
+			SQLException {
+
+		return openStagingDataBase(true);
+	}
+
+	/**
+	 * Opens the staging database, as {@link #openStagingDataBase()} does, 
+	 * but only migrates it if asked to.
+	 * 
+	 * @param migrate
+	 *            whether to bring the schema up to date, which can take a 
+	 *            long time
+	 * @return opened staging database
+	 * @throws IOException
+	 *             if the copy could not be made
+	 * @throws SQLException
+	 */
+	public SQLiteDatabase openStagingDataBase(boolean migrate) 
+			throws IOException, SQLException {
+
+		File staging = new File(STAGING_DB_FULL_PATH_AND_NAME);
+
+		if (!staging.exists()) {
+			// copy to a temporary file first, so that a copy that is cut
+			// short is never mistaken for a staging database
+			File copy = new File(STAGING_DB_FULL_PATH_AND_NAME + ".tmp");
+			copyStream(new FileInputStream(DB_FULL_PATH_AND_NAME),
+					new FileOutputStream(copy));
+
+			if (!copy.renameTo(staging)) {
+				copy.delete();
+				throw new IOException("Unable to create staging database");
+			}
+		}
+
+		SQLiteDatabase stagingDatabase = SQLiteDatabase.openDatabase(
+				STAGING_DB_FULL_PATH_AND_NAME, null,
+				SQLiteDatabase.OPEN_READWRITE);
+
+		// a staging database left by an older version of the app
+		if (migrate)
+			migrate(stagingDatabase);
+		return stagingDatabase;
+	}
+
+	/**
+	 * Check if a staging database exists.
+	 * 
+	 * @return true if it exists, false if it doesn't
+	 */
+	public boolean hasStagingDataBase() {
+
+		return new File(STAGING_DB_FULL_PATH_AND_NAME).exists();
+	}
+
+	/**
+	 * Deletes the staging database. It must not be open.
+	 */
+	public void deleteStagingDataBase() {
+
+		new File(STAGING_DB_FULL_PATH_AND_NAME).delete();
+		new File(STAGING_DB_FULL_PATH_AND_NAME + "-journal").delete();
+	}
+
+	/**
+	 * Replaces the current database with the staging database. The staging
+	 * database must not be open. The current database is closed, and must be
+	 * replaced by the database returned by this method. If the staging
+	 * database cannot be moved, the current database is opened again
+	 * unchanged.
+	 * 
+	 * @return the new current database, opened
+	 * @throws SQLException
+	 */
+	public SQLiteDatabase replaceWithStagingDataBase() throws SQLException {
+
+		if (database != null) {
+			database.close();
+			database = null;
 		}
 
-		// Close the streams
-		myOutput.flush();
-		myOutput.close();
-		myInput.close();
+		// a rename within the same folder replaces the file in one step, so
+		// the current database is never left half written
+		File staging = new File(STAGING_DB_FULL_PATH_AND_NAME);
+		if (staging.renameTo(new File(DB_FULL_PATH_AND_NAME))) {
+			new File(STAGING_DB_FULL_PATH_AND_NAME + "-journal").delete();
+		}
 
+		return openDataBase();
 	}
 	
 	
 	/**
-	 * Open existing database.
+	 * Open existing database. Its schema is not brought up to date, as that 
+	 * can take minutes, so it must be migrated away from the main thread if 
+	 * {@link #needsMigration(SQLiteDatabase)} says so.
 	 * 
 	 * @return opened database
 	 * @throws SQLException
@@ -155,10 +331,64 @@ public class DatabaseProvider extends SQLiteOpenHelper {
 		// Open the database
 		database = SQLiteDatabase.openDatabase(DB_FULL_PATH_AND_NAME, null,
 				SQLiteDatabase.OPEN_READWRITE);
+
 		return database;
 		
 	}
 
+	/**
+	 * Check if the schema of a database is older than {@link #SCHEMA_VERSION}.
+	 * 
+	 * @param db
+	 *            opened database
+	 * @return true if {@link #migrate(SQLiteDatabase)} must be run on it
+	 */
+	// method declared static for Android optimisation
+	public static boolean needsMigration(SQLiteDatabase db) {
+
+		return db.getVersion() < SCHEMA_VERSION;
+	}
+
+	/**
+	 * Brings the schema of a database up to {@link #SCHEMA_VERSION}, by
+	 * running the statements for each version it does not have yet. All the
+	 * changes are made in one transaction, so a database is never left
+	 * between versions. </p>
+	 * 
+	 * The new indexes and tables are built over all the samples, which can 
+	 * take minutes, and other threads cannot use the database until it is 
+	 * done, so this must not be called on the main thread.
+	 * 
+	 * @param db
+	 *            opened database
+	 * @throws SQLException
+	 */
+	// method declared static for Android optimisation
+	public static void migrate(SQLiteDatabase db) throws SQLException {
+
+		int version = db.getVersion();
+		if (version >= SCHEMA_VERSION)
+			return;
+
+		db.beginTransaction();
+		try {
+			for (int v = version; v < SCHEMA_VERSION; v++) {
+				String[] statements = MIGRATIONS[v];
+				for (int i = 0; i < statements.length; i++) {
+					db.execSQL(statements[i]);
+				}
+			}
+
+			// fill in any tables the new versions added
+			DailyCompliance.refresh(db);
+
+			db.setVersion(SCHEMA_VERSION);
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
 	@Override
 	public synchronized void close() {
 
@@ -18,6 +18,8 @@
 package com.aquatest.dbinterface.tools;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.apache.http.client.ClientProtocolException;
@@ -25,6 +27,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
 import android.os.Bundle;
@@ -35,6 +39,7 @@ import android.util.Log;
 import com.aquatest.debug.DebugConstants;
 import com.aquatest.webservice.AquaTestWebService;
 import com.aquatest.webservice.MockAquaTestWebService;
+import com.aquatest.webservice.RequestMetrics;
 
 /**
  * Class to manage updating of the database. </p> DatabaseUpdater accesses the
@@ -49,6 +54,15 @@ public class DatabaseUpdater extends Thread
 	public static final String TOTAL_COUNT_KEY = "total_count";
 	public static final String OFFSET_KEY = "offset";
 	public static final String DATA_KEY = "data";
+	/** names of the columns of a page whose rows are sent as arrays */
+	public static final String COLUMNS_KEY = "columns";
+	/**
+	 * towns whose data was changed, sent with COMPLETE unless everything may
+	 * have changed
+	 */
+	public static final String CHANGED_TOWNS_KEY = "changed_towns";
+	/** changed day of each town, in days since 1970-01-01 */
+	public static final String CHANGED_DAYS_KEY = "changed_days";
 
 	public static final String STATUS_SUCCESS = "success";
 	public static final String ERROR_CONNECTION = "Connection error.";
@@ -61,6 +75,11 @@ public class DatabaseUpdater extends Thread
 	public static final int TYPE_UPDATED = 1;
 	/** indicates operation refers to deleted records */
 	public static final int TYPE_DELETED = 2;
+	/**
+	 * indicates added or updated records written with INSERT OR REPLACE
+	 * statements
+	 */
+	private static final int TYPE_REPLACE = 3;
 
 	// Handler message codes
 	public static final int ERROR = 0;
@@ -81,9 +100,65 @@ public class DatabaseUpdater extends Thread
 	// }
 
 	public long lastUpdateTime; // in milliseconds
+
+	/** maximum number of tables to download at the same time */
+	public int syncParallelism = SyncScheduler.DEFAULT_PARALLELISM;
+
+	/**
+	 * largest number of added or updated rows written by a single statement,
+	 * or 1 to write each row with its own INSERT or UPDATE statement
+	 */
+	public int bulkRows = DEFAULT_BULK_ROWS;
+
+	/**
+	 * page sizes learnt during earlier updates are kept for as long as the app
+	 * is running
+	 */
+	private static AdaptiveBatchSizer batchSizer = new AdaptiveBatchSizer();
+
+	/**
+	 * number of rows written before they are committed along with a
+	 * checkpoint - an interrupted update loses at most this many rows
+	 */
+	public static final int COMMIT_ROWS = 1000;
+
+	/** number of rows written by a single statement, unless set otherwise */
+	public static final int DEFAULT_BULK_ROWS = 50;
+	/** most "?" parameters SQLite allows in a statement */
+	private static final int SQLITE_MAX_VARIABLES = 999;
+	/** most SELECTs SQLite allows in a compound SELECT */
+	private static final int SQLITE_MAX_COMPOUND_SELECT = 500;
+
+	/**
+	 * number of rows an update must write before the query planner statistics
+	 * are gathered again
+	 */
+	public static final int ANALYZE_ROWS = 5000;
+
+	/**
+	 * tables read by {@link DataCache} whose changes are not recorded by
+	 * town and day in the dailycompliancechange table
+	 */
+	private static final String[] UNTRACKED_DATA_TABLES = { "samplingpoint",
+			"wqmarea", "parameter" };
+
+	/** columns of the local tables, keyed by table name */
+	private HashMap<String, String[]> tableColumns = new HashMap<String, String[]>();
+
 	private DatabaseAdaptor dA;
 	private Handler h;
 
+	/** staging database that the update is written to */
+	private SQLiteDatabase database;
+	/** statements compiled for the staging database */
+	private StatementCache statements;
+	private SyncState syncState;
+	private int uncommittedRows = 0;
+	/** number of rows written by this update */
+	private int appliedRows = 0;
+	/** tables this update wrote rows to */
+	private HashSet<String> changedTables = new HashSet<String>();
+
 	/**
 	 * Constructor
 	 * 
@@ -161,85 +236,178 @@ public class DatabaseUpdater extends Thread
 	{
 		try
 		{
-			long updateTime = System.currentTimeMillis();
 			boolean result;
 
 			Vector<String> tables = getTables();
 			sendMessage("Table list downloaded: " + tables.size()
 					+ " tables found.", ITEM_COMPLETE);
 
-			// begin database transaction
-			dA.database.beginTransaction();
+			// changes are written to a staging copy of the database, which
+			// only replaces the real one once the whole update is complete
+			if (!openStagingDatabase())
+				return;
 
 			try
 			{
+				long updateTime = syncState.begin(lastUpdateTime,
+						System.currentTimeMillis());
+				RequestMetrics.reset();
 
-				// loop through all the tables
-				int tableCount = tables.size();
-				for (int i = 0; i < tableCount; i++)
+				// the tables written by an earlier attempt are not known
+				boolean resuming = syncState.isResuming();
+				if (resuming)
 				{
-					String tableName = tables.get(i);
-					int k = i + 1;
+					sendMessage("Resuming previous update...", ITEM_COMPLETE);
+				} // if
 
-					// ignore authoritymanager table
-					if (tableName.compareTo("authoritymanager") == 0)
-					{
-						continue;
-					} // if
+				// tables are downloaded on separate threads while this thread
+				// writes them to the database, one table at a time
+				SyncScheduler scheduler = new SyncScheduler(tables,
+						lastUpdateTime, syncParallelism, batchSizer, syncState);
 
-					// retrieve ADDED rows
-					sendMessage(tableName + " (table " + k + "/" + tableCount
-							+ "): retrieving new records...", ITEM_COMPLETE);
-					result = fetchAndExecuteQueries(TYPE_ADDED, tableName);
+				// begin database transaction
+				database.beginTransaction();
+				scheduler.start();
 
-					if (!result)
-					{
-						// Log.v("THREAD", "KILLING");
-						sendMessage("Update cancelled!", CANCELLED);
-						return;
-					} // if
+				DataChanges changes;
 
-					// retrieve UPDATED rows
-					sendMessage(tableName + " (table " + k + "/" + tableCount
-							+ "): retrieving updated records...", ITEM_COMPLETE);
-					result = fetchAndExecuteQueries(TYPE_UPDATED, tableName);
+				try
+				{
 
-					if (!result)
+					// loop through all the tables
+					int tableCount = tables.size();
+					for (int i = 0; i < tableCount; i++)
 					{
-						// Log.v("THREAD", "KILLING");
-						sendMessage("Update cancelled!", CANCELLED);
-						return;
-					} // if
+						String tableName = tables.get(i);
+						int k = i + 1;
+
+						// ignore authoritymanager table
+						if (!isTableSynchronised(tableName))
+						{
+							continue;
+						} // if
+
+						SyncFetcher fetcher = scheduler.getFetcher(tableName);
+
+						// retrieve ADDED rows
+						sendMessage(tableName + " (table " + k + "/"
+								+ tableCount + "): retrieving new records...",
+								ITEM_COMPLETE);
+						result = executeQueries(fetcher, TYPE_ADDED, tableName);
 
-					// retrieve DELETED rows
-					sendMessage(tableName + " (table " + k + "/" + tableCount
-							+ "): retrieving deleted rows...", ITEM_COMPLETE);
-					result = fetchAndExecuteQueries(TYPE_DELETED, tableName);
+						if (!result)
+						{
+							// Log.v("THREAD", "KILLING");
+							sendMessage("Update cancelled!", CANCELLED);
+							return;
+						} // if
+
+						// retrieve UPDATED rows
+						sendMessage(tableName + " (table " + k + "/"
+								+ tableCount
+								+ "): retrieving updated records...",
+								ITEM_COMPLETE);
+						result = executeQueries(fetcher, TYPE_UPDATED,
+								tableName);
+
+						if (!result)
+						{
+							// Log.v("THREAD", "KILLING");
+							sendMessage("Update cancelled!", CANCELLED);
+							return;
+						} // if
+
+						// retrieve DELETED rows
+						sendMessage(tableName + " (table " + k + "/"
+								+ tableCount + "): retrieving deleted rows...",
+								ITEM_COMPLETE);
+						result = executeQueries(fetcher, TYPE_DELETED,
+								tableName);
+
+						if (!result)
+						{
+							// Log.v("THREAD", "KILLING");
+							sendMessage("Update cancelled!", CANCELLED);
+							return;
+						} // if
 
-					if (!result)
+						// java compiler optimises this "if" statement away
+						if (DebugConstants.LOG_SYNC_METRICS)
+						{
+							Log.i("SYNC", tableName + ": "
+									+ fetcher.getBytesReceived()
+									+ " bytes received, "
+									+ fetcher.getBytesRead()
+									+ " bytes uncompressed");
+						} // if
+					} // for
+
+					// count the days the update changed again before they
+					// are committed
+					sendMessage("Updating daily results...", ITEM_COMPLETE);
+					changes = DailyCompliance.readChanges(database);
+					if (resuming || hasChangedUntrackedTables())
+						changes = new DataChanges(null, null);
+					long changedDays = DailyCompliance.refresh(database);
+
+					// java compiler optimises this "if" statement away
+					if (DebugConstants.LOG_SYNC_METRICS)
 					{
-						// Log.v("THREAD", "KILLING");
-						sendMessage("Update cancelled!", CANCELLED);
-						return;
+						Log.i("SYNC", "daily compliance: " + changedDays
+								+ " changed days");
 					} // if
-				} // for
 
-				// signal transaction can be committed
-				dA.database.setTransactionSuccessful();
+					// signal transaction can be committed
+					syncState.runApplied();
+					database.setTransactionSuccessful();
+				}
+				finally
+				{
+					// stop any downloads if the update did not complete
+					scheduler.cancel();
+
+					// commit or rollback the last part of the update - earlier
+					// parts have already been committed
+					database.endTransaction();
+
+				}
+
+				// java compiler optimises this "if" statement away
+				if (DebugConstants.LOG_SYNC_METRICS)
+				{
+					Log.i("SYNC", RequestMetrics.getSummary());
+				} // if
+
+				// a large update can change which indexes suit the queries
+				// best, so update the statistics the query planner uses
+				if (appliedRows >= ANALYZE_ROWS)
+				{
+					sendMessage("Optimising database...", ITEM_COMPLETE);
+					database.execSQL("ANALYZE");
+				} // if
+
+				// return success in a Bundle
+				Bundle b = new Bundle();
+				b.putString("msg", "Update complete!");
+				b.putLong("time", updateTime);
+				if (!changes.isAll())
+				{
+					b.putIntArray(CHANGED_TOWNS_KEY, changes.towns);
+					b.putIntArray(CHANGED_DAYS_KEY, changes.epochDays);
+				} // if
+
+				// the staging database must be closed before it can replace
+				// the real one
+				closeStagingDatabase(true);
+				sendMessage(b, COMPLETE);
 			}
 			finally
 			{
-				// commit or rollback transaction
-				dA.database.endTransaction();
-
+				// an update that did not complete leaves the staging database
+				// open, so that trying again can use its compiled statements
+				closeStagingDatabase(false);
 			}
 
-			// return success in a Bundle
-			Bundle b = new Bundle();
-			b.putString("msg", "Update complete!");
-			b.putLong("time", updateTime);
-			sendMessage(b, COMPLETE);
-
 		}
 		catch (JSONException jE)
 		{
@@ -272,175 +440,601 @@ public class DatabaseUpdater extends Thread
 	} // run
 
 	/**
-	 * Invoke web service to retrieve data, and then build and execute queries
-	 * to update local database
+	 * Opens the staging database and reads the progress of any earlier update
+	 * that was written to it. A staging database left by an update of changes
+	 * since a different time is discarded.
+	 * 
+	 * @return <code>false</code> if the staging database could not be opened
+	 */
+	private boolean openStagingDatabase()
+	{
+		try
+		{
+			database = dA.openStagingDatabase();
+			syncState = new SyncState(database);
+
+			if (!syncState.canResume(lastUpdateTime))
+			{
+				syncState.close();
+				dA.discardStagingDatabase();
+
+				database = dA.openStagingDatabase();
+				syncState = new SyncState(database);
+			} // if
+
+			// compiled statements are kept between updates, unless the
+			// tables have changed
+			statements = dA.getStagingStatementCache();
+			statements.validate();
+
+			return true;
+		}
+		catch (IOException iE)
+		{
+			sendMessage("Unable to prepare the database for the update: "
+					+ iE.getMessage(), ERROR);
+			return false;
+		}
+	}
+
+	/**
+	 * Stops using the staging database, if it is open.
 	 * 
+	 * @param close
+	 *            <code>true</code> to close the staging database,
+	 *            <code>false</code> to leave it open for the next update
+	 */
+	private void closeStagingDatabase(boolean close)
+	{
+		if (syncState != null)
+		{
+			syncState.close();
+			syncState = null;
+		}
+
+		if (database != null)
+		{
+			if (close)
+			{
+				dA.closeStagingDatabase();
+			}
+			database = null;
+			statements = null;
+		}
+	}
+
+	/**
+	 * Checks whether this update wrote rows to a table that the data of an
+	 * area is read from, but whose changes are not recorded by town and day.
+	 */
+	private boolean hasChangedUntrackedTables()
+	{
+		for (int i = 0; i < UNTRACKED_DATA_TABLES.length; i++)
+		{
+			if (changedTables.contains(UNTRACKED_DATA_TABLES[i]))
+				return true;
+		} // for
+
+		return false;
+	}
+
+	/**
+	 * Commits the rows written since the last commit, if there are enough of
+	 * them or <code>force</code> is set, and starts a new transaction.
+	 */
+	private void commit(boolean force)
+	{
+		if (!force && (uncommittedRows < COMMIT_ROWS))
+			return;
+
+		database.setTransactionSuccessful();
+		database.endTransaction();
+		database.beginTransaction();
+
+		uncommittedRows = 0;
+	}
+
+	/**
+	 * Executes queries to update the local database with the rows retrieved
+	 * by the fetcher for one table and change type.
+	 * 
+	 * @param fetcher
+	 *            fetcher that is downloading the rows
 	 * @param type
 	 *            of rows to fetch (TYPE_ADDED, TYPE_UPDATED, TYPE_DELETED)
 	 * @param table
 	 *            table to request rows for
 	 * @return <code>true</code> if the method succeeds, <code>false</code> if
-	 *         the method fails
+	 *         the update was cancelled
 	 * @throws ClientProtocolException
 	 * @throws JSONException
 	 *             if the data returned is not what was expected
 	 * @throws IOException
 	 */
-	private boolean fetchAndExecuteQueries(int type, String table)
+	private boolean executeQueries(SyncFetcher fetcher, int type, String table)
 			throws ClientProtocolException, JSONException, IOException
 	{
-		// Log.v("START", "fetchAndExecuteQueries(" + type + ", " + table +
-		// ")");
+		StatementBinder binder = new StatementBinder(type, table);
+
+		// time spent writing rows, for measuring the rate they are applied
+		long applyTime = 0;
+		int tableRows = 0;
+
 		try
 		{
+			while (true)
+			{
+				SyncFetcher.Chunk chunk;
+				try
+				{
+					chunk = fetcher.take();
+				}
+				catch (InterruptedException e)
+				{
+					// thread has been cancelled
+					return false;
+				}
 
-			int count = 0;
-			int totalCount = 1;
-			int offset = 0;
-			String status = "";
-			JSONArray dataArray = null;
-			boolean run = true;
+				long startTime = System.currentTimeMillis();
 
-			// determine JSON method to contact with our web service call
-			String wsMethodName = "";
-			switch (type)
-			{
-				case TYPE_ADDED:
-					wsMethodName = AquaTestWebService.ADDED_ROWS;
-					break;
+				switch (chunk.chunkType)
+				{
+					case SyncFetcher.CHUNK_ROWS_TYPE:
+						// do this to optimise the Android code
+						int rowCount = chunk.rowCount;
+						for (int i = 0; i < rowCount; i++)
+						{
+							String[] values = chunk.values[i];
+							if (!binder.handleRow(chunk.fieldNames[i], values,
+									values.length))
+								return false;
+						} // for
+
+						uncommittedRows += rowCount;
+						tableRows += rowCount;
+						appliedRows += rowCount;
+						if (rowCount > 0)
+							changedTables.add(table);
+						break;
+
+					case SyncFetcher.CHUNK_PAGE_END:
+						// record the page with its rows
+						binder.flush();
+						syncState.pageApplied(table, type, chunk.nextOffset,
+								chunk.totalCount);
+						commit(false);
+						break;
+
+					case SyncFetcher.CHUNK_END:
+						binder.flush();
+						syncState.typeApplied(table, type);
+						commit(true);
+
+						applyTime += System.currentTimeMillis() - startTime;
+						// java compiler optimises this "if" statement away
+						if (DebugConstants.LOG_SYNC_METRICS && (tableRows > 0))
+						{
+							Log.i("SYNC", table + " " + getWebServiceMethod(type)
+									+ ": " + tableRows + " rows applied in "
+									+ applyTime + "ms ("
+									+ (tableRows * 1000L / Math.max(1, applyTime))
+									+ " rows/s, " + binder.getMode() + ")");
+						} // if
+						return true;
+
+					case SyncFetcher.CHUNK_CANCELLED:
+						return false;
+
+					case SyncFetcher.CHUNK_ERROR:
+						throwFetchError(chunk.error);
+						break;
+				} // switch
+
+				applyTime += System.currentTimeMillis() - startTime;
+			} // while
+		}
+		finally
+		{
+			// release resources
+			binder.close();
+		}
+	} // executeQueries
 
-				case TYPE_UPDATED:
-					wsMethodName = AquaTestWebService.UPDATED_ROWS;
-					break;
+	/**
+	 * Rethrows an exception caught by the fetcher thread on this thread.
+	 */
+	// method declared static for Android optimisation
+	private static void throwFetchError(Exception e)
+			throws ClientProtocolException, JSONException, IOException
+	{
+		if (e instanceof ClientProtocolException)
+			throw (ClientProtocolException) e;
+		if (e instanceof JSONException)
+			throw (JSONException) e;
+		if (e instanceof IOException)
+			throw (IOException) e;
+		if (e instanceof RuntimeException)
+			throw (RuntimeException) e;
+
+		throw new RuntimeException(e);
+	}
 
-				case TYPE_DELETED:
-					wsMethodName = AquaTestWebService.DELETED_ROWS;
-					break;
+	/**
+	 * Returns the web service method that retrieves a type of change.
+	 * 
+	 * @param type
+	 *            type of change (TYPE_ADDED, TYPE_UPDATED, TYPE_DELETED)
+	 * @return web service method name
+	 */
+	// method declared static for Android optimisation
+	static String getWebServiceMethod(int type)
+	{
+		switch (type)
+		{
+			case TYPE_ADDED:
+				return AquaTestWebService.ADDED_ROWS;
 
+			case TYPE_UPDATED:
+				return AquaTestWebService.UPDATED_ROWS;
+
+			case TYPE_DELETED:
+				return AquaTestWebService.DELETED_ROWS;
+
+			default:
 				// TODO a default case should be added with error handling
-			} // switch
+				return "";
+		} // switch
+	}
+
+	/**
+	 * Indicates whether a table is synchronised with the server.
+	 * 
+	 * @param table
+	 *            name of the table
+	 * @return <code>false</code> for tables that the app does not use
+	 */
+	// method declared static for Android optimisation
+	static boolean isTableSynchronised(String table)
+	{
+		// ignore authoritymanager table
+		return table.compareTo("authoritymanager") != 0;
+	}
+
+	/**
+	 * Executes a prepared statement for each row parsed from a web service
+	 * response. </p>
+	 * 
+	 * The statement is chosen by the field names of the first row, and chosen
+	 * again if a later row has a different set of fields. Values are bound by
+	 * their position in the row, using a map from statement parameters to row
+	 * positions that is only worked out again when the fields of the row
+	 * change. </p>
+	 * 
+	 * Added rows, and updated rows that set every column of the local table,
+	 * are written with INSERT OR REPLACE statements that each write up to
+	 * {@link DatabaseUpdater#bulkRows} rows. Rows are held back until there are
+	 * enough for a statement, so {@link #flush()} must be called before the
+	 * rows are committed.
+	 */
+	private class StatementBinder implements SyncPageParser.RowHandler
+	{
+		private int type;
+		private String table;
+
+		private SQLiteStatement preparedStatement = null;
+		/** field names the prepared statement was created from */
+		private String[] statementFieldNames;
+
+		/** field names of the rows that valueIndexes was worked out for */
+		private String[] mappedFieldNames;
+		/** position in the row of the value for each statement parameter */
+		private int[] valueIndexes;
+		/** position of the id in the row, or -1 if there is none */
+		private int idIndex;
+
+		/** true if rows are written with INSERT OR REPLACE statements */
+		private boolean replace = false;
+		/** statement that writes a full batch of rows, or null */
+		private SQLiteStatement batchStatement = null;
+		/** number of rows written by batchStatement */
+		private int batchRows = 1;
+		/** values of the rows held back for the next batch */
+		private String[] pendingValues;
+		private int pendingRows = 0;
+
+		StatementBinder(int _type, String _table)
+		{
+			type = _type;
+			table = _table;
+		}
+
+		public boolean handleRow(String[] fieldNames, String[] values,
+				int fieldCount) throws JSONException
+		{
+			// check if thread has been cancelled
+			if (Thread.interrupted())
+				return false;
+
+			// rows nearly always have the same fields as the row before
+			if (!sameFieldOrder(mappedFieldNames, fieldNames, fieldCount))
+			{
+				flush();
+				mapFields(fieldNames, fieldCount);
+			}
 
-			// this loop allows for paging of the data from the web service -
-			// server returns max 1000 records at a time
-			// TODO return fewer records at a time to save memory on the device?
-			// e.g sample return string is almost 800,000 characters long
-			while (((count + offset) < totalCount) && run)
+			if (batchStatement != null)
 			{
-				// fetch data from web service
-				// Log.v("DatabaseUpdater", "invoking web service [" +
-				// wsMethodName + "] on table [" + table + "]");
-
-				// java compiler optimises this "if" statement away based on
-				// value of MOCK_WEB_SERVICES i.e. similar to C compiler #ifdef
-				// blocks
-				JSONObject jsonResponse;
-				if (DebugConstants.MOCK_WEB_SERVICES)
+				// hold the row back until there are enough for a batch
+				int paramCount = valueIndexes.length;
+				int offset = pendingRows * paramCount;
+				for (int i = 0; i < paramCount; i++)
 				{
-					// mock web services
-					jsonResponse = MockAquaTestWebService.retrieveDataChanges(
-							wsMethodName, table, lastUpdateTime,
-							(offset + count));
+					pendingValues[offset + i] = getValue(values,
+							valueIndexes[i]);
 				}
-				else
+
+				pendingRows++;
+				if (pendingRows == batchRows)
 				{
-					// use real production server
-					jsonResponse = AquaTestWebService.retrieveDataChanges(
-							wsMethodName, table, lastUpdateTime,
-							(offset + count));
+					executeBatch();
 				}
+				return true;
+			} // if
 
-				// // Log.v("JSON_REQUEST", wsMethodName + " : " + table);
+			// add parameters to the prepared statement
+			bindQueryParameters(preparedStatement, type, valueIndexes,
+					idIndex, values);
 
-				// cancel update if so result was returned
-				if (jsonResponse == null)
-					return false;
+			// execute the prepared statement
+			preparedStatement.execute();
+
+			return true;
+		}
+
+		/**
+		 * Writes the rows that have been held back.
+		 */
+		void flush()
+		{
+			if (pendingRows == 0)
+				return;
+
+			// too few rows for the batch statement, so write them one by one
+			int paramCount = valueIndexes.length;
+			for (int row = 0; row < pendingRows; row++)
+			{
+				preparedStatement.clearBindings();
+
+				int offset = row * paramCount;
+				for (int i = 0; i < paramCount; i++)
+				{
+					preparedStatement.bindString(i + 1, pendingValues[offset
+							+ i]);
+				}
+				preparedStatement.execute();
+			} // for
+
+			pendingRows = 0;
+		}
+
+		private void executeBatch()
+		{
+			batchStatement.clearBindings();
+
+			// do this to optimise the Android code
+			int valueCount = batchRows * valueIndexes.length;
+			for (int i = 0; i < valueCount; i++)
+			{
+				batchStatement.bindString(i + 1, pendingValues[i]);
+			}
+			batchStatement.execute();
 
-				// interpret the JSON results
-				//try {
-					status = jsonResponse.getString(STATUS_KEY);
-				//} catch (JSONException e) {
+			pendingRows = 0;
+		}
+
+		/**
+		 * Works out where the values for the statement parameters are in rows
+		 * with the given fields, and chooses the statements again if they do
+		 * not have the same fields as the current ones.
+		 */
+		private void mapFields(String[] fieldNames, int fieldCount)
+				throws JSONException
+		{
+			String[] rowFieldNames = new String[fieldCount];
+			System.arraycopy(fieldNames, 0, rowFieldNames, 0, fieldCount);
+
+			// find the prepared sql statement - DELETE statements do not
+			// depend on the fields
+			if ((preparedStatement == null)
+					|| ((type != TYPE_DELETED) && !sameFieldSet(
+							statementFieldNames, rowFieldNames)))
+			{
+				statementFieldNames = rowFieldNames;
+				chooseStatements();
+			}
 
-				//}
+			if (type == TYPE_DELETED)
+			{
+				// DELETE statements only need the id field bound
+				valueIndexes = new int[] { indexOf("deleted_id", rowFieldNames) };
+				idIndex = -1;
+			}
+			else
+			{
+				// do this to optimise the Android code
+				int statementFieldCount = statementFieldNames.length;
 
-				if (status.compareTo(STATUS_SUCCESS) == 0)
+				int[] indexes = new int[statementFieldCount];
+				int paramCount = 0;
+				for (int i = 0; i < statementFieldCount; i++)
 				{
-					// these fields allow for paging of the responses
-					count = jsonResponse.getInt(COUNT_KEY);
-					totalCount = jsonResponse.getInt(TOTAL_COUNT_KEY);
-					offset = jsonResponse.getInt(OFFSET_KEY);
+					String fieldName = statementFieldNames[i];
 
-					// process the returned data
-					if (count > 0 && jsonResponse.has(DATA_KEY))
+					// exclude some columns from the update
+					if (includeFieldInUpdates(fieldName))
 					{
-						// get the data array
-						dataArray = jsonResponse.getJSONArray(DATA_KEY);
-
-						// create the prepared sql statement
-						// FIXME this currently assumes that the first object
-						// contains all the field names needed
-						JSONArray dataFieldNames = dataArray.getJSONObject(0)
-								.names();
-						SQLiteStatement preparedStatement = generateQueryString(
-								type, table, dataFieldNames);
-
-						try
-						{
-							// do this to optimise the Android code
-							int dataLength = dataArray.length();
-
-							// loop over the returned data array
-							for (int i = 0; i < dataLength; i++)
-							{
-								// check if thread has been cancelled
-								if (Thread.interrupted())
-									return false;
-
-								// get the current data record
-								JSONObject row = dataArray.getJSONObject(i);
-
-								// add parameters to the prepared statement
-								bindQueryParameters(preparedStatement, type,
-										dataFieldNames, row);
-
-								// Log.v("SQL", "executing statement for data: "
-								// + row);
-
-								// execute the prepared statement
-								preparedStatement.execute();
-							} // for
-						}
-						finally
-						{
-							// release resources
-							preparedStatement.close();
-						}
+						indexes[paramCount++] = indexOf(fieldName,
+								rowFieldNames);
 					}
-					// else exit
-					else
-					{
-						// Log.v("JSON", "empty or no data key: " + table + ", "
-						// + wsMethodName + "(" + offset + "," + count + ")");
-						run = false;
-					} // else
-				}
-				// else the call failed, so do not continue
-				else
+				} // for
+
+				valueIndexes = new int[paramCount];
+				System.arraycopy(indexes, 0, valueIndexes, 0, paramCount);
+
+				// UPDATE statements end with the id in the WHERE clause
+				idIndex = ((type == TYPE_UPDATED) && !replace) ? findField(
+						"id", rowFieldNames) : -1;
+			} // else
+
+			mappedFieldNames = rowFieldNames;
+		}
+
+		/**
+		 * Chooses the statements for rows with the current statement fields.
+		 */
+		private void chooseStatements()
+		{
+			// an UPDATE only changes the columns it is given, so it can only
+			// be replaced by an INSERT OR REPLACE if it is given them all
+			replace = (bulkRows > 1)
+					&& ((type == TYPE_ADDED) || ((type == TYPE_UPDATED) && setsAllColumns(
+							table, statementFieldNames)));
+
+			if (!replace)
+			{
+				preparedStatement = getStatement(type, table,
+						statementFieldNames, 1);
+				batchStatement = null;
+				return;
+			}
+
+			int paramCount = countIncludedFields(statementFieldNames);
+			batchRows = Math.min(bulkRows, Math.min(SQLITE_MAX_COMPOUND_SELECT,
+					SQLITE_MAX_VARIABLES / Math.max(1, paramCount)));
+
+			preparedStatement = getStatement(TYPE_REPLACE, table,
+					statementFieldNames, 1);
+			batchStatement = (batchRows > 1) ? getStatement(TYPE_REPLACE,
+					table, statementFieldNames, batchRows) : null;
+
+			if (batchStatement != null)
+			{
+				pendingValues = new String[batchRows * paramCount];
+			}
+		}
+
+		/**
+		 * @return description of how the rows were written
+		 */
+		String getMode()
+		{
+			return (batchStatement != null) ? "batches of " + batchRows
+					: "one row per statement";
+		}
+
+		/**
+		 * Stops using the prepared statements, which stay in the statement
+		 * cache. Rows that have been held back are lost.
+		 */
+		void close()
+		{
+			preparedStatement = null;
+			batchStatement = null;
+			pendingRows = 0;
+		}
+	}
+
+	/**
+	 * Indicates whether a statement with the given fields sets every column of
+	 * the local table.
+	 */
+	private boolean setsAllColumns(String table, String[] fieldNames)
+	{
+		String[] columns = tableColumns.get(table);
+		if (columns == null)
+		{
+			// TODO escape the table name
+			Cursor c = database.rawQuery("PRAGMA table_info(" + table + ")",
+					null);
+			try
+			{
+				int nameColumn = c.getColumnIndexOrThrow("name");
+				columns = new String[c.getCount()];
+				for (int i = 0; c.moveToNext(); i++)
 				{
-					// Log.v("DatabaseUpdater",
-					// "web service call failed with status [" + status + "]");
-					run = false;
-				} // else
+					columns[i] = c.getString(nameColumn);
+				}
+			}
+			finally
+			{
+				c.close();
+			}
+			tableColumns.put(table, columns);
+		} // if
 
-			} // while
+		// do this to optimise the Android code
+		int columnCount = columns.length;
+		for (int i = 0; i < columnCount; i++)
+		{
+			// id field is renamed _id
+			String fieldName = "_id".equals(columns[i]) ? "id" : columns[i];
 
-			return true;
+			if (!includeFieldInUpdates(fieldName)
+					|| (findField(fieldName, fieldNames) == -1))
+				return false;
 		}
-		finally
+		return columnCount > 0;
+	}
+
+	/**
+	 * Counts the fields that are written to the database.
+	 */
+	// method declared static for Android optimisation
+	private static int countIncludedFields(String[] fieldNames)
+	{
+		int count = 0;
+
+		// do this to optimise the Android code
+		int fieldCount = fieldNames.length;
+		for (int i = 0; i < fieldCount; i++)
+		{
+			if (includeFieldInUpdates(fieldNames[i]))
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the prepared statement for a type of change to a table, from
+	 * the statement cache if it has already been compiled.
+	 * 
+	 * @param type
+	 *            Operation type. Can be one of <code>TYPE_ADDED</code>,
+	 *            <code>TYPE_UPDATED</code> or <code>TYPE_DELETED</code>
+	 * @param table
+	 *            database table the statement changes
+	 * @param fieldNames
+	 *            names of the columns needed in this query
+	 * @param rows
+	 *            number of rows the statement writes
+	 * @return prepared sql statement for the fields in the table
+	 */
+	private SQLiteStatement getStatement(int type, String table,
+			String[] fieldNames, int rows)
+	{
+		String key = StatementCache.getKey(table, type, rows,
+				(type == TYPE_DELETED) ? null : fieldNames);
+
+		SQLiteStatement statement = statements.get(key);
+		if (statement == null)
 		{
-			// Log.v("END", "fetchAndExecuteQueries(" + type + ", " + table +
-			// ")");
+			statement = generateQueryString(type, table, fieldNames, rows);
+			statements.put(key, statement);
 		}
-	} // fetchAndExecuteQueries
+		return statement;
+	}
 
 	/**
 	 * Generates a SQL query string depending on the type of operation
@@ -448,20 +1042,25 @@ public class DatabaseUpdater extends Thread
 	 * 
 	 * @param type
 	 *            Operation type. Can be one of <code>TYPE_ADDED</code>,
-	 *            <code>TYPE_UPDATED</code> or <code>TYPE_DELETED</code>
+	 *            <code>TYPE_UPDATED</code>, <code>TYPE_DELETED</code> or
+	 *            <code>TYPE_REPLACE</code>
 	 * @param table
 	 *            database table to build the SQL query on
 	 * @param fieldNames
 	 *            names of the columns needed in this query
+	 * @param rows
+	 *            number of rows written by a <code>TYPE_REPLACE</code>
+	 *            statement
 	 * @return prepared sql statement for the fields in the table
-	 * @throws JSONException
-	 *             if fieldNames contains an object that is not a String
 	 */
 	private SQLiteStatement generateQueryString(int type, String table,
-			JSONArray fieldNames) throws JSONException
+			String[] fieldNames, int rows)
 	{
 		switch (type)
 		{
+			case TYPE_REPLACE:
+				return generateReplaceQueryString(table, fieldNames, rows);
+
 			case TYPE_ADDED:
 				return generateAddQueryString(table, fieldNames);
 
@@ -487,11 +1086,9 @@ public class DatabaseUpdater extends Thread
 	 * @param fieldNames
 	 *            names of the columns needed in this query
 	 * @return prepared sql statement for the fields in the table
-	 * @throws JSONException
-	 *             if fieldNames contains an object that is not a String
 	 */
 	private SQLiteStatement generateAddQueryString(String table,
-			JSONArray fieldNames) throws JSONException
+			String[] fieldNames)
 	{
 		StringBuilder sql = new StringBuilder();
 		StringBuilder values = new StringBuilder();
@@ -502,12 +1099,12 @@ public class DatabaseUpdater extends Thread
 		values.append(") VALUES (");
 
 		// do this to optimise the Android code
-		int fieldCount = fieldNames.length();
+		int fieldCount = fieldNames.length;
 
 		// add items to sql by iterating over the array
 		for (int i = 0; i < fieldCount; i++)
 		{
-			String fieldName = fieldNames.getString(i);
+			String fieldName = fieldNames[i];
 
 			// exclude some columns from the update
 			if (includeFieldInUpdates(fieldName))
@@ -539,10 +1136,82 @@ public class DatabaseUpdater extends Thread
 		// Log.v("SQL", "prepared sql statement: [" + sql.toString() + "]");
 
 		// return the prepared query
-		return dA.database.compileStatement(sql.toString());
+		return database.compileStatement(sql.toString());
 	} // generateAddQueryString
 
 
+	/**
+	 * Generates a SQL query to INSERT OR REPLACE several rows of data at
+	 * once. </p>
+	 * 
+	 * The version of SQLite on older Android devices cannot take more than one
+	 * row in a VALUES clause, so the rows are written as a compound SELECT.
+	 * 
+	 * @param table
+	 *            database table to build the SQL query on
+	 * @param fieldNames
+	 *            names of the columns needed in this query
+	 * @param rows
+	 *            number of rows to write
+	 * @return prepared sql statement for the fields in the table
+	 */
+	private SQLiteStatement generateReplaceQueryString(String table,
+			String[] fieldNames, int rows)
+	{
+		StringBuilder sql = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+
+		// initialise the query with the table
+		// TODO escape the table name
+		sql.append("INSERT OR REPLACE INTO ").append(table).append(" (");
+		values.append(" SELECT");
+
+		// do this to optimise the Android code
+		int fieldCount = fieldNames.length;
+
+		// add items to sql by iterating over the array
+		for (int i = 0; i < fieldCount; i++)
+		{
+			String fieldName = fieldNames[i];
+
+			// exclude some columns from the update
+			if (includeFieldInUpdates(fieldName))
+			{
+				// add the field name to sql
+				sql.append(" ");
+
+				// id field must be renamed _id
+				if ("id".equals(fieldName))
+				{
+					sql.append("_");
+				}
+
+				sql.append(fieldName).append(",");
+
+				// add a parameter placeholder
+				values.append(" ?,");
+			}
+
+		}
+
+		// remove trailing commas
+		sql.deleteCharAt(sql.length() - 1);
+		values.deleteCharAt(values.length() - 1);
+
+		// close off the query, with one SELECT for each row
+		sql.append(")").append(values);
+		for (int i = 1; i < rows; i++)
+		{
+			sql.append(" UNION ALL").append(values);
+		}
+
+		// Log.v("SQL", "prepared sql statement: [" + sql.toString() + "]");
+
+		// return the prepared query
+		return database.compileStatement(sql.toString());
+	} // generateReplaceQueryString
+
+
 	/**
 	 * Generates a SQL query to UPDATE existing data in the database.
 	 * 
@@ -551,11 +1220,9 @@ public class DatabaseUpdater extends Thread
 	 * @param fieldNames
 	 *            names of the columns needed in this query
 	 * @return prepared sql statement for the fields in the table
-	 * @throws JSONException
-	 *             if fieldNames contains an object that is not a String
 	 */
 	private SQLiteStatement generateUpdateQueryString(String table,
-			JSONArray fieldNames) throws JSONException
+			String[] fieldNames)
 	{
 		StringBuilder sql = new StringBuilder();
 
@@ -564,12 +1231,12 @@ public class DatabaseUpdater extends Thread
 		sql.append("UPDATE ").append(table).append(" SET");
 
 		// do this to optimise the Android code
-		int fieldCount = fieldNames.length();
+		int fieldCount = fieldNames.length;
 
 		// add items to sql by iterating over the array
 		for (int i = 0; i < fieldCount; i++)
 		{
-			String fieldName = fieldNames.getString(i);
+			String fieldName = fieldNames[i];
 
 			// exclude some columns from the update
 			if (includeFieldInUpdates(fieldName))
@@ -598,7 +1265,7 @@ public class DatabaseUpdater extends Thread
 		// Log.v("SQL", "prepared sql statement: [" + sql.toString() + "]");
 
 		// return the prepared query
-		return dA.database.compileStatement(sql.toString());
+		return database.compileStatement(sql.toString());
 	} // generateUpdateQueryString
 
 
@@ -618,15 +1285,13 @@ public class DatabaseUpdater extends Thread
 		// Log.v("SQL", "prepared sql statement: [" + sql.toString() + "]");
 
 		// return the prepared query
-		return dA.database.compileStatement(sql);
+		return database.compileStatement(sql);
 	} // generateDeleteQueryString
 
 
 	/**
 	 * Populates the "?" parameters in the prepared statement with values from
-	 * the included JSON object. It is assumed that the prepared statement was
-	 * created based on the same set of field names (in the same order) as have
-	 * been passed to this method.
+	 * a parsed row.
 	 * 
 	 * @param preparedStatement
 	 *            previously prepared SQL statement, which includes "?"
@@ -634,52 +1299,133 @@ public class DatabaseUpdater extends Thread
 	 * @param type
 	 *            Operation type. Can be one of <code>TYPE_ADDED</code>,
 	 *            <code>TYPE_UPDATED</code> or <code>TYPE_DELETED</code>
-	 * @param fieldNames
-	 *            array of field names relating to this query
-	 * @param dataRow
-	 *            JSON object containing data relevant to this prepared
-	 *            statement
-	 * @throws JSONException
-	 *             if the JSON array or data row contain invalid JSON
+	 * @param valueIndexes
+	 *            position in the row of the value for each parameter
+	 * @param idIndex
+	 *            position in the row of the id to bind to the WHERE clause of
+	 *            an UPDATE statement
+	 * @param values
+	 *            field values of the parsed row
 	 */
 	// method declared static for Android optimisation
 	private static void bindQueryParameters(SQLiteStatement preparedStatement,
-			int type, JSONArray fieldNames, JSONObject dataRow)
-			throws JSONException
+			int type, int[] valueIndexes, int idIndex, String[] values)
 	{
 		// initialise the query by clearing out any previous parameters
 		preparedStatement.clearBindings();
 
-		// index used to bind parameters to the prepared statement
-		int paramIndex = 1;
+		// do this to optimise the Android code
+		int paramCount = valueIndexes.length;
 
-		// DELETE statements only need the id field bound, other require all
-		// fields
-		if (type == TYPE_DELETED)
+		// add items to prepared statement by iterating over the array
+		for (int i = 0; i < paramCount; i++)
 		{
-			// assume the id field exists for a DELETE statement
-			String value = dataRow.getString("deleted_id");
-			preparedStatement.bindString(1, value);
+			preparedStatement.bindString(i + 1, getValue(values,
+					valueIndexes[i]));
 		}
-		else
+
+		// UPDATE statements end with the id in the WHERE clause
+		if ((type == TYPE_UPDATED) && (idIndex != -1))
 		{
-			// do this to optimise the Android code
-			int fieldCount = fieldNames.length();
+			preparedStatement.bindString(paramCount + 1, getValue(values,
+					idIndex));
+		}
+	}
 
-			// add items to prepared statement by iterating over the array
-			for (int i = 0; i < fieldCount; i++)
-			{
-				String fieldName = fieldNames.getString(i);
+	/**
+	 * Returns a value from a parsed row, as it is to be stored.
+	 */
+	// method declared static for Android optimisation
+	private static String getValue(String[] values, int index)
+	{
+		// JSONObject.getString() used to return the text "null" for JSON
+		// nulls, and the rest of the app depends on this, so keep it that way
+		String value = values[index];
+		return (value == null) ? "null" : value;
+	}
+
+	/**
+	 * Finds the position of a field in a parsed row.
+	 * 
+	 * @throws JSONException
+	 *             if the row does not contain the field
+	 */
+	// method declared static for Android optimisation
+	private static int indexOf(String fieldName, String[] fieldNames)
+			throws JSONException
+	{
+		int index = findField(fieldName, fieldNames);
+
+		if (index == -1) { throw new JSONException("No value for " + fieldName); }
+
+		return index;
+	}
+
+	/**
+	 * Finds the position of a field in a parsed row.
+	 * 
+	 * @return position of the field, or -1 if the row does not contain it
+	 */
+	// method declared static for Android optimisation
+	private static int findField(String fieldName, String[] fieldNames)
+	{
+		// do this to optimise the Android code
+		int fieldCount = fieldNames.length;
+		for (int i = 0; i < fieldCount; i++)
+		{
+			if (fieldName.equals(fieldNames[i]))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Indicates whether a row has the same fields, in the same order, as the
+	 * given names.
+	 */
+	// method declared static for Android optimisation
+	private static boolean sameFieldOrder(String[] names, String[] fieldNames,
+			int fieldCount)
+	{
+		if ((names == null) || (names.length != fieldCount))
+			return false;
+
+		for (int i = 0; i < fieldCount; i++)
+		{
+			// field names are nearly always the same String objects
+			if ((names[i] != fieldNames[i]) && !names[i].equals(fieldNames[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Indicates whether two arrays hold the same field names, in any order.
+	 */
+	// method declared static for Android optimisation
+	private static boolean sameFieldSet(String[] names, String[] otherNames)
+	{
+		if (names.length != otherNames.length)
+			return false;
 
-				// exclude some columns from the update
-				if (includeFieldInUpdates(fieldName))
+		// do this to optimise the Android code
+		int fieldCount = names.length;
+		for (int i = 0; i < fieldCount; i++)
+		{
+			boolean found = false;
+			for (int j = 0; j < fieldCount; j++)
+			{
+				if (names[i].equals(otherNames[j]))
 				{
-					// get data from JSON and add as parameter
-					preparedStatement.bindString(paramIndex++,
-							dataRow.getString(fieldName));
+					found = true;
+					break;
 				}
 			}
+
+			if (!found)
+				return false;
 		}
+		return true;
 	}
 
 	/**
@@ -0,0 +1,286 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+/**
+ * Keeps downloaded sync pages in files until the writer is ready for them.
+ * </p>
+ *
+ * A {@link SyncFetcher} spools a page once the pages it already holds in
+ * memory have used up their share of the heap, so that tables the writer has
+ * not reached yet can carry on downloading. Each page is written to its own
+ * file, which is deleted once the writer has read it back.
+ */
+class PageSpool
+{
+	/** directory the spooled pages are written to */
+	private static final String SPOOL_PATH = "/data/data/com.aquatest.ui/cache/sync/";
+	private static final String SPOOL_PREFIX = "page";
+
+	/** longest string that is certain to fit in a writeUTF record */
+	private static final int MAX_UTF_CHARS = 65535 / 3;
+
+	// value markers
+	private static final int VALUE_NULL = 0;
+	private static final int VALUE_UTF = 1;
+	private static final int VALUE_CHARS = 2;
+
+	/**
+	 * Deletes the pages left behind by an earlier update that did not finish.
+	 */
+	static void clear()
+	{
+		File[] files = new File(SPOOL_PATH).listFiles();
+		if (files == null)
+			return;
+
+		for (int i = 0; i < files.length; i++)
+		{
+			if (files[i].getName().startsWith(SPOOL_PREFIX))
+				files[i].delete();
+		} // for
+	}
+
+	/**
+	 * Writes the chunks of a page to a new file.
+	 *
+	 * @param chunks
+	 *            rows and end of page chunks for one table and change type
+	 * @return file the page was written to
+	 * @throws IOException
+	 *             if the page could not be written
+	 */
+	// method declared static for Android optimisation
+	static File write(Vector<SyncFetcher.Chunk> chunks) throws IOException
+	{
+		File dir = new File(SPOOL_PATH);
+		dir.mkdirs();
+		File file = File.createTempFile(SPOOL_PREFIX, null, dir);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		boolean written = false;
+		try
+		{
+			// do this to optimise the Android code
+			int chunkCount = chunks.size();
+			for (int i = 0; i < chunkCount; i++)
+			{
+				writeChunk(out, chunks.get(i));
+			} // for
+			out.close();
+			written = true;
+		}
+		finally
+		{
+			if (!written)
+			{
+				out.close();
+				file.delete();
+			} // if
+		}
+		return file;
+	}
+
+	// method declared static for Android optimisation
+	private static void writeChunk(DataOutputStream out,
+			SyncFetcher.Chunk chunk) throws IOException
+	{
+		out.writeByte(chunk.chunkType);
+
+		if (chunk.chunkType == SyncFetcher.CHUNK_PAGE_END)
+		{
+			out.writeInt(chunk.nextOffset);
+			out.writeInt(chunk.totalCount);
+			return;
+		} // if
+
+		out.writeInt(chunk.rowCount);
+
+		String[] lastFieldNames = null;
+		for (int i = 0; i < chunk.rowCount; i++)
+		{
+			// rows nearly always share the same field names array
+			String[] fieldNames = chunk.fieldNames[i];
+			if (fieldNames == lastFieldNames)
+			{
+				out.writeBoolean(false);
+			}
+			else
+			{
+				out.writeBoolean(true);
+				writeStrings(out, fieldNames);
+				lastFieldNames = fieldNames;
+			} // else
+
+			writeStrings(out, chunk.values[i]);
+		} // for
+	}
+
+	// method declared static for Android optimisation
+	private static void writeStrings(DataOutputStream out, String[] strings)
+			throws IOException
+	{
+		out.writeInt(strings.length);
+		for (int i = 0; i < strings.length; i++)
+		{
+			String s = strings[i];
+			if (s == null)
+			{
+				out.writeByte(VALUE_NULL);
+			}
+			else if (s.length() <= MAX_UTF_CHARS)
+			{
+				out.writeByte(VALUE_UTF);
+				out.writeUTF(s);
+			}
+			else
+			{
+				out.writeByte(VALUE_CHARS);
+				out.writeInt(s.length());
+				out.writeChars(s);
+			} // else
+		} // for
+	}
+
+	/**
+	 * Reads the chunks of a spooled page back, one at a time.
+	 */
+	static class Reader
+	{
+		private File file;
+		private DataInputStream in;
+		private String table;
+		private int changeType;
+
+		/**
+		 * Constructor
+		 *
+		 * @param _file
+		 *            file the page was written to
+		 * @param _table
+		 *            table the page belongs to
+		 * @param _changeType
+		 *            type of change the page contains
+		 * @throws IOException
+		 *             if the file cannot be opened
+		 */
+		Reader(File _file, String _table, int _changeType) throws IOException
+		{
+			file = _file;
+			table = _table;
+			changeType = _changeType;
+			in = new DataInputStream(new BufferedInputStream(
+					new FileInputStream(file)));
+		}
+
+		/**
+		 * @return next chunk of the page, or <code>null</code> if all the
+		 *         chunks have been read
+		 * @throws IOException
+		 *             if the file cannot be read
+		 */
+		SyncFetcher.Chunk next() throws IOException
+		{
+			int chunkType = in.read();
+			if (chunkType == -1)
+				return null;
+
+			SyncFetcher.Chunk chunk = new SyncFetcher.Chunk(chunkType, table,
+					changeType);
+
+			if (chunkType == SyncFetcher.CHUNK_PAGE_END)
+			{
+				chunk.nextOffset = in.readInt();
+				chunk.totalCount = in.readInt();
+				return chunk;
+			} // if
+
+			int rowCount = in.readInt();
+			chunk.fieldNames = new String[rowCount][];
+			chunk.values = new String[rowCount][];
+			chunk.rowCount = rowCount;
+
+			String[] fieldNames = null;
+			for (int i = 0; i < rowCount; i++)
+			{
+				if (in.readBoolean())
+					fieldNames = readStrings();
+
+				chunk.fieldNames[i] = fieldNames;
+				chunk.values[i] = readStrings();
+			} // for
+
+			return chunk;
+		}
+
+		/**
+		 * Closes and deletes the file.
+		 */
+		void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+				// the file is deleted anyway
+			}
+			file.delete();
+		}
+
+		private String[] readStrings() throws IOException
+		{
+			String[] strings = new String[in.readInt()];
+			for (int i = 0; i < strings.length; i++)
+			{
+				switch (in.readByte())
+				{
+					case VALUE_UTF:
+						strings[i] = in.readUTF();
+						break;
+
+					case VALUE_CHARS:
+						char[] chars = new char[in.readInt()];
+						for (int j = 0; j < chars.length; j++)
+						{
+							chars[j] = in.readChar();
+						} // for
+						strings[i] = new String(chars);
+						break;
+
+					default:
+						strings[i] = null;
+						break;
+				} // switch
+			} // for
+			return strings;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Arrays;
+
+/**
+ * Index of the samples that have a value of each parameter, as loaded by a
+ * {@link DataCache}. </p>
+ *
+ * Each sample is stored once per parameter, as its id and the id of its
+ * sampling point packed into one long. The samples of each parameter are
+ * sorted by sample id, so they can be searched without creating any objects.
+ * </p>
+ *
+ * The index does not change once it has been built.
+ */
+public class ParameterSampleIndex
+{
+	/** ids of the parameters that have samples, sorted */
+	private final int[] parameterIds;
+	/** first entry in samples of each parameter, and the end */
+	private final int[] starts;
+	/** samples of each parameter, packed by pack() and sorted */
+	private final long[] samples;
+
+	/**
+	 * Builds the index from the values of some samples. A sample may have
+	 * more than one value of the same parameter.
+	 *
+	 * @param valueParameterIds
+	 *            parameter of each value
+	 * @param valueSampleIds
+	 *            sample of each value
+	 * @param valuePointIds
+	 *            sampling point of each value
+	 * @param count
+	 *            number of values in the arrays
+	 */
+	public ParameterSampleIndex(int[] valueParameterIds, int[] valueSampleIds,
+			int[] valuePointIds, int count)
+	{
+		// find the parameters
+		int[] sortedIds = new int[count];
+		System.arraycopy(valueParameterIds, 0, sortedIds, 0, count);
+		Arrays.sort(sortedIds);
+
+		int parameterCount = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if ((i == 0) || (sortedIds[i] != sortedIds[i - 1]))
+				sortedIds[parameterCount++] = sortedIds[i];
+		}
+		parameterIds = new int[parameterCount];
+		System.arraycopy(sortedIds, 0, parameterIds, 0, parameterCount);
+
+		// group the samples by parameter
+		int[] groupStarts = new int[parameterCount + 1];
+		int[] groups = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			groups[i] = Arrays.binarySearch(parameterIds, valueParameterIds[i]);
+			groupStarts[groups[i] + 1]++;
+		}
+		for (int i = 0; i < parameterCount; i++)
+		{
+			groupStarts[i + 1] += groupStarts[i];
+		}
+
+		int[] nextEntries = new int[parameterCount];
+		System.arraycopy(groupStarts, 0, nextEntries, 0, parameterCount);
+		long[] entries = new long[count];
+		for (int i = 0; i < count; i++)
+		{
+			entries[nextEntries[groups[i]]++] = pack(valueSampleIds[i],
+					valuePointIds[i]);
+		}
+
+		// sort the samples of each parameter, and remove duplicates
+		starts = new int[parameterCount + 1];
+		int uniqueCount = 0;
+		for (int p = 0; p < parameterCount; p++)
+		{
+			starts[p] = uniqueCount;
+			Arrays.sort(entries, groupStarts[p], groupStarts[p + 1]);
+
+			for (int i = groupStarts[p]; i < groupStarts[p + 1]; i++)
+			{
+				if ((i == groupStarts[p]) || (entries[i] != entries[i - 1]))
+					entries[uniqueCount++] = entries[i];
+			}
+		} // for
+		starts[parameterCount] = uniqueCount;
+
+		if (uniqueCount == count)
+		{
+			samples = entries;
+		}
+		else
+		{
+			samples = new long[uniqueCount];
+			System.arraycopy(entries, 0, samples, 0, uniqueCount);
+		}
+	}
+
+
+	/**
+	 * Get the number of parameters that have samples.
+	 *
+	 * @return number of parameters
+	 */
+	public int getParameterCount()
+	{
+		return parameterIds.length;
+	}
+
+
+	/**
+	 * Get a parameter that has samples.
+	 *
+	 * @param index
+	 *            index of the parameter, from 0 to getParameterCount() - 1,
+	 *            in order of id
+	 * @return id of the parameter
+	 */
+	public int getParameterId(int index)
+	{
+		return parameterIds[index];
+	}
+
+
+	/**
+	 * Get the number of samples that have a value of a parameter.
+	 *
+	 * @param parameterId
+	 *            id of the parameter
+	 * @return number of samples, or 0 if the parameter has none
+	 */
+	public int getSampleCount(int parameterId)
+	{
+		int p = Arrays.binarySearch(parameterIds, parameterId);
+		if (p < 0)
+			return 0;
+
+		return starts[p + 1] - starts[p];
+	}
+
+
+	/**
+	 * Get the samples that have a value of a parameter.
+	 *
+	 * @param parameterId
+	 *            id of the parameter
+	 * @return ids of the samples, sorted
+	 */
+	public int[] getSampleIds(int parameterId)
+	{
+		int p = Arrays.binarySearch(parameterIds, parameterId);
+		if (p < 0)
+			return new int[0];
+
+		int[] sampleIds = new int[starts[p + 1] - starts[p]];
+		for (int i = 0; i < sampleIds.length; i++)
+		{
+			sampleIds[i] = getSampleId(samples[starts[p] + i]);
+		}
+
+		return sampleIds;
+	}
+
+
+	/**
+	 * Get the sampling points of the samples returned by
+	 * {@link #getSampleIds(int)}, in the same order.
+	 *
+	 * @param parameterId
+	 *            id of the parameter
+	 * @return ids of the sampling points
+	 */
+	public int[] getPointIds(int parameterId)
+	{
+		int p = Arrays.binarySearch(parameterIds, parameterId);
+		if (p < 0)
+			return new int[0];
+
+		int[] pointIds = new int[starts[p + 1] - starts[p]];
+		for (int i = 0; i < pointIds.length; i++)
+		{
+			pointIds[i] = getPointId(samples[starts[p] + i]);
+		}
+
+		return pointIds;
+	}
+
+
+	/**
+	 * Checks whether a sample has a value of a parameter.
+	 *
+	 * @param parameterId
+	 *            id of the parameter
+	 * @param sampleId
+	 *            id of the sample
+	 * @param pointId
+	 *            id of the sampling point of the sample
+	 * @return true if the sample has a value of the parameter
+	 */
+	public boolean contains(int parameterId, int sampleId, int pointId)
+	{
+		int p = Arrays.binarySearch(parameterIds, parameterId);
+		if (p < 0)
+			return false;
+
+		// Arrays.binarySearch cannot search part of an array before Android
+		// 2.3, so search the samples of the parameter here
+		long sample = pack(sampleId, pointId);
+		int low = starts[p];
+		int high = starts[p + 1] - 1;
+		while (low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			if (samples[middle] < sample)
+				low = middle + 1;
+			else if (samples[middle] > sample)
+				high = middle - 1;
+			else
+				return true;
+		} // while
+
+		return false;
+	}
+
+
+	/**
+	 * Estimates the memory used by the index.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		// the arrays and the header of each
+		return 4L * parameterIds.length + 4L * starts.length + 8L
+				* samples.length + 3 * 16;
+	}
+
+
+	/**
+	 * Packs a sample id and sampling point id into one long, which sorts by
+	 * sample id.
+	 */
+	// method declared static for Android optimisation
+	private static long pack(int sampleId, int pointId)
+	{
+		return ((long) sampleId << 32) | (pointId & 0xffffffffL);
+	}
+
+
+	// method declared static for Android optimisation
+	private static int getSampleId(long sample)
+	{
+		return (int) (sample >> 32);
+	}
+
+
+	// method declared static for Android optimisation
+	private static int getPointId(long sample)
+	{
+		return (int) sample;
+	}
+}
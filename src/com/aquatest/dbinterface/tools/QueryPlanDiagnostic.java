@@ -0,0 +1,122 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Calendar;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.aquatest.debug.DebugConstants;
+
+/**
+ * Logs how SQLite plans to run the queries that read sample data, so that
+ * missing indexes show up as full table scans. </p>
+ *
+ * Each query in {@link SampleQueries} is run with EXPLAIN QUERY PLAN for a
+ * real town, municipality and parameter from the database, over the last
+ * month. This is only done if {@link DebugConstants#LOG_QUERY_PLANS} is set.
+ */
+public class QueryPlanDiagnostic
+{
+	private static final String TAG = "QUERYPLAN";
+
+	/**
+	 * Logs the query plan of each query that reads sample data.
+	 *
+	 * @param database
+	 *            database to plan the queries against
+	 */
+	// method declared static for Android optimisation
+	public static void logQueryPlans(SQLiteDatabase database)
+	{
+		int townId = (int) DatabaseUtils.longForQuery(database,
+				"SELECT IFNULL(MIN(_id), 0) FROM wqmarea", null);
+		int municipalityId = (int) DatabaseUtils.longForQuery(database,
+				"SELECT IFNULL(MIN(_id), 0) FROM wqmauthority", null);
+		int parameterId = (int) DatabaseUtils.longForQuery(database,
+				"SELECT IFNULL(MIN(_id), 0) FROM parameter", null);
+
+		String endDate = DataUtils.calendarToString(Calendar.getInstance());
+		String startDate = DataUtils.calendarToString(DataUtils
+				.calendarSubtractDays(Calendar.getInstance(),
+						DatabaseAdaptor.OVERVIEW_PERIOD_DAYS));
+
+		// do this to optimise the Android code
+		int queryCount = SampleQueries.ALL.length;
+		for (int i = 0; i < queryCount; i++)
+		{
+			SampleQueries.Query query = SampleQueries.ALL[i];
+
+			// plan each query once for a town and once for a municipality
+			logQueryPlan(database, "town " + query.name, query.sql, getArgs(
+					query, DatabaseAdaptor.TOWN, townId, startDate, endDate,
+					parameterId));
+			logQueryPlan(database, "municipality " + query.name, query.sql,
+					getArgs(query, DatabaseAdaptor.MUNICIPALITY,
+							municipalityId, startDate, endDate, parameterId));
+		} // for
+	}
+
+	/**
+	 * Returns as many of the arguments as a query takes.
+	 */
+	// method declared static for Android optimisation
+	private static String[] getArgs(SampleQueries.Query query, int areaType,
+			int areaId, String startDate, String endDate, int parameterId)
+	{
+		String[] args = SampleQueries.areaArgs(areaType, areaId, startDate,
+				endDate, parameterId);
+		String[] queryArgs = new String[query.argumentCount];
+		System.arraycopy(args, 0, queryArgs, 0, queryArgs.length);
+		return queryArgs;
+	}
+
+	/**
+	 * Logs the query plan of a single query, one line for each step.
+	 */
+	// method declared static for Android optimisation
+	private static void logQueryPlan(SQLiteDatabase database, String name,
+			String sql, String[] args)
+	{
+		Cursor cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+		try
+		{
+			Log.d(TAG, name + ": " + sql);
+
+			// the columns of the plan differ between SQLite versions, so log
+			// them all
+			int columnCount = cursor.getColumnCount();
+			while (cursor.moveToNext())
+			{
+				StringBuilder line = new StringBuilder("    ");
+				for (int i = 0; i < columnCount; i++)
+				{
+					line.append(cursor.getString(i)).append(' ');
+				}
+				Log.d(TAG, line.toString());
+			} // while
+		}
+		finally
+		{
+			cursor.close();
+		}
+	}
+}
@@ -0,0 +1,281 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * The queries that read sample data for a town or municipality. </p>
+ *
+ * The SQL text of each query is fixed, and the area, dates and parameter are
+ * bound as arguments, so SQLite can reuse the compiled statement for every
+ * screen instead of compiling a new one for each area and date range. Towns
+ * and municipalities share one query, which chooses how to match sampling
+ * points from the area type argument. </p>
+ *
+ * The arguments are numbered, and are always given in the same order: area
+ * type ({@link DatabaseAdaptor#TOWN} or {@link DatabaseAdaptor#MUNICIPALITY}),
+ * area id, start date and end date (formatted as yyyy-MM-dd), then parameter
+ * id. Each query takes as many of these as it uses.
+ */
+public class SampleQueries
+{
+	/**
+	 * Sampling points of the area given by arguments 1 (area type) and 2 (area
+	 * id). Sampling points whose town is not in the database still match by
+	 * town.
+	 */
+	private static final String AREA_SAMPLING_POINTS = "SELECT samplingpoint._id FROM samplingpoint "
+			+ "LEFT JOIN wqmarea ON wqmarea._id = samplingpoint.wqmarea "
+			+ "WHERE (CASE CAST(?1 AS INTEGER) WHEN "
+			+ DatabaseAdaptor.TOWN
+			+ " THEN samplingpoint.wqmarea ELSE wqmarea.wqmauthority END) = CAST(?2 AS INTEGER)";
+
+	/** samples of the area taken between arguments 3 and 4 */
+	private static final String AREA_SAMPLES = "FROM sample "
+			+ "INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
+			+ "WHERE sample.datetaken >= ?3 AND sample.datetaken <= ?4 "
+			+ "AND samplingpoint IN (" + AREA_SAMPLING_POINTS + ") ";
+
+	/**
+	 * Towns of the area given by arguments 1 (area type) and 2 (area id), for
+	 * the dailycompliance table.
+	 */
+	private static final String AREA_TOWNS = "SELECT CAST(?2 AS INTEGER) WHERE CAST(?1 AS INTEGER) = "
+			+ DatabaseAdaptor.TOWN
+			+ " UNION ALL SELECT wqmarea._id FROM wqmarea WHERE CAST(?1 AS INTEGER) <> "
+			+ DatabaseAdaptor.TOWN
+			+ " AND wqmarea.wqmauthority = CAST(?2 AS INTEGER)";
+
+	/** days of the area between arguments 3 and 4 in dailycompliance */
+	private static final String AREA_DAYS = "FROM dailycompliance "
+			+ "WHERE town IN (" + AREA_TOWNS + ") "
+			+ "AND datetaken >= ?3 AND datetaken <= ?4 ";
+
+	private static final String SUM_COUNTS = "SUM(count), SUM(failcount), SUM(warningcount), SUM(passcount), SUM(norangecount) ";
+
+	/**
+	 * A query with fixed SQL text.
+	 */
+	public static class Query
+	{
+		/** name of the query, for logging */
+		public final String name;
+		/** SQL text of the query */
+		public final String sql;
+		/** number of arguments the query takes */
+		public final int argumentCount;
+
+		/**
+		 * Constructor
+		 *
+		 * @param _name
+		 *            name of the query, for logging
+		 * @param _sql
+		 *            SQL text of the query
+		 * @param _argumentCount
+		 *            number of arguments the query takes
+		 */
+		public Query(String _name, String _sql, int _argumentCount)
+		{
+			name = _name;
+			sql = _sql;
+			argumentCount = _argumentCount;
+		}
+
+		/**
+		 * Runs the query.
+		 *
+		 * @param database
+		 *            database to query
+		 * @param args
+		 *            arguments of the query, in order
+		 * @return cursor over the results, which the caller must close
+		 */
+		public Cursor query(SQLiteDatabase database, String... args)
+		{
+			if (args.length != argumentCount)
+			{
+				throw new IllegalArgumentException(name + " takes "
+						+ argumentCount + " arguments, not " + args.length);
+			} // if
+
+			return database.rawQuery(sql, args);
+		}
+	}
+
+	/**
+	 * Sampling points of an area, ordered by town name. </p>
+	 *
+	 * Arguments: area type, area id.
+	 */
+	public static final Query SAMPLING_POINTS = new Query(
+			"sampling points",
+			"SELECT samplingpoint._id, pointname, x_coord, y_coord, pointarea, samplingpoint.wqmarea FROM samplingpoint "
+					+ "WHERE samplingpoint._id IN (" + AREA_SAMPLING_POINTS
+					+ ") ORDER BY pointarea", 2);
+
+	/**
+	 * Measured values of an area, ordered by date and sampling point. </p>
+	 *
+	 * Arguments: area type, area id, start date, end date.
+	 */
+	public static final Query AREA_DATA = new Query(
+			"area data",
+			"SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken "
+					+ AREA_SAMPLES + "ORDER BY datetaken, samplingpoint", 4);
+
+	/**
+	 * Measured values of one parameter in an area, ordered by date and
+	 * sampling point. </p>
+	 *
+	 * Arguments: area type, area id, start date, end date, parameter id.
+	 */
+	public static final Query AREA_PARAMETER_DATA = new Query(
+			"area parameter data",
+			"SELECT sample._id, samplingpoint, parameter, value, measuredvalue._id, datetaken "
+					+ AREA_SAMPLES
+					+ "AND parameter = ?5 ORDER BY datetaken, samplingpoint",
+			5);
+
+	/**
+	 * Number of measured values of an area, followed by the number in red,
+	 * yellow, green and no ranges, in one row. See {@link Compliance}. </p>
+	 *
+	 * Arguments: area type, area id, start date, end date.
+	 */
+	public static final Query AREA_COMPLIANCE = new Query("area compliance",
+			"SELECT " + SUM_COUNTS + AREA_DAYS, 4);
+
+	/**
+	 * The counts of {@link #AREA_COMPLIANCE} for each town in an area that has
+	 * measured values, one row per town, each preceded by the town id. </p>
+	 *
+	 * Arguments: area type, area id, start date, end date.
+	 */
+	public static final Query TOWN_COMPLIANCE = new Query("town compliance",
+			"SELECT town, " + SUM_COUNTS + AREA_DAYS + "GROUP BY town", 4);
+
+	/**
+	 * The counts of {@link #AREA_COMPLIANCE} for each day in an area that has
+	 * measured values, one row per day, each preceded by the date. </p>
+	 *
+	 * Arguments: area type, area id, start date, end date.
+	 */
+	public static final Query DAILY_COMPLIANCE = new Query("daily compliance",
+			"SELECT datetaken, " + SUM_COUNTS + AREA_DAYS + "GROUP BY datetaken",
+			4);
+
+	/**
+	 * Parameters measured in an area since a date, ordered by name. </p>
+	 *
+	 * Arguments: area type, area id, start date.
+	 */
+	public static final Query ACTIVE_PARAMETERS = new Query(
+			"active parameters",
+			"SELECT * FROM parameter WHERE _id IN "
+					+ "(SELECT parameter FROM sample INNER JOIN measuredvalue ON sample._id = measuredvalue.sample "
+					+ "WHERE sample.datetaken >= ?3 AND samplingpoint IN ("
+					+ AREA_SAMPLING_POINTS + ")) ORDER BY testname", 3);
+
+	/** all the queries, for diagnostics */
+	public static final Query[] ALL = { SAMPLING_POINTS, AREA_DATA,
+			AREA_PARAMETER_DATA, AREA_COMPLIANCE, TOWN_COMPLIANCE,
+			DAILY_COMPLIANCE, ACTIVE_PARAMETERS };
+
+	/**
+	 * Builds the arguments for a query of an area.
+	 *
+	 * @param areaType
+	 *            town or municipality
+	 * @param areaId
+	 *            id of the town or municipality
+	 * @return arguments for {@link #SAMPLING_POINTS}
+	 */
+	// method declared static for Android optimisation
+	public static String[] areaArgs(int areaType, int areaId)
+	{
+		return new String[] { Integer.toString(areaType),
+				Integer.toString(areaId) };
+	}
+
+	/**
+	 * Builds the arguments for a query of an area since a date.
+	 *
+	 * @param areaType
+	 *            town or municipality
+	 * @param areaId
+	 *            id of the town or municipality
+	 * @param startDate
+	 *            first date, formatted as yyyy-MM-dd
+	 * @return arguments for {@link #ACTIVE_PARAMETERS}
+	 */
+	// method declared static for Android optimisation
+	public static String[] areaArgs(int areaType, int areaId, String startDate)
+	{
+		return new String[] { Integer.toString(areaType),
+				Integer.toString(areaId), startDate };
+	}
+
+	/**
+	 * Builds the arguments for a query of an area over a period.
+	 *
+	 * @param areaType
+	 *            town or municipality
+	 * @param areaId
+	 *            id of the town or municipality
+	 * @param startDate
+	 *            first date, formatted as yyyy-MM-dd
+	 * @param endDate
+	 *            last date, formatted as yyyy-MM-dd
+	 * @return arguments for {@link #AREA_DATA} and the compliance queries
+	 */
+	// method declared static for Android optimisation
+	public static String[] areaArgs(int areaType, int areaId,
+			String startDate, String endDate)
+	{
+		return new String[] { Integer.toString(areaType),
+				Integer.toString(areaId), startDate, endDate };
+	}
+
+	/**
+	 * Builds the arguments for a query of one parameter in an area over a
+	 * period.
+	 *
+	 * @param areaType
+	 *            town or municipality
+	 * @param areaId
+	 *            id of the town or municipality
+	 * @param startDate
+	 *            first date, formatted as yyyy-MM-dd
+	 * @param endDate
+	 *            last date, formatted as yyyy-MM-dd
+	 * @param parameterId
+	 *            id of the parameter
+	 * @return arguments for {@link #AREA_PARAMETER_DATA}
+	 */
+	// method declared static for Android optimisation
+	public static String[] areaArgs(int areaType, int areaId,
+			String startDate, String endDate, int parameterId)
+	{
+		return new String[] { Integer.toString(areaType),
+				Integer.toString(areaId), startDate, endDate,
+				Integer.toString(parameterId) };
+	}
+}
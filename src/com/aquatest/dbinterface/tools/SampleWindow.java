@@ -0,0 +1,999 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Vector;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+import com.aquatest.dbinterface.objects.Parameter;
+import com.aquatest.dbinterface.objects.Range;
+import com.aquatest.dbinterface.objects.SamplingPoint;
+import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
+
+/**
+ * Stores the measured values loaded by a {@link DataCache} in parallel arrays
+ * of primitives, one entry for each value, instead of as Sample and
+ * MeasuredValue objects. </p>
+ *
+ * The values are sorted by date, sampling point, sample and parameter. The
+ * rows shown in a DataList are built from the arrays when they are asked for,
+ * and are the same as the rows built from the objects: sampling points are
+ * ordered by name, their samples by date, and the values of a sample by
+ * parameter id. </p>
+ *
+ * The window does not change once it has been loaded.
+ */
+public class SampleWindow
+{
+	/** colour code of a value that is in no range */
+	public static final byte NO_RANGE = -1;
+
+	/** number of measured values */
+	public final int size;
+	/** sample of each value */
+	public final int[] sampleIds;
+	/** sampling point of each value */
+	public final int[] pointIds;
+	/** parameter of each value */
+	public final int[] parameterIds;
+	/** each value */
+	public final double[] values;
+	/** date each value was taken, in days since 1970-01-01 */
+	public final int[] epochDays;
+	/** severity of the range of each value, from TestIndicators, or NO_RANGE */
+	public final byte[] colourCodes;
+
+	/** all the parameters, sorted by id */
+	private final int[] knownParameterIds;
+	private final Parameter[] knownParameters;
+
+	/** parameters that have values in the window, ordered by name */
+	private final Parameter[] orderedParameters;
+
+	/** sampling points, ordered by name */
+	private final SamplingPoint[] orderedPoints;
+	/** sampling point ids, sorted, and the position of each in orderedPoints */
+	private final int[] sortedPointIds;
+	private final int[] pointPositions;
+
+	/**
+	 * Values ordered by the position of their sampling point in
+	 * orderedPoints, then by date, sample and parameter
+	 */
+	private final int[] pointRows;
+	/** first entry in pointRows of each sampling point, and the end */
+	private final int[] pointStarts;
+
+	/** orders sampling points by name, then id */
+	private static final Comparator<SamplingPoint> POINT_ORDER = new Comparator<SamplingPoint>()
+	{
+		public int compare(SamplingPoint point1, SamplingPoint point2)
+		{
+			int order = point1.pointName.compareTo(point2.pointName);
+			if (order == 0)
+				order = compareIds(point1.id, point2.id);
+			return order;
+		}
+	};
+
+	/** orders parameters by name, then id */
+	private static final Comparator<Parameter> PARAMETER_ORDER = new Comparator<Parameter>()
+	{
+		public int compare(Parameter parameter1, Parameter parameter2)
+		{
+			int order = parameter1.testName.compareTo(parameter2.testName);
+			if (order == 0)
+				order = compareIds(parameter1.id, parameter2.id);
+			return order;
+		}
+	};
+
+	/**
+	 * Loads the values from the rows of a data query. Values of sampling
+	 * points that are not given, or of parameters that are not loaded, are
+	 * left out.
+	 *
+	 * @param parent
+	 *            DatabaseAdaptor holding the parameters
+	 * @param samplingPoints
+	 *            sampling points of the area
+	 * @param cursor
+	 *            rows of {@link SampleQueries#AREA_DATA} or
+	 *            {@link SampleQueries#AREA_PARAMETER_DATA}, which the caller
+	 *            must close
+	 */
+	public SampleWindow(DatabaseAdaptor parent,
+			HashMap<Integer, SamplingPoint> samplingPoints, Cursor cursor)
+	{
+		// sort the sampling points, and index them by id
+		orderedPoints = samplingPoints.values().toArray(
+				new SamplingPoint[samplingPoints.size()]);
+		Arrays.sort(orderedPoints, POINT_ORDER);
+
+		int pointCount = orderedPoints.length;
+		long[] pointKeys = new long[pointCount];
+		for (int i = 0; i < pointCount; i++)
+		{
+			pointKeys[i] = ((long) orderedPoints[i].id << 32) | i;
+		}
+		Arrays.sort(pointKeys);
+		sortedPointIds = new int[pointCount];
+		pointPositions = new int[pointCount];
+		for (int i = 0; i < pointCount; i++)
+		{
+			sortedPointIds[i] = (int) (pointKeys[i] >> 32);
+			pointPositions[i] = (int) pointKeys[i];
+		}
+
+		// index the parameters by id, so that rows can be read without
+		// creating an Integer key for each
+		knownParameters = parent.parameters.values().toArray(
+				new Parameter[parent.parameters.size()]);
+		Arrays.sort(knownParameters, new Comparator<Parameter>()
+		{
+			public int compare(Parameter parameter1, Parameter parameter2)
+			{
+				return compareIds(parameter1.id, parameter2.id);
+			}
+		});
+		knownParameterIds = new int[knownParameters.length];
+		for (int i = 0; i < knownParameters.length; i++)
+		{
+			knownParameterIds[i] = knownParameters[i].id;
+		}
+
+		/*
+		 * read the rows
+		 */
+
+		int rowCount = cursor.getCount();
+		int[] sampleIdRows = new int[rowCount];
+		int[] pointIdRows = new int[rowCount];
+		int[] parameterIdRows = new int[rowCount];
+		double[] valueRows = new double[rowCount];
+		int[] epochDayRows = new int[rowCount];
+		byte[] colourCodeRows = new byte[rowCount];
+
+		// dates are copied into one buffer, rather than read as a String each
+		CharArrayBuffer dateBuffer = new CharArrayBuffer(10);
+
+		int count = 0;
+		while (cursor.moveToNext())
+		{
+			int pointId = cursor.getInt(1);
+			int parameterId = cursor.getInt(2);
+
+			if (Arrays.binarySearch(sortedPointIds, pointId) < 0)
+				continue;
+
+			Parameter parameter = getParameter(parameterId);
+			if (parameter == null)
+				continue;
+
+			double value = cursor.getDouble(3);
+			Range range = parameter.getRangeOfValue(value);
+
+			sampleIdRows[count] = cursor.getInt(0);
+			pointIdRows[count] = pointId;
+			parameterIdRows[count] = parameterId;
+			valueRows[count] = value;
+			cursor.copyStringToBuffer(5, dateBuffer);
+			epochDayRows[count] = DataUtils.charsToEpochDay(dateBuffer.data);
+			colourCodeRows[count] = (range != null) ? range.severity
+					: NO_RANGE;
+			count++;
+		} // while
+
+		/*
+		 * sort the values by date, sampling point, sample and parameter
+		 */
+
+		// the query has already sorted the rows by date and sampling point,
+		// so an insertion sort only has to move values within a sample
+		for (int i = 1; i < count; i++)
+		{
+			int sampleId = sampleIdRows[i];
+			int pointId = pointIdRows[i];
+			int parameterId = parameterIdRows[i];
+			double value = valueRows[i];
+			int epochDay = epochDayRows[i];
+			byte colourCode = colourCodeRows[i];
+
+			int j = i - 1;
+			while ((j >= 0)
+					&& (compareRows(epochDayRows[j], pointIdRows[j],
+							sampleIdRows[j], parameterIdRows[j], epochDay,
+							pointId, sampleId, parameterId) > 0))
+			{
+				sampleIdRows[j + 1] = sampleIdRows[j];
+				pointIdRows[j + 1] = pointIdRows[j];
+				parameterIdRows[j + 1] = parameterIdRows[j];
+				valueRows[j + 1] = valueRows[j];
+				epochDayRows[j + 1] = epochDayRows[j];
+				colourCodeRows[j + 1] = colourCodeRows[j];
+				j--;
+			} // while
+
+			sampleIdRows[j + 1] = sampleId;
+			pointIdRows[j + 1] = pointId;
+			parameterIdRows[j + 1] = parameterId;
+			valueRows[j + 1] = value;
+			epochDayRows[j + 1] = epochDay;
+			colourCodeRows[j + 1] = colourCode;
+		} // for
+
+		// a sample has one value of each parameter, so keep the last one read,
+		// as the objects do
+		int uniqueCount = 0;
+		for (int i = 0; i < count; i++)
+		{
+			if ((i + 1 < count) && (sampleIdRows[i + 1] == sampleIdRows[i])
+					&& (parameterIdRows[i + 1] == parameterIdRows[i]))
+				continue;
+
+			sampleIdRows[uniqueCount] = sampleIdRows[i];
+			pointIdRows[uniqueCount] = pointIdRows[i];
+			parameterIdRows[uniqueCount] = parameterIdRows[i];
+			valueRows[uniqueCount] = valueRows[i];
+			epochDayRows[uniqueCount] = epochDayRows[i];
+			colourCodeRows[uniqueCount] = colourCodeRows[i];
+			uniqueCount++;
+		} // for
+
+		size = uniqueCount;
+		if (size == rowCount)
+		{
+			sampleIds = sampleIdRows;
+			pointIds = pointIdRows;
+			parameterIds = parameterIdRows;
+			values = valueRows;
+			epochDays = epochDayRows;
+			colourCodes = colourCodeRows;
+		}
+		else
+		{
+			sampleIds = new int[size];
+			pointIds = new int[size];
+			parameterIds = new int[size];
+			values = new double[size];
+			epochDays = new int[size];
+			colourCodes = new byte[size];
+			System.arraycopy(sampleIdRows, 0, sampleIds, 0, size);
+			System.arraycopy(pointIdRows, 0, pointIds, 0, size);
+			System.arraycopy(parameterIdRows, 0, parameterIds, 0, size);
+			System.arraycopy(valueRows, 0, values, 0, size);
+			System.arraycopy(epochDayRows, 0, epochDays, 0, size);
+			System.arraycopy(colourCodeRows, 0, colourCodes, 0, size);
+		}
+
+		pointStarts = new int[pointCount + 1];
+		pointRows = orderByPoint(pointStarts);
+		orderedParameters = findOrderedParameters();
+	}
+
+
+	/**
+	 * Selects the values of a period, and optionally of one parameter, from a
+	 * window that already holds them, without reading the database. The new
+	 * window is the same as one loaded with only those values.
+	 *
+	 * @param source
+	 *            window of the same area, holding all the values of the
+	 *            period
+	 * @param startDay
+	 *            first day of the period, in days since 1970-01-01
+	 * @param endDay
+	 *            last day of the period, in days since 1970-01-01
+	 * @param parameterId
+	 *            id of the parameter to select, or
+	 *            {@link DataCacheRegistry#ALL_PARAMETERS}
+	 */
+	public SampleWindow(SampleWindow source, int startDay, int endDay,
+			int parameterId)
+	{
+		// the area is the same, so the sampling points and parameters are too
+		orderedPoints = source.orderedPoints;
+		sortedPointIds = source.sortedPointIds;
+		pointPositions = source.pointPositions;
+		knownParameterIds = source.knownParameterIds;
+		knownParameters = source.knownParameters;
+
+		// the values are sorted by date first, so those of the period are
+		// next to each other - a period that ends before it starts has none
+		int start = findDay(source.epochDays, source.size, startDay);
+		int end = Math.max(start, findDay(source.epochDays, source.size,
+				endDay + 1));
+
+		boolean allParameters = (parameterId == DataCacheRegistry.ALL_PARAMETERS);
+		int count = 0;
+		if (allParameters)
+		{
+			count = end - start;
+		}
+		else
+		{
+			for (int i = start; i < end; i++)
+			{
+				if (source.parameterIds[i] == parameterId)
+					count++;
+			}
+		} // if
+
+		size = count;
+		sampleIds = new int[size];
+		pointIds = new int[size];
+		parameterIds = new int[size];
+		values = new double[size];
+		epochDays = new int[size];
+		colourCodes = new byte[size];
+
+		if (allParameters)
+		{
+			System.arraycopy(source.sampleIds, start, sampleIds, 0, size);
+			System.arraycopy(source.pointIds, start, pointIds, 0, size);
+			System.arraycopy(source.parameterIds, start, parameterIds, 0, size);
+			System.arraycopy(source.values, start, values, 0, size);
+			System.arraycopy(source.epochDays, start, epochDays, 0, size);
+			System.arraycopy(source.colourCodes, start, colourCodes, 0, size);
+		}
+		else
+		{
+			int j = 0;
+			for (int i = start; i < end; i++)
+			{
+				if (source.parameterIds[i] != parameterId)
+					continue;
+
+				sampleIds[j] = source.sampleIds[i];
+				pointIds[j] = source.pointIds[i];
+				parameterIds[j] = parameterId;
+				values[j] = source.values[i];
+				epochDays[j] = source.epochDays[i];
+				colourCodes[j] = source.colourCodes[i];
+				j++;
+			} // for
+		} // if
+
+		pointStarts = new int[orderedPoints.length + 1];
+		pointRows = orderByPoint(pointStarts);
+		orderedParameters = findOrderedParameters();
+	}
+
+
+	/**
+	 * Orders the values by sampling point, keeping the order within each.
+	 *
+	 * @param starts
+	 *            array to fill with the first value of each sampling point
+	 * @return the values ordered by sampling point
+	 */
+	private int[] orderByPoint(int[] starts)
+	{
+		int pointCount = orderedPoints.length;
+
+		int[] rowPositions = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			rowPositions[i] = getPointPosition(pointIds[i]);
+			starts[rowPositions[i] + 1]++;
+		}
+		for (int i = 0; i < pointCount; i++)
+		{
+			starts[i + 1] += starts[i];
+		}
+
+		int[] nextRows = new int[pointCount];
+		System.arraycopy(starts, 0, nextRows, 0, pointCount);
+		int[] rows = new int[size];
+		for (int i = 0; i < size; i++)
+		{
+			rows[nextRows[rowPositions[i]]++] = i;
+		}
+
+		return rows;
+	}
+
+
+	/**
+	 * Finds the parameters that have values, ordered by name.
+	 */
+	private Parameter[] findOrderedParameters()
+	{
+		int[] presentIds = new int[size];
+		System.arraycopy(parameterIds, 0, presentIds, 0, size);
+		Arrays.sort(presentIds);
+
+		Vector<Parameter> present = new Vector<Parameter>();
+		for (int i = 0; i < size; i++)
+		{
+			if ((i == 0) || (presentIds[i] != presentIds[i - 1]))
+				present.add(getParameter(presentIds[i]));
+		}
+
+		Parameter[] ordered = present.toArray(new Parameter[present.size()]);
+		Arrays.sort(ordered, PARAMETER_ORDER);
+		return ordered;
+	}
+
+
+	/**
+	 * Get the parameters that have values, ordered by name.
+	 *
+	 * @return vector of ordered parameters
+	 */
+	public Vector<Parameter> getOrderedParameters()
+	{
+		return new Vector<Parameter>(Arrays.asList(orderedParameters));
+	}
+
+
+	/**
+	 * Estimates the memory used by the arrays of the window. The parameters
+	 * and sampling points themselves are not counted.
+	 *
+	 * @return estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		// each value has four ints, a double and a byte, and an entry in
+		// pointRows
+		long bytes = 21L * size + 4L * pointRows.length;
+
+		// the parameter and sampling point indexes
+		bytes += 8L * knownParameters.length + 4L * orderedParameters.length;
+		bytes += 16L * orderedPoints.length;
+
+		// the header of each of the 14 arrays
+		return bytes + 14 * 16;
+	}
+
+
+	/**
+	 * Get the severity of a sampling point, which is the severity of its
+	 * worst value, and at least a pass if it has any values.
+	 *
+	 * @param pointId
+	 *            id of the sampling point
+	 * @return the severity, from TestIndicators, or NONE_SEVERITY if the
+	 *         sampling point has no values
+	 */
+	public byte getSamplingPointSeverity(int pointId)
+	{
+		int position = getPointPosition(pointId);
+		if ((position < 0) || (pointStarts[position] == pointStarts[position + 1]))
+			return TestIndicators.NONE_SEVERITY;
+
+		byte severity = TestIndicators.PASS_SEVERITY;
+		for (int i = pointStarts[position]; i < pointStarts[position + 1]; i++)
+		{
+			byte colourCode = colourCodes[pointRows[i]];
+			if (colourCode > severity)
+				severity = colourCode;
+		}
+
+		return severity;
+	}
+
+
+	/**
+	 * Adds the compliance of a sampling point to a count of passed values
+	 * and a count of all values, worked out as {@link SamplingPoint} does.
+	 *
+	 * @param pointId
+	 *            id of the sampling point
+	 * @param counts
+	 *            passed values and total values, to add to
+	 * @return the severity of the sampling point
+	 */
+	public byte countSamplingPointCompliance(int pointId, int[] counts)
+	{
+		int position = getPointPosition(pointId);
+		if (position < 0)
+			return TestIndicators.NONE_SEVERITY;
+
+		return countCompliance(position, counts);
+	}
+
+
+	/**
+	 * Adds the compliance of all the sampling points to a count of passed
+	 * values and a count of all values.
+	 *
+	 * @param counts
+	 *            passed values and total values, to add to
+	 * @return the severity of the worst sampling point
+	 */
+	public byte countCompliance(int[] counts)
+	{
+		byte severity = TestIndicators.NONE_SEVERITY;
+
+		// do this to optimise the Android code
+		int pointCount = orderedPoints.length;
+		for (int position = 0; position < pointCount; position++)
+		{
+			byte pointSeverity = countCompliance(position, counts);
+			if (pointSeverity > severity)
+				severity = pointSeverity;
+		} // for
+
+		return severity;
+	}
+
+
+	/**
+	 * Get the values of all sampling points as rows of a DataList.
+	 *
+	 * @param hiddenColumn
+	 *            index of a column to hide, or -1
+	 * @return a row for each value, built when it is asked for
+	 */
+	public DataRows getMeasuredValueDataIndicators(int hiddenColumn)
+	{
+		return new MeasuredValueRows(0, pointStarts[orderedPoints.length],
+				hiddenColumn);
+	}
+
+
+	/**
+	 * Get the values of one sampling point as rows of a DataList.
+	 *
+	 * @param pointId
+	 *            id of the sampling point
+	 * @param hiddenColumn
+	 *            index of a column to hide, or -1
+	 * @return a row for each value, built when it is asked for
+	 */
+	public DataRows getSamplingPointMeasuredValueDataIndicators(int pointId,
+			int hiddenColumn)
+	{
+		int position = getPointPosition(pointId);
+		if (position < 0)
+			return new MeasuredValueRows(0, 0, hiddenColumn);
+
+		return new MeasuredValueRows(pointStarts[position],
+				pointStarts[position + 1], hiddenColumn);
+	}
+
+
+	/**
+	 * Get the samples of all sampling points as rows of a DataList, with a
+	 * column for each of a list of parameters.
+	 *
+	 * @param parameters
+	 *            parameters to show
+	 * @param showPointNames
+	 *            whether the sampling point names are shown with the dates
+	 * @return a row for each sample, built when it is asked for
+	 */
+	public DataRows getParametersDataIndicators(Vector<Parameter> parameters,
+			boolean showPointNames)
+	{
+		return new ParameterRows(0, pointStarts[orderedPoints.length],
+				parameters.toArray(new Parameter[parameters.size()]),
+				showPointNames);
+	}
+
+
+	/**
+	 * Get the samples of one sampling point as rows of a DataList, with a
+	 * column for each of a list of parameters.
+	 *
+	 * @param pointId
+	 *            id of the sampling point
+	 * @param parameters
+	 *            parameters to show
+	 * @param showPointName
+	 *            whether the sampling point name is shown with the dates
+	 * @return a row for each sample, built when it is asked for
+	 */
+	public DataRows getSamplingPointParametersDataIndicators(int pointId,
+			Vector<Parameter> parameters, boolean showPointName)
+	{
+		Parameter[] columns = parameters.toArray(new Parameter[parameters
+				.size()]);
+
+		int position = getPointPosition(pointId);
+		if (position < 0)
+			return new ParameterRows(0, 0, columns, showPointName);
+
+		return new ParameterRows(pointStarts[position],
+				pointStarts[position + 1], columns, showPointName);
+	}
+
+
+	/**
+	 * Get the compliance of each parameter at each sampling point as rows of
+	 * a DataList, as {@link SamplingPoint} works it out. Sampling points with
+	 * no values are left out.
+	 *
+	 * @param parameters
+	 *            parameters to show
+	 * @return a row for each sampling point, built when it is asked for
+	 */
+	public DataRows getParametersDataIndicatorsGroupedByDate(
+			Vector<Parameter> parameters)
+	{
+		return new GroupedRows(parameters);
+	}
+
+
+	/**
+	 * Adds the compliance of the sampling point at a position to the counts,
+	 * one sample at a time, and returns its severity.
+	 */
+	private byte countCompliance(int position, int[] counts)
+	{
+		byte severity = TestIndicators.NONE_SEVERITY;
+
+		int end = pointStarts[position + 1];
+		int i = pointStarts[position];
+		while (i < end)
+		{
+			int sampleId = sampleIds[pointRows[i]];
+			int valueCount = 0;
+			double totalCount = 0;
+			double passCount = 0;
+			byte sampleSeverity = TestIndicators.PASS_SEVERITY;
+
+			while ((i < end) && (sampleIds[pointRows[i]] == sampleId))
+			{
+				byte colourCode = colourCodes[pointRows[i]];
+
+				// as in Sample, a value in no range counts as a pass, and
+				// values of other colours are not counted
+				if ((colourCode == NO_RANGE)
+						|| (colourCode == TestIndicators.PASS_SEVERITY)
+						|| (colourCode == TestIndicators.WARNING_SEVERITY))
+				{
+					totalCount++;
+					passCount++;
+				}
+				else if (colourCode == TestIndicators.FAIL_SEVERITY)
+					totalCount++;
+
+				if (colourCode > sampleSeverity)
+					sampleSeverity = colourCode;
+
+				valueCount++;
+				i++;
+			} // while
+
+			counts[0] += (int) Math.round(passCount / totalCount * valueCount);
+			counts[1] += valueCount;
+
+			if (sampleSeverity > severity)
+				severity = sampleSeverity;
+		} // while
+
+		return severity;
+	}
+
+
+	/**
+	 * Returns the position of a sampling point in orderedPoints, or -1 if it
+	 * is not in the window.
+	 */
+	private int getPointPosition(int pointId)
+	{
+		int i = Arrays.binarySearch(sortedPointIds, pointId);
+		return (i >= 0) ? pointPositions[i] : -1;
+	}
+
+
+	/**
+	 * Returns a parameter by id, or null if it is not loaded.
+	 */
+	private Parameter getParameter(int parameterId)
+	{
+		int i = Arrays.binarySearch(knownParameterIds, parameterId);
+		return (i >= 0) ? knownParameters[i] : null;
+	}
+
+
+	/**
+	 * Compares two values by date, sampling point, sample and parameter.
+	 */
+	// method declared static for Android optimisation
+	private static int compareRows(int epochDay1, int pointId1, int sampleId1,
+			int parameterId1, int epochDay2, int pointId2, int sampleId2,
+			int parameterId2)
+	{
+		if (epochDay1 != epochDay2)
+			return (epochDay1 < epochDay2) ? -1 : 1;
+		if (pointId1 != pointId2)
+			return compareIds(pointId1, pointId2);
+		if (sampleId1 != sampleId2)
+			return compareIds(sampleId1, sampleId2);
+		return compareIds(parameterId1, parameterId2);
+	}
+
+
+	/**
+	 * Returns the index of the first value taken on or after a day, from
+	 * values sorted by date.
+	 */
+	// method declared static for Android optimisation
+	private static int findDay(int[] days, int count, int day)
+	{
+		int low = 0;
+		int high = count;
+		while (low < high)
+		{
+			int middle = (low + high) >>> 1;
+			if (days[middle] < day)
+				low = middle + 1;
+			else
+				high = middle;
+		} // while
+
+		return low;
+	}
+
+
+	// method declared static for Android optimisation
+	private static int compareIds(int id1, int id2)
+	{
+		return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+	}
+
+
+	/**
+	 * Returns the index of an id in an array, or -1.
+	 */
+	// method declared static for Android optimisation
+	private static int indexOf(int[] ids, int id)
+	{
+		for (int i = 0; i < ids.length; i++)
+		{
+			if (ids[i] == id)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * A row for each value in a part of pointRows.
+	 */
+	private class MeasuredValueRows extends DataRows
+	{
+		private final int start;
+		private final int end;
+		private final int hiddenColumn;
+
+		MeasuredValueRows(int _start, int _end, int _hiddenColumn)
+		{
+			start = _start;
+			end = _end;
+			hiddenColumn = _hiddenColumn;
+		}
+
+		public int size()
+		{
+			return end - start;
+		}
+
+		protected Vector<DataIndicator> buildRow(int position)
+		{
+			int row = pointRows[start + position];
+			SamplingPoint point = orderedPoints[getPointPosition(pointIds[row])];
+			Parameter parameter = getParameter(parameterIds[row]);
+			String colour = TestIndicators.getColour(colourCodes[row]);
+
+			Vector<DataIndicator> dI = new Vector<DataIndicator>();
+			dI.add(new DataIndicator(-1, TestIndicators.NONE, DataUtils
+					.epochDayToString(epochDays[row])));
+			dI.add(new DataIndicator(-1, colour, point.pointName));
+			dI.add(new DataIndicator(-1, colour, point.townName));
+			dI.add(new DataIndicator(-1, colour, parameter.testNameShort));
+			dI.add(new DataIndicator(values[row], colour, parameter
+					.getKeyOfValue(values[row])));
+
+			if (hiddenColumn > -1)
+				dI.remove(hiddenColumn);
+
+			return dI;
+		}
+	}
+
+
+	/**
+	 * A row for each sample in a part of pointRows. Only the first entry of
+	 * each sample is found up front.
+	 */
+	private class ParameterRows extends DataRows
+	{
+		/** first entry in pointRows of each sample, and the end */
+		private final int[] sampleStarts;
+		private final Parameter[] columns;
+		private final boolean showPointName;
+
+		ParameterRows(int start, int end, Parameter[] _columns,
+				boolean _showPointName)
+		{
+			columns = _columns;
+			showPointName = _showPointName;
+
+			// a sample's values are next to each other, but the same sample id
+			// can follow itself at the start of the next sampling point
+			int sampleCount = 0;
+			for (int i = start; i < end; i++)
+			{
+				if (isSampleStart(start, i))
+					sampleCount++;
+			}
+
+			sampleStarts = new int[sampleCount + 1];
+			int sample = 0;
+			for (int i = start; i < end; i++)
+			{
+				if (isSampleStart(start, i))
+					sampleStarts[sample++] = i;
+			}
+			sampleStarts[sampleCount] = end;
+		}
+
+		private boolean isSampleStart(int start, int i)
+		{
+			return (i == start)
+					|| (sampleIds[pointRows[i]] != sampleIds[pointRows[i - 1]])
+					|| (pointIds[pointRows[i]] != pointIds[pointRows[i - 1]]);
+		}
+
+		public int size()
+		{
+			return sampleStarts.length - 1;
+		}
+
+		protected Vector<DataIndicator> buildRow(int position)
+		{
+			int sampleStart = sampleStarts[position];
+			int sampleEnd = sampleStarts[position + 1];
+			int row = pointRows[sampleStart];
+			SamplingPoint point = orderedPoints[getPointPosition(pointIds[row])];
+
+			String rowLabel = DataUtils.epochDayToStringShort(epochDays[row]);
+			if (showPointName)
+			{
+				if (point.pointName.length() > 20)
+					rowLabel = point.pointName.substring(0, 20) + "... "
+							+ rowLabel;
+				else
+					rowLabel = point.pointName + " " + rowLabel;
+			}
+
+			Vector<DataIndicator> dI = new Vector<DataIndicator>();
+			dI.add(new DataIndicator(-1, TestIndicators.NONE, rowLabel));
+
+			for (int column = 0; column < columns.length; column++)
+			{
+				Parameter p = columns[column];
+
+				int valueRow = -1;
+				for (int j = sampleStart; j < sampleEnd; j++)
+				{
+					if (parameterIds[pointRows[j]] == p.id)
+					{
+						valueRow = pointRows[j];
+						break;
+					}
+				}
+
+				if (valueRow >= 0)
+					dI.add(new DataIndicator(values[valueRow], TestIndicators
+							.getColour(colourCodes[valueRow]), p
+							.getKeyOfValue(values[valueRow])));
+				else
+					dI.add(new DataIndicator(-1, TestIndicators.NONE, ""));
+			} // for
+
+			return dI;
+		}
+	}
+
+
+	/**
+	 * A row for each sampling point that has values.
+	 */
+	private class GroupedRows extends DataRows
+	{
+		/** positions in orderedPoints of the sampling points with values */
+		private final int[] positions;
+		private final int[] columnIds;
+		private final DecimalFormat dF = new DecimalFormat("#.##%");
+
+		GroupedRows(Vector<Parameter> parameters)
+		{
+			int columnCount = parameters.size();
+			columnIds = new int[columnCount];
+			for (int i = 0; i < columnCount; i++)
+			{
+				columnIds[i] = parameters.get(i).id;
+			}
+
+			// do this to optimise the Android code
+			int pointCount = orderedPoints.length;
+			int rowCount = 0;
+			for (int position = 0; position < pointCount; position++)
+			{
+				if (pointStarts[position] != pointStarts[position + 1])
+					rowCount++;
+			}
+
+			positions = new int[rowCount];
+			rowCount = 0;
+			for (int position = 0; position < pointCount; position++)
+			{
+				if (pointStarts[position] != pointStarts[position + 1])
+					positions[rowCount++] = position;
+			}
+		}
+
+		public int size()
+		{
+			return positions.length;
+		}
+
+		protected Vector<DataIndicator> buildRow(int rowPosition)
+		{
+			int position = positions[rowPosition];
+			int columnCount = columnIds.length;
+			double[] totalCounts = new double[columnCount];
+			double[] passCounts = new double[columnCount];
+			byte[] severities = new byte[columnCount];
+
+			for (int i = pointStarts[position]; i < pointStarts[position + 1]; i++)
+			{
+				int row = pointRows[i];
+				int column = indexOf(columnIds, parameterIds[row]);
+				if (column < 0)
+					continue;
+
+				byte colourCode = colourCodes[row];
+				totalCounts[column]++;
+				if ((colourCode == TestIndicators.PASS_SEVERITY)
+						|| (colourCode == TestIndicators.WARNING_SEVERITY))
+					passCounts[column]++;
+				if (colourCode > severities[column])
+					severities[column] = colourCode;
+			} // for
+
+			SamplingPoint point = orderedPoints[position];
+			Vector<DataIndicator> dI = new Vector<DataIndicator>();
+			dI.add(new DataIndicator(-1, TestIndicators.NONE, point.pointName
+					+ " (" + point.townName + ")"));
+
+			for (int column = 0; column < columnCount; column++)
+			{
+				double c = 0;
+				if (totalCounts[column] > 0)
+					c = passCounts[column] / totalCounts[column];
+
+				dI.add(new DataIndicator(c, TestIndicators
+						.getColour(severities[column]), dF.format(c)));
+			}
+
+			return dI;
+		}
+	}
+}
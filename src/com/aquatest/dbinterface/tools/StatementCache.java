@@ -0,0 +1,187 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Keeps the statements compiled by {@link DatabaseUpdater}, so that they can
+ * be used again for later pages, tables and updates while the database they
+ * were compiled for is open. </p>
+ *
+ * Statements are keyed by table, change type and the columns they set, in
+ * order. The least recently used statement is closed once there are more than
+ * {@link #MAX_STATEMENTS}. All statements are closed if the schema of the
+ * database changes. </p>
+ *
+ * The cache is not synchronised, and must only be used by one thread at a
+ * time.
+ */
+public class StatementCache
+{
+	/** maximum number of compiled statements to keep */
+	public static final int MAX_STATEMENTS = 48;
+
+	private SQLiteDatabase database;
+	private long schemaVersion = -1;
+
+	private LinkedHashMap<String, SQLiteStatement> statements = new LinkedHashMap<String, SQLiteStatement>(
+			16, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, SQLiteStatement> eldest)
+		{
+			if (size() <= MAX_STATEMENTS)
+				return false;
+
+			eldest.getValue().close();
+			return true;
+		}
+	};
+
+	/**
+	 * Constructor
+	 *
+	 * @param _database
+	 *            database the statements are compiled for
+	 */
+	public StatementCache(SQLiteDatabase _database)
+	{
+		database = _database;
+	}
+
+	/**
+	 * Builds the key of a statement.
+	 *
+	 * @param table
+	 *            table the statement changes
+	 * @param type
+	 *            type of change (TYPE_ADDED, TYPE_UPDATED, TYPE_DELETED)
+	 * @param columns
+	 *            columns set by the statement, in order, or <code>null</code>
+	 *            if it does not depend on the columns
+	 * @return key for the statement
+	 */
+	// method declared static for Android optimisation
+	public static String getKey(String table, int type, String[] columns)
+	{
+		return getKey(table, type, 1, columns);
+	}
+
+	/**
+	 * Builds the key of a statement that writes several rows at once.
+	 *
+	 * @param table
+	 *            table the statement changes
+	 * @param type
+	 *            type of change
+	 * @param rows
+	 *            number of rows the statement writes
+	 * @param columns
+	 *            columns set by the statement, in order, or <code>null</code>
+	 *            if it does not depend on the columns
+	 * @return key for the statement
+	 */
+	// method declared static for Android optimisation
+	public static String getKey(String table, int type, int rows,
+			String[] columns)
+	{
+		StringBuilder key = new StringBuilder();
+		key.append(table).append(':').append(type).append(':').append(rows);
+
+		if (columns != null)
+		{
+			// do this to optimise the Android code
+			int columnCount = columns.length;
+			for (int i = 0; i < columnCount; i++)
+			{
+				key.append(':').append(columns[i]);
+			}
+		}
+
+		return key.toString();
+	}
+
+	/**
+	 * Returns a compiled statement.
+	 *
+	 * @param key
+	 *            key built by {@link #getKey(String, int, int, String[])}
+	 * @return the statement, or <code>null</code> if it has not been compiled
+	 */
+	public SQLiteStatement get(String key)
+	{
+		return statements.get(key);
+	}
+
+	/**
+	 * Adds a compiled statement. The cache closes it when it is no longer
+	 * needed, so the caller must not.
+	 *
+	 * @param key
+	 *            key built by {@link #getKey(String, int, int, String[])}
+	 * @param statement
+	 *            compiled statement
+	 */
+	public void put(String key, SQLiteStatement statement)
+	{
+		SQLiteStatement old = statements.put(key, statement);
+		if ((old != null) && (old != statement))
+		{
+			old.close();
+		}
+	}
+
+	/**
+	 * Closes all the statements if the schema of the database has changed
+	 * since this was last called.
+	 */
+	public void validate()
+	{
+		long version = DatabaseUtils.longForQuery(database,
+				"PRAGMA schema_version", null);
+
+		if (version != schemaVersion)
+		{
+			clear();
+			schemaVersion = version;
+		}
+	}
+
+	/**
+	 * Closes all the statements.
+	 */
+	public void clear()
+	{
+		Iterator<SQLiteStatement> i = statements.values().iterator();
+		while (i.hasNext())
+		{
+			i.next().close();
+		}
+		statements.clear();
+	}
+}
@@ -0,0 +1,621 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.json.JSONException;
+
+import com.aquatest.debug.DebugConstants;
+import com.aquatest.webservice.AquaTestWebService;
+import com.aquatest.webservice.MockAquaTestWebService;
+import com.aquatest.webservice.ResponseStream;
+
+/**
+ * Downloads and parses the sync pages for one table, ahead of the thread that
+ * writes them to the database. </p>
+ *
+ * The fetcher works through the change types in the same order as
+ * {@link DatabaseUpdater} applies them, and hands the parsed rows over in
+ * chunks through a queue. A page is only handed over once it has been read
+ * to the end and its response closed, so the fetcher never holds a connection
+ * while it waits for the writer; in fact it never waits at all. Pages are
+ * kept in memory while the {@link BufferBudget} shared by all the fetchers
+ * allows, and are written to a {@link PageSpool} file after that. Fetchers
+ * are run by a {@link SyncScheduler}.
+ */
+public class SyncFetcher implements Runnable
+{
+	/** maximum number of rows in a chunk */
+	public static final int CHUNK_ROWS = 100;
+	/** number of times a failed page is requested again */
+	public static final int MAX_PAGE_RETRIES = 2;
+
+	// chunk types
+	/** chunk contains rows */
+	public static final int CHUNK_ROWS_TYPE = 0;
+	/** all rows for a table and change type have been sent */
+	public static final int CHUNK_END = 1;
+	/** fetching failed - the chunk contains the error */
+	public static final int CHUNK_ERROR = 2;
+	/** fetching was cancelled */
+	public static final int CHUNK_CANCELLED = 3;
+	/** all rows of a page have been sent - the chunk contains the paging */
+	public static final int CHUNK_PAGE_END = 4;
+	/**
+	 * the chunks of a page are in a file - only used between the fetcher and
+	 * {@link #take()}
+	 */
+	static final int CHUNK_SPOOLED = 5;
+
+	/** estimated heap used by each string held in a chunk, besides its chars */
+	private static final int STRING_OVERHEAD = 40;
+	/** estimated heap used by the arrays of each row held in a chunk */
+	private static final int ROW_OVERHEAD = 32;
+
+	/**
+	 * Memory that pages waiting for the writer may take up, shared by all the
+	 * fetchers of an update.
+	 */
+	static class BufferBudget
+	{
+		private long available;
+
+		/**
+		 * Constructor
+		 *
+		 * @param bytes
+		 *            number of bytes pages may take up in memory
+		 */
+		BufferBudget(long bytes)
+		{
+			available = bytes;
+		}
+
+		/**
+		 * Takes memory from the budget, if there is enough left.
+		 *
+		 * @return <code>true</code> if the memory was taken
+		 */
+		synchronized boolean reserve(long bytes)
+		{
+			if (bytes > available)
+				return false;
+
+			available -= bytes;
+			return true;
+		}
+
+		/**
+		 * Gives memory back to the budget.
+		 */
+		synchronized void release(long bytes)
+		{
+			available += bytes;
+		}
+	}
+
+	/**
+	 * Group of rows handed from the fetcher to the writer.
+	 */
+	public static class Chunk
+	{
+		public int chunkType;
+		public String table;
+		public int changeType;
+
+		/** field names for each row - rows normally share the same array */
+		public String[][] fieldNames;
+		public String[][] values;
+		public int rowCount = 0;
+
+		public Exception error;
+
+		/** offset of the page after the one that has ended */
+		public int nextOffset;
+		public int totalCount;
+
+		/** memory given back to the budget when the writer takes this chunk */
+		long bufferedBytes = 0;
+		/** file holding the page of a spooled chunk */
+		File spoolFile;
+
+		Chunk(int _chunkType, String _table, int _changeType)
+		{
+			chunkType = _chunkType;
+			table = _table;
+			changeType = _changeType;
+		}
+	}
+
+	private String table;
+	private long lastUpdateTime;
+	private AdaptiveBatchSizer batchSizer;
+	private SyncState syncState;
+	private BufferBudget budget;
+	private BlockingQueue<Chunk> queue = new LinkedBlockingQueue<Chunk>();
+
+	/** spooled page being read by the writer */
+	private PageSpool.Reader spool;
+
+	private volatile boolean cancelled = false;
+
+	/** bytes received from the server, before they were inflated */
+	private volatile long bytesReceived = 0;
+	/** bytes of JSON read, after they were inflated */
+	private volatile long bytesRead = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param _table
+	 *            table to fetch
+	 * @param _lastUpdateTime
+	 *            time of last update
+	 * @param _batchSizer
+	 *            chooses how many rows to request in each page
+	 * @param _syncState
+	 *            progress of an earlier attempt at this update
+	 * @param _budget
+	 *            memory that pages waiting for the writer may take up
+	 */
+	public SyncFetcher(String _table, long _lastUpdateTime,
+			AdaptiveBatchSizer _batchSizer, SyncState _syncState,
+			BufferBudget _budget)
+	{
+		table = _table;
+		lastUpdateTime = _lastUpdateTime;
+		batchSizer = _batchSizer;
+		syncState = _syncState;
+		budget = _budget;
+	}
+
+	/**
+	 * Stops the fetcher. Any chunks still in the queue are discarded, along
+	 * with their spooled pages. This must be called on the thread that takes
+	 * the chunks.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+
+		if (spool != null)
+		{
+			spool.close();
+			spool = null;
+		} // if
+
+		Vector<Chunk> discarded = new Vector<Chunk>();
+		queue.drainTo(discarded);
+
+		// do this to optimise the Android code
+		int chunkCount = discarded.size();
+		for (int i = 0; i < chunkCount; i++)
+		{
+			File spoolFile = discarded.get(i).spoolFile;
+			if (spoolFile != null)
+				spoolFile.delete();
+		} // for
+	}
+
+	/**
+	 * @return number of bytes received for this table so far, as sent by the
+	 *         server
+	 */
+	public long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+	/**
+	 * @return number of bytes of JSON read for this table so far, after it
+	 *         was inflated
+	 */
+	public long getBytesRead()
+	{
+		return bytesRead;
+	}
+
+	/**
+	 * Waits for the next chunk.
+	 *
+	 * @return next chunk
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting
+	 * @throws IOException
+	 *             if a spooled page cannot be read back
+	 */
+	public Chunk take() throws InterruptedException, IOException
+	{
+		while (true)
+		{
+			if (spool != null)
+			{
+				Chunk chunk = spool.next();
+				if (chunk != null)
+					return chunk;
+
+				spool.close();
+				spool = null;
+			} // if
+
+			Chunk chunk = queue.take();
+			if (chunk.bufferedBytes > 0)
+				budget.release(chunk.bufferedBytes);
+
+			if (chunk.chunkType != CHUNK_SPOOLED)
+				return chunk;
+
+			spool = new PageSpool.Reader(chunk.spoolFile, table,
+					chunk.changeType);
+		} // while
+	}
+
+	public void run()
+	{
+		try
+		{
+			if (!fetch(DatabaseUpdater.TYPE_ADDED)
+					|| !fetch(DatabaseUpdater.TYPE_UPDATED)
+					|| !fetch(DatabaseUpdater.TYPE_DELETED))
+			{
+				put(new Chunk(CHUNK_CANCELLED, table, 0));
+			} // if
+		}
+		catch (InterruptedException e)
+		{
+			// the writer has gone away, so there is no one to tell
+		}
+		catch (Exception e)
+		{
+			Chunk chunk = new Chunk(CHUNK_ERROR, table, 0);
+			chunk.error = e;
+			try
+			{
+				put(chunk);
+			}
+			catch (InterruptedException e1)
+			{
+				// the writer has gone away, so there is no one to tell
+			}
+		}
+	}
+
+	/**
+	 * Fetches all pages of one change type for the table.
+	 *
+	 * @return <code>false</code> if fetching was cancelled
+	 */
+	private boolean fetch(int type)
+			throws ClientProtocolException, JSONException, IOException,
+			InterruptedException
+	{
+		int nextOffset = 0;
+		int totalCount = 1;
+		int retries = 0;
+		boolean run = true;
+
+		// carry on from the last page applied by an earlier attempt
+		SyncState.Checkpoint checkpoint = syncState.getCheckpoint(table, type);
+		if (checkpoint != null)
+		{
+			if (checkpoint.complete)
+			{
+				put(new Chunk(CHUNK_END, table, type));
+				return true;
+			} // if
+
+			nextOffset = checkpoint.nextOffset;
+			totalCount = checkpoint.totalCount;
+		} // if
+
+		String wsMethodName = DatabaseUpdater.getWebServiceMethod(type);
+		SyncPageParser parser = new SyncPageParser();
+
+		// this loop allows for paging of the data from the web service
+		while ((nextOffset < totalCount) && run)
+		{
+			int batchSize = batchSizer.getBatchSize(table, type);
+			long startTime = System.currentTimeMillis();
+
+			ResponseStream response = null;
+			ChunkBuilder builder = new ChunkBuilder(type);
+			SyncPageParser.Page page = null;
+			Exception failure = null;
+			try
+			{
+				// java compiler optimises this "if" statement away based on
+				// value of MOCK_WEB_SERVICES i.e. similar to C compiler #ifdef
+				// blocks
+				if (DebugConstants.MOCK_WEB_SERVICES)
+				{
+					// mock web services
+					response = MockAquaTestWebService.openDataChanges(
+							wsMethodName, table, lastUpdateTime, nextOffset,
+							batchSize);
+				}
+				else
+				{
+					// use real production server
+					response = AquaTestWebService.openDataChanges(wsMethodName,
+							table, lastUpdateTime, nextOffset, batchSize);
+				}
+
+				// cancel update if no result was returned
+				if (response == null)
+					return false;
+
+				page = parser.parse(response.getReader(), builder);
+			}
+			catch (IOException e)
+			{
+				failure = e;
+			}
+			catch (JSONException e)
+			{
+				// a dropped connection can also leave the JSON unfinished
+				failure = e;
+			}
+			finally
+			{
+				if (response != null)
+				{
+					response.close();
+
+					// only this thread writes the counters
+					bytesReceived += response.getBytesReceived();
+					bytesRead += response.getBytesRead();
+				}
+			}
+
+			if (failure != null)
+			{
+				// the rows read before the page failed are kept, so that they
+				// are not asked for again
+				queuePage(builder, null);
+
+				if (!canRetry(failure, retries))
+				{
+					if (failure instanceof JSONException)
+						throw (JSONException) failure;
+					throw (IOException) failure;
+				} // if
+
+				// try again with a smaller page
+				retries++;
+				batchSizer.pageFailed(table, type, batchSize);
+				nextOffset += builder.rowCount;
+				continue;
+			} // if
+
+			if (page == null)
+				return false;
+
+			long time = System.currentTimeMillis() - startTime;
+			batchSizer.pageCompleted(table, type, batchSize, page.rowCount,
+					response.getBytesRead(), time);
+			retries = 0;
+
+			// interpret the JSON results
+			if (page.status.compareTo(DatabaseUpdater.STATUS_SUCCESS) == 0)
+			{
+				// these fields allow for paging of the responses
+				totalCount = page.totalCount;
+				nextOffset = page.offset + page.count;
+
+				Chunk pageEnd = new Chunk(CHUNK_PAGE_END, table, type);
+				pageEnd.nextOffset = nextOffset;
+				pageEnd.totalCount = totalCount;
+				queuePage(builder, pageEnd);
+
+				// exit if there was no data to process
+				if (!(page.count > 0 && page.hasData))
+				{
+					run = false;
+				} // if
+			}
+			// else the call failed, so do not continue
+			else
+			{
+				queuePage(builder, null);
+				run = false;
+			} // else
+		} // while
+
+		put(new Chunk(CHUNK_END, table, type));
+		return true;
+	}
+
+	/**
+	 * Determines whether a page that failed should be requested again. A
+	 * timeout is the usual way a page fails on a slow link, so it is retried
+	 * like any other I/O error; other interrupted I/O only happens when the
+	 * fetcher is being stopped.
+	 */
+	private boolean canRetry(Exception e, int retries)
+	{
+		if (cancelled || Thread.currentThread().isInterrupted())
+			return false;
+
+		// ConnectionPoolTimeoutException is a ConnectTimeoutException
+		if ((e instanceof InterruptedIOException)
+				&& !(e instanceof SocketTimeoutException)
+				&& !(e instanceof ConnectTimeoutException))
+			return false;
+
+		return (retries < MAX_PAGE_RETRIES);
+	}
+
+	/**
+	 * Hands the rows of a page, whose response has been closed, to the writer.
+	 * The page is kept in memory if the budget allows, or spooled to a file.
+	 *
+	 * @param builder
+	 *            rows of the page
+	 * @param pageEnd
+	 *            end of page chunk, or <code>null</code> if the page did not
+	 *            finish
+	 */
+	private void queuePage(ChunkBuilder builder, Chunk pageEnd)
+			throws IOException, InterruptedException
+	{
+		builder.flush();
+
+		Vector<Chunk> chunks = builder.chunks;
+		if (pageEnd != null)
+			chunks.add(pageEnd);
+
+		if (chunks.isEmpty())
+			return;
+
+		if (budget.reserve(builder.bytes))
+		{
+			// the memory is given back once the writer reaches the last chunk
+			chunks.lastElement().bufferedBytes = builder.bytes;
+
+			// do this to optimise the Android code
+			int chunkCount = chunks.size();
+			for (int i = 0; i < chunkCount; i++)
+			{
+				put(chunks.get(i));
+			} // for
+		}
+		else
+		{
+			Chunk spooled = new Chunk(CHUNK_SPOOLED, table, builder.type);
+			spooled.spoolFile = PageSpool.write(chunks);
+
+			try
+			{
+				put(spooled);
+			}
+			catch (InterruptedException e)
+			{
+				spooled.spoolFile.delete();
+				throw e;
+			}
+		} // else
+	}
+
+	private void put(Chunk chunk) throws InterruptedException
+	{
+		if (cancelled) { throw new InterruptedException(); }
+
+		queue.put(chunk);
+	}
+
+	/**
+	 * Copies the parsed rows of a page into chunks.
+	 */
+	private class ChunkBuilder implements SyncPageParser.RowHandler
+	{
+		private int type;
+		private Chunk chunk;
+		private String[] lastFieldNames;
+
+		/** full chunks of the page */
+		Vector<Chunk> chunks = new Vector<Chunk>();
+		/** number of rows in the page so far */
+		int rowCount = 0;
+		/** estimated heap taken up by the rows */
+		long bytes = 0;
+
+		ChunkBuilder(int _type)
+		{
+			type = _type;
+		}
+
+		public boolean handleRow(String[] fieldNames, String[] values,
+				int fieldCount) throws JSONException
+		{
+			if (cancelled)
+				return false;
+
+			if (chunk == null)
+			{
+				chunk = new Chunk(CHUNK_ROWS_TYPE, table, type);
+				chunk.fieldNames = new String[CHUNK_ROWS][];
+				chunk.values = new String[CHUNK_ROWS][];
+			}
+
+			// rows nearly always have the same fields, so share the names
+			if (!sameFieldNames(fieldNames, fieldCount))
+			{
+				lastFieldNames = new String[fieldCount];
+				System.arraycopy(fieldNames, 0, lastFieldNames, 0, fieldCount);
+			}
+
+			String[] rowValues = new String[fieldCount];
+			System.arraycopy(values, 0, rowValues, 0, fieldCount);
+
+			chunk.fieldNames[chunk.rowCount] = lastFieldNames;
+			chunk.values[chunk.rowCount] = rowValues;
+			chunk.rowCount++;
+			rowCount++;
+
+			bytes += ROW_OVERHEAD;
+			for (int i = 0; i < fieldCount; i++)
+			{
+				String value = rowValues[i];
+				if (value != null)
+					bytes += STRING_OVERHEAD + 2 * value.length();
+			}
+
+			if (chunk.rowCount == CHUNK_ROWS)
+			{
+				flush();
+			}
+
+			return true;
+		}
+
+		/**
+		 * Adds the current chunk to the page, if it contains any rows.
+		 */
+		void flush()
+		{
+			if ((chunk != null) && (chunk.rowCount > 0))
+			{
+				chunks.add(chunk);
+			}
+			chunk = null;
+		}
+
+		private boolean sameFieldNames(String[] fieldNames, int fieldCount)
+		{
+			if ((lastFieldNames == null)
+					|| (lastFieldNames.length != fieldCount))
+				return false;
+
+			for (int i = 0; i < fieldCount; i++)
+			{
+				if (!lastFieldNames[i].equals(fieldNames[i]))
+					return false;
+			}
+			return true;
+		}
+	}
+}
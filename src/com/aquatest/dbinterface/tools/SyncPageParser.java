@@ -0,0 +1,293 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+import com.aquatest.webservice.JsonStreamReader;
+
+/**
+ * Parses one page of added, updated or deleted rows returned by the sync web
+ * services. </p>
+ *
+ * The page is read straight off the response stream, and each row is handed
+ * to a {@link RowHandler} as soon as it has been parsed, so memory use does
+ * not depend on the size of the page. The paging fields of the response may
+ * appear before or after the data. </p>
+ *
+ * Rows may be sent in either of two formats. In the original format each row
+ * is an object of field names and values. In the columnar format the page
+ * has a <code>columns</code> array of field names, which must come before
+ * the data, and each row is an array of values in the same order.
+ */
+public class SyncPageParser
+{
+	/**
+	 * Receives the rows of a page as they are parsed.
+	 */
+	public interface RowHandler
+	{
+		/**
+		 * Called for each row in the page. The arrays are reused for the next
+		 * row, so they must not be kept after this method returns.
+		 *
+		 * @param fieldNames
+		 *            names of the fields in this row; for columnar pages this
+		 *            is the same array, unchanged, for every row of the page
+		 * @param values
+		 *            values of the fields, in the same order as the names; a
+		 *            JSON null is passed as <code>null</code>
+		 * @param fieldCount
+		 *            number of entries used in the two arrays
+		 * @return <code>true</code> to carry on parsing, <code>false</code> to
+		 *         cancel
+		 * @throws JSONException
+		 *             if the row does not contain the expected data
+		 */
+		boolean handleRow(String[] fieldNames, String[] values, int fieldCount)
+				throws JSONException;
+	}
+
+	/**
+	 * Paging information read from a page.
+	 */
+	public static class Page
+	{
+		public String status = "";
+		public int count = 0;
+		public int totalCount = 0;
+		public int offset = 0;
+		/** true if the page contained a data array */
+		public boolean hasData = false;
+		/** number of rows passed to the row handler */
+		public int rowCount = 0;
+		/** true if the page had a columns header */
+		public boolean columnar = false;
+	}
+
+	private String[] fieldNames = new String[16];
+	private String[] values = new String[16];
+
+	/**
+	 * Parses a page of rows.
+	 *
+	 * @param reader
+	 *            JSON response from the web service
+	 * @param handler
+	 *            handler to receive each row
+	 * @return paging information for the page, or <code>null</code> if the
+	 *         handler cancelled parsing
+	 * @throws IOException
+	 * @throws JSONException
+	 *             if the response is not valid JSON
+	 */
+	public Page parse(Reader reader, RowHandler handler) throws IOException,
+			JSONException
+	{
+		JsonStreamReader json = new JsonStreamReader(reader);
+		Page page = new Page();
+		String[] columns = null;
+
+		json.beginObject();
+		while (json.hasNext())
+		{
+			String name = json.nextName();
+
+			if (DatabaseUpdater.STATUS_KEY.equals(name))
+			{
+				String status = json.nextString();
+				page.status = (status == null) ? "" : status;
+			}
+			else if (DatabaseUpdater.COUNT_KEY.equals(name))
+			{
+				page.count = json.nextInt();
+			}
+			else if (DatabaseUpdater.TOTAL_COUNT_KEY.equals(name))
+			{
+				page.totalCount = json.nextInt();
+			}
+			else if (DatabaseUpdater.OFFSET_KEY.equals(name))
+			{
+				page.offset = json.nextInt();
+			}
+			else if (DatabaseUpdater.COLUMNS_KEY.equals(name)
+					&& (json.peek() == JsonStreamReader.BEGIN_ARRAY))
+			{
+				columns = parseColumns(json);
+				page.columnar = true;
+			}
+			else if (DatabaseUpdater.DATA_KEY.equals(name)
+					&& (json.peek() == JsonStreamReader.BEGIN_ARRAY))
+			{
+				page.hasData = true;
+
+				json.beginArray();
+				while (json.hasNext())
+				{
+					boolean carryOn;
+					if (json.peek() == JsonStreamReader.BEGIN_ARRAY)
+					{
+						carryOn = parseColumnarRow(json, columns, handler);
+					}
+					else
+					{
+						carryOn = parseRow(json, handler);
+					}
+
+					if (!carryOn) { return null; }
+					page.rowCount++;
+				} // while
+				json.endArray();
+			}
+			else
+			{
+				json.skipValue();
+			} // else
+		} // while
+		json.endObject();
+
+		return page;
+	}
+
+	/**
+	 * Parses a single row object and passes it to the handler.
+	 */
+	private boolean parseRow(JsonStreamReader json, RowHandler handler)
+			throws IOException, JSONException
+	{
+		int fieldCount = 0;
+
+		json.beginObject();
+		while (json.hasNext())
+		{
+			if (fieldCount == fieldNames.length)
+			{
+				growArrays();
+			}
+
+			fieldNames[fieldCount] = json.nextName();
+
+			int token = json.peek();
+			if ((token == JsonStreamReader.BEGIN_OBJECT)
+					|| (token == JsonStreamReader.BEGIN_ARRAY))
+			{
+				// nested values are not used by any of the tables
+				json.skipValue();
+				values[fieldCount] = null;
+			}
+			else
+			{
+				values[fieldCount] = json.nextString();
+			}
+
+			fieldCount++;
+		} // while
+		json.endObject();
+
+		return handler.handleRow(fieldNames, values, fieldCount);
+	}
+
+	/**
+	 * Parses the array of column names of a columnar page.
+	 */
+	private String[] parseColumns(JsonStreamReader json) throws IOException,
+			JSONException
+	{
+		int columnCount = 0;
+
+		json.beginArray();
+		while (json.hasNext())
+		{
+			if (columnCount == fieldNames.length)
+			{
+				growArrays();
+			}
+
+			String column = json.nextString();
+			if (column == null) { throw new JSONException("Null column name"); }
+
+			fieldNames[columnCount++] = column;
+		} // while
+		json.endArray();
+
+		// the handler may compare the names of rows by reference, so each
+		// page gets its own array that is never changed
+		String[] columns = new String[columnCount];
+		System.arraycopy(fieldNames, 0, columns, 0, columnCount);
+		return columns;
+	}
+
+	/**
+	 * Parses a single row array of a columnar page and passes it to the
+	 * handler.
+	 */
+	private boolean parseColumnarRow(JsonStreamReader json, String[] columns,
+			RowHandler handler) throws IOException, JSONException
+	{
+		if (columns == null) { throw new JSONException(
+				"Row array found before the columns of the page"); }
+
+		int columnCount = columns.length;
+		int valueCount = 0;
+
+		json.beginArray();
+		while (json.hasNext())
+		{
+			if (valueCount == columnCount) { throw new JSONException(
+					"Row has more values than the " + columnCount + " columns"); }
+
+			int token = json.peek();
+			if ((token == JsonStreamReader.BEGIN_OBJECT)
+					|| (token == JsonStreamReader.BEGIN_ARRAY))
+			{
+				// nested values are not used by any of the tables
+				json.skipValue();
+				values[valueCount] = null;
+			}
+			else
+			{
+				values[valueCount] = json.nextString();
+			}
+
+			valueCount++;
+		} // while
+		json.endArray();
+
+		if (valueCount != columnCount) { throw new JSONException("Row has "
+				+ valueCount + " values but there are " + columnCount
+				+ " columns"); }
+
+		return handler.handleRow(columns, values, columnCount);
+	}
+
+	private void growArrays()
+	{
+		int length = fieldNames.length;
+
+		String[] newNames = new String[length * 2];
+		System.arraycopy(fieldNames, 0, newNames, 0, length);
+		fieldNames = newNames;
+
+		String[] newValues = new String[length * 2];
+		System.arraycopy(values, 0, newValues, 0, length);
+		values = newValues;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.aquatest.webservice.AquaTestWebService;
+
+/**
+ * Downloads several tables at once during a sync. </p>
+ *
+ * One {@link SyncFetcher} is created for each table, and the fetchers are run
+ * on a fixed size thread pool in table order. The writer thread still applies
+ * the tables one at a time, in order, by taking rows from each fetcher in
+ * turn. </p>
+ *
+ * Fetchers never wait for the writer: pages it has not reached yet are kept
+ * in memory up to a share of the heap, and spooled to files after that. A
+ * fetcher therefore finishes as soon as its table has been downloaded, and
+ * the time a sync takes is close to that of the slowest table rather than the
+ * sum of all of them.
+ */
+public class SyncScheduler
+{
+	/** number of tables downloaded at the same time, unless set otherwise */
+	public static final int DEFAULT_PARALLELISM = 3;
+	/** share of the heap that pages waiting for the writer may take up */
+	private static final int BUFFER_HEAP_DIVISOR = 8;
+
+	private HashMap<String, SyncFetcher> fetchers = new HashMap<String, SyncFetcher>();
+	/** tables in the order the fetchers must be started in */
+	private Vector<String> orderedTables;
+	private ExecutorService executor;
+
+	/**
+	 * Constructor
+	 *
+	 * @param tables
+	 *            tables to download, in the order they will be written
+	 * @param lastUpdateTime
+	 *            time of last update
+	 * @param parallelism
+	 *            maximum number of tables to download at the same time, which
+	 *            is limited to the number of connections the web service
+	 *            client may open
+	 * @param batchSizer
+	 *            chooses how many rows to request in each page
+	 * @param syncState
+	 *            progress of an earlier attempt at this update
+	 */
+	public SyncScheduler(Vector<String> tables, long lastUpdateTime,
+			int parallelism, AdaptiveBatchSizer batchSizer, SyncState syncState)
+	{
+		// each running fetcher has a request open most of the time, so more
+		// fetchers than connections would only wait for each other
+		executor = Executors.newFixedThreadPool(Math.max(1, Math.min(
+				parallelism, AquaTestWebService.MAX_CONNECTIONS_PER_ROUTE)));
+
+		// pages left behind by an update that was stopped are of no use
+		PageSpool.clear();
+		SyncFetcher.BufferBudget budget = new SyncFetcher.BufferBudget(Runtime
+				.getRuntime().maxMemory()
+				/ BUFFER_HEAP_DIVISOR);
+
+		// do this to optimise the Android code
+		int tableCount = tables.size();
+		for (int i = 0; i < tableCount; i++)
+		{
+			String table = tables.get(i);
+
+			if (DatabaseUpdater.isTableSynchronised(table))
+			{
+				fetchers.put(table, new SyncFetcher(table, lastUpdateTime,
+						batchSizer, syncState, budget));
+			} // if
+		} // for
+
+		orderedTables = tables;
+	}
+
+	/**
+	 * Starts downloading the tables.
+	 */
+	public void start()
+	{
+		// do this to optimise the Android code
+		int tableCount = orderedTables.size();
+		for (int i = 0; i < tableCount; i++)
+		{
+			SyncFetcher fetcher = fetchers.get(orderedTables.get(i));
+
+			if (fetcher != null)
+			{
+				executor.execute(fetcher);
+			} // if
+		} // for
+	}
+
+	/**
+	 * Returns the fetcher that is downloading a table.
+	 *
+	 * @param table
+	 *            name of the table
+	 * @return the fetcher, or <code>null</code> if the table is not
+	 *         synchronised
+	 */
+	public SyncFetcher getFetcher(String table)
+	{
+		return fetchers.get(table);
+	}
+
+	/**
+	 * Stops all downloads and discards the pages that have not been written.
+	 * This is safe to call after all the tables have been written, and must be
+	 * called on the writer thread.
+	 */
+	public void cancel()
+	{
+		for (SyncFetcher fetcher : fetchers.values())
+		{
+			fetcher.cancel();
+		} // for
+
+		// interrupt fetchers that are waiting for a connection
+		executor.shutdownNow();
+	}
+}
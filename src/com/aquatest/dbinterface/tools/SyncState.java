@@ -0,0 +1,257 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.dbinterface.tools;
+
+import java.util.HashMap;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Records how far a sync has got, so that an interrupted sync can carry on
+ * where it stopped. </p>
+ *
+ * The state is kept in the <code>syncstate</code> table of the staging
+ * database that the sync is written to. There is one row for each table and
+ * change type, holding the offset of the next page to fetch, plus one row
+ * (with change type {@link #RUN}) for the sync as a whole. Every row also
+ * holds the time of the last update that the sync is fetching changes since,
+ * and the time that this sync started. </p>
+ *
+ * Checkpoints must be written in the same transaction as the rows they
+ * describe.
+ */
+public class SyncState
+{
+	public static final String TABLE = "syncstate";
+
+	/** change type of the row that describes the whole sync */
+	public static final int RUN = -1;
+
+	/**
+	 * Progress through one table and change type.
+	 */
+	public static class Checkpoint
+	{
+		/** offset of the next page to fetch */
+		public int nextOffset;
+		/** total number of rows reported by the server */
+		public int totalCount;
+		/** true once all pages have been applied */
+		public boolean complete;
+	}
+
+	private SQLiteDatabase database;
+	private HashMap<String, Checkpoint> checkpoints = new HashMap<String, Checkpoint>();
+
+	private long lastUpdateTime = -1;
+	private long updateTime = -1;
+	private boolean runComplete = false;
+
+	private SQLiteStatement saveStatement;
+
+	/**
+	 * Reads the sync state from a staging database, creating the table if
+	 * necessary.
+	 *
+	 * @param _database
+	 *            staging database
+	 */
+	public SyncState(SQLiteDatabase _database)
+	{
+		database = _database;
+
+		database.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE
+				+ " (tablename TEXT NOT NULL, changetype INTEGER NOT NULL,"
+				+ " nextoffset INTEGER NOT NULL, totalcount INTEGER NOT NULL,"
+				+ " complete INTEGER NOT NULL, lastupdatetime INTEGER NOT NULL,"
+				+ " updatetime INTEGER NOT NULL,"
+				+ " PRIMARY KEY (tablename, changetype))");
+
+		Cursor c = database.rawQuery("SELECT tablename, changetype, nextoffset,"
+				+ " totalcount, complete, lastupdatetime, updatetime FROM "
+				+ TABLE, null);
+		try
+		{
+			while (c.moveToNext())
+			{
+				int type = c.getInt(1);
+
+				if (type == RUN)
+				{
+					runComplete = (c.getInt(4) != 0);
+					lastUpdateTime = c.getLong(5);
+					updateTime = c.getLong(6);
+				}
+				else
+				{
+					Checkpoint checkpoint = new Checkpoint();
+					checkpoint.nextOffset = c.getInt(2);
+					checkpoint.totalCount = c.getInt(3);
+					checkpoint.complete = (c.getInt(4) != 0);
+					checkpoints.put(getKey(c.getString(0), type), checkpoint);
+				} // else
+			} // while
+		}
+		finally
+		{
+			c.close();
+		}
+	}
+
+	/**
+	 * Determines whether the staging database can be used for a sync of
+	 * changes since the given time.
+	 *
+	 * @param _lastUpdateTime
+	 *            time of last update
+	 * @return <code>true</code> if the staging database is fresh, or holds an
+	 *         unfinished sync of changes since the same time
+	 */
+	public boolean canResume(long _lastUpdateTime)
+	{
+		if (updateTime == -1)
+			return true;
+
+		return !runComplete && (lastUpdateTime == _lastUpdateTime);
+	}
+
+	/**
+	 * @return <code>true</code> if a sync was started in this staging database
+	 *         and some progress was saved
+	 */
+	public boolean isResuming()
+	{
+		return !checkpoints.isEmpty();
+	}
+
+	/**
+	 * Starts a sync, or carries on with the one already recorded.
+	 *
+	 * @param _lastUpdateTime
+	 *            time of last update
+	 * @param _updateTime
+	 *            time that this sync started
+	 * @return the time that the sync started, which is the time of an earlier
+	 *         attempt if it is being resumed
+	 */
+	public long begin(long _lastUpdateTime, long _updateTime)
+	{
+		if (updateTime == -1)
+		{
+			lastUpdateTime = _lastUpdateTime;
+			updateTime = _updateTime;
+			save("", RUN, 0, 0, false);
+		}
+		return updateTime;
+	}
+
+	/**
+	 * Returns the progress through a table and change type.
+	 *
+	 * @return checkpoint, or <code>null</code> if nothing has been applied
+	 */
+	public Checkpoint getCheckpoint(String table, int type)
+	{
+		return checkpoints.get(getKey(table, type));
+	}
+
+	/**
+	 * Records that a page has been applied.
+	 *
+	 * @param nextOffset
+	 *            offset of the next page to fetch
+	 * @param totalCount
+	 *            total number of rows reported by the server
+	 */
+	public void pageApplied(String table, int type, int nextOffset,
+			int totalCount)
+	{
+		save(table, type, nextOffset, totalCount, false);
+	}
+
+	/**
+	 * Records that all pages of a table and change type have been applied.
+	 */
+	public void typeApplied(String table, int type)
+	{
+		save(table, type, 0, 0, true);
+	}
+
+	/**
+	 * Records that the whole sync has been applied.
+	 */
+	public void runApplied()
+	{
+		save("", RUN, 0, 0, true);
+	}
+
+	/**
+	 * Returns the start time of a finished sync in a staging database.
+	 *
+	 * @param database
+	 *            staging database
+	 * @return start time of the sync, or -1 if the sync did not finish
+	 */
+	// method declared static for Android optimisation
+	public static long getCompletedUpdateTime(SQLiteDatabase database)
+	{
+		SyncState state = new SyncState(database);
+		return state.runComplete ? state.updateTime : -1;
+	}
+
+	private void save(String table, int type, int nextOffset, int totalCount,
+			boolean complete)
+	{
+		if (saveStatement == null)
+		{
+			saveStatement = database.compileStatement("INSERT OR REPLACE INTO "
+					+ TABLE + " (tablename, changetype, nextoffset, totalcount,"
+					+ " complete, lastupdatetime, updatetime)"
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?)");
+		}
+
+		saveStatement.bindString(1, table);
+		saveStatement.bindLong(2, type);
+		saveStatement.bindLong(3, nextOffset);
+		saveStatement.bindLong(4, totalCount);
+		saveStatement.bindLong(5, complete ? 1 : 0);
+		saveStatement.bindLong(6, lastUpdateTime);
+		saveStatement.bindLong(7, updateTime);
+		saveStatement.execute();
+	}
+
+	/**
+	 * Releases resources.
+	 */
+	public void close()
+	{
+		if (saveStatement != null)
+		{
+			saveStatement.close();
+			saveStatement = null;
+		}
+	}
+
+	// method declared static for Android optimisation
+	private static String getKey(String table, int type)
+	{
+		return table + ":" + type;
+	}
+}
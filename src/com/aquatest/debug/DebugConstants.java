@@ -51,4 +51,31 @@ public class DebugConstants {
 	 */
 	public static final boolean MOCK_WEB_SERVICE_LONG_RESPONSES = true;
 
+	/** 
+	 * If <code>true</code>, then the timings of every web service request are logged,
+	 * showing how long was spent opening connections. </p>
+	 * 
+	 * The java compiler optimises out any references to this boolean since it is declared
+	 * as <code>final</code>.
+	 */
+	public static final boolean LOG_REQUEST_METRICS = false;
+
+	/** 
+	 * If <code>true</code>, then each sync logs the bytes downloaded for every table, the
+	 * rate at which each table and change type was applied, and a summary of the requests. </p>
+	 * 
+	 * The java compiler optimises out any references to this boolean since it is declared
+	 * as <code>final</code>.
+	 */
+	public static final boolean LOG_SYNC_METRICS = false;
+
+	/** 
+	 * If <code>true</code>, then the query plans of the queries that read sample data are
+	 * logged when the database is opened, to check that they use the indexes. </p>
+	 * 
+	 * The java compiler optimises out any references to this boolean since it is declared
+	 * as <code>final</code>.
+	 */
+	public static final boolean LOG_QUERY_PLANS = false;
+
 }
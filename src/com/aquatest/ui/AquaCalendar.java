@@ -51,6 +51,8 @@ public class AquaCalendar extends Activity implements CalendarViewListener {
         super.onCreate(savedInstanceState);
         
         application = (AquaTestApp) this.getApplication();
+        if (application.finishIfMigrating(this))
+        	return;
         isMunicipality = (application.getCurrentTown() == null);
         
         if (isMunicipality) {
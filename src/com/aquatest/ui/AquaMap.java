@@ -18,6 +18,7 @@
 package com.aquatest.ui;
 
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 
@@ -33,6 +34,8 @@ import com.aquatest.dbinterface.objects.Municipality;
 import com.aquatest.dbinterface.objects.SamplingPoint;
 import com.aquatest.dbinterface.objects.Town;
 import com.aquatest.dbinterface.tools.DataCache;
+import com.aquatest.dbinterface.tools.DataCacheLoader;
+import com.aquatest.dbinterface.tools.DataCacheRegistry;
 import com.aquatest.dbinterface.tools.DataIndicator;
 import com.aquatest.dbinterface.tools.DataUtils;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
@@ -106,6 +109,12 @@ public class AquaMap extends MapActivity implements MapListener
 	/** contains just the sampling points for the selected town */
 	private DataCache dataForTown = null;
 
+	/** loads of the data, until they have been shown */
+	private DataCacheLoader.Request wholeMapRequest = null;
+	private DataCacheLoader.Request townRequest = null;
+	/** whether to centre the map on the data once it has loaded */
+	private boolean centreOnData;
+
 	/** Called when the activity is first created. */
 	@Override
 	public void onCreate(Bundle savedInstanceState)
@@ -113,6 +122,8 @@ public class AquaMap extends MapActivity implements MapListener
 		super.onCreate(savedInstanceState);
 
 		application = (AquaTestApp) this.getApplication();
+		if (application.finishIfMigrating(this))
+			return;
 
 
 		/* INITIALISE THE MAP SCREEN */
@@ -191,29 +202,56 @@ public class AquaMap extends MapActivity implements MapListener
 		municipality = application.getCurrentMunicipality();
 		town = application.getCurrentTown();
 
-		// fetch the data before calculating map centre points
-		dataForWholeMap = new DataCache(application.dbAdapter, municipality.id,
-			DatabaseAdaptor.MUNICIPALITY, startDate, endDate);
+		// the sampling points are added to the map, and the map centred on
+		// them, once their data has loaded in the background
+		centreOnData = (savedInstanceState == null);
+
+		wholeMapRequest = application.dataLoader.load(
+			DatabaseAdaptor.MUNICIPALITY, municipality.id,
+			DataCacheRegistry.ALL_PARAMETERS, startDate, endDate,
+			new DataCacheLoader.Callback()
+			{
+				public void onLoaded(DataCache dataCache)
+				{
+					wholeMapRequest = null;
+					showDataForWholeMap(dataCache);
+				}
+
+				public void onFailed(RuntimeException e)
+				{
+					wholeMapRequest = null;
+					Log.e("AquaMap", "Unable to load data", e);
+				}
+			});
 
 		if (town != null)
 		{
-			dataForTown = new DataCache(application.dbAdapter, town.id,
-				DatabaseAdaptor.TOWN, startDate, endDate);
-		}
+			townRequest = application.dataLoader.load(DatabaseAdaptor.TOWN,
+				town.id, DataCacheRegistry.ALL_PARAMETERS, startDate, endDate,
+				new DataCacheLoader.Callback()
+				{
+					public void onLoaded(DataCache dataCache)
+					{
+						townRequest = null;
+						dataForTown = dataCache;
 
-		// add sampling points to the map
-		// TODO data has not been loaded into samples yet, so points are not
-		// coloured correctly
-		addSamplingPointsOverlay(dataForWholeMap);
+						if (centreOnData)
+						{
+							controller.setCenter(calculateCentreOfMap(dataForTown));
+						}
+					}
 
-		// calculate map centre points
-		GeoPoint centrePointOfDataForWholeMap = calculateCentreOfMap(dataForWholeMap);
-		GeoPoint centrePointOfDataForTown = null;
-		if (dataForTown != null)
-		{
-			centrePointOfDataForTown = calculateCentreOfMap(dataForTown);
+					public void onFailed(RuntimeException e)
+					{
+						townRequest = null;
+						Log.e("AquaMap", "Unable to load data", e);
+					}
+				});
 		}
 
+		// until the data has loaded, the map is centred as if there is none
+		GeoPoint centrePointOfNoData = calculateCentreOfMap(null);
+
 		// TODO this centre point is never used - calculation can be removed
 		GeoPoint centrePointOfAllTowns = addTownsOverlayAndCentreMap(startDate,
 			endDate);
@@ -316,7 +354,7 @@ public class AquaMap extends MapActivity implements MapListener
 				controller.setZoom(ZOOM_DEFAULT_MUNICIPALITY);
 
 				// centre map on town
-				controller.setCenter(centrePointOfDataForWholeMap);
+				controller.setCenter(centrePointOfNoData);
 
 			}
 			else
@@ -335,7 +373,7 @@ public class AquaMap extends MapActivity implements MapListener
 				controller.setZoom(ZOOM_DEFAULT_TOWN);
 
 				// centre map on town centre point
-				controller.setCenter(centrePointOfDataForTown);
+				controller.setCenter(centrePointOfNoData);
 			}
 		}
 
@@ -369,8 +407,20 @@ public class AquaMap extends MapActivity implements MapListener
 	{
 		super.onStart();
 
-		if ((dataForWholeMap == null)
-			|| (!dataForWholeMap.checkForCoordinates()))
+		// the data is checked when it first loads
+		if (dataForWholeMap != null)
+		{
+			checkForCoordinates();
+		}
+	}
+
+
+	/**
+	 * Shows a warning if some sampling points do not have coordinates.
+	 */
+	private void checkForCoordinates()
+	{
+		if (!dataForWholeMap.checkForCoordinates())
 		{
 			Toast
 				.makeText(
@@ -381,6 +431,33 @@ public class AquaMap extends MapActivity implements MapListener
 	}
 
 
+	/**
+	 * Adds the sampling points to the map once their data has loaded, and
+	 * centres the map on them if a municipality is being viewed.
+	 * 
+	 * @param dataCache
+	 *        data of all the sampling points on the map
+	 */
+	private void showDataForWholeMap(DataCache dataCache)
+	{
+		dataForWholeMap = dataCache;
+
+		addSamplingPointsOverlay(dataForWholeMap);
+		sItemizedOverlayFailed.Populate();
+		sItemizedOverlayWarning.Populate();
+		sItemizedOverlayPassed.Populate();
+		sItemizedOverlayNone.Populate();
+
+		if (centreOnData && (town == null))
+		{
+			controller.setCenter(calculateCentreOfMap(dataForWholeMap));
+		}
+
+		checkForCoordinates();
+		mapView.invalidate();
+	}
+
+
 	/**
 	 * If viewing towns, then this method is called to overlay towns on the map
 	 * and calculates where the map should be centred based on the data
@@ -412,6 +489,10 @@ public class AquaMap extends MapActivity implements MapListener
 		// use the data to refine the map centre point calculations
 		if ((municipality != null) && (municipality.towns != null))
 		{
+			// find the water quality of all the towns at once
+			HashMap<Integer, DataIndicator> townQuality = application.dbAdapter
+				.getTownsOverallQuality(municipality.id, startDate, endDate);
+
 			// loop over all the towns
 			Town town = null;
 			Iterator<Integer> i = municipality.towns.keySet().iterator();
@@ -461,10 +542,9 @@ public class AquaMap extends MapActivity implements MapListener
 						}
 					}
 
-					// find the water quality for this town
-					DataIndicator overallQualityIndicator = application.dbAdapter
-						.getAreaOverallQuality(town.id, DatabaseAdaptor.TOWN,
-							startDate, endDate);
+					// get the water quality for this town
+					DataIndicator overallQualityIndicator = townQuality
+						.get(town.id);
 
 					// use the colour to determine if point has any data
 					String colour = overallQualityIndicator.colour;
@@ -518,7 +598,6 @@ public class AquaMap extends MapActivity implements MapListener
 	 * If viewing sampling points, then this method is called to overlay
 	 * sampling points on the map.
 	 */
-	// TODO points are not coloured as data not loaded into sample by now
 	private void addSamplingPointsOverlay(DataCache samplingPointData)
 	{
 		// add sampling points to the map overlay
@@ -538,7 +617,8 @@ public class AquaMap extends MapActivity implements MapListener
 					|| (samplingPoint.latitude != 0))
 				{
 					// use the colour to determine if point has any data
-					String colour = samplingPoint.getColour();
+					String colour = TestIndicators.getColour(samplingPointData
+						.getSamplingPointSeverity(samplingPoint.id));
 					boolean hasData = !TestIndicators.NONE.equals(colour);
 
 					// convert coordinates into a GeoPoint to plot on map
@@ -844,7 +924,23 @@ public class AquaMap extends MapActivity implements MapListener
 	@Override
 	public void onDestroy()
 	{
+		// stop loading data that will not be shown
+		if (wholeMapRequest != null)
+		{
+			wholeMapRequest.cancel();
+		}
+		if (townRequest != null)
+		{
+			townRequest.cancel();
+		}
+
 		super.onDestroy();
+
+		// the screen is finished before it is set up while the database is
+		// being migrated
+		if (drawableSamplePointFailed == null)
+			return;
+
 		// Log.v("Steve", "****CLEARING MEMORY*****");
 		drawableSamplePointFailed.setCallback(null);
 		drawableSamplePointWarning.setCallback(null);
@@ -25,6 +25,7 @@ import java.util.Vector;
 
 import android.app.Activity;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
@@ -57,6 +58,11 @@ public class AquaTest extends Activity implements OnItemClickListener,
 	public static final int DIALOG_DEFAULT_MUNICIPALITY = 0;
 	public static final int DIALOG_UPDATE_CHECK = 1;
 	public static final int DIALOG_UPDATE = 2;
+	public static final int DIALOG_MIGRATE = 3;
+	public static final int DIALOG_CLEAR = 4;
+
+	/** the update dialogs are waiting for the database to be migrated */
+	private boolean updateDialogsPending = false;
 
 	public static AquaTest ACTIVE_INSTANCE;
 
@@ -138,6 +144,13 @@ public class AquaTest extends Activity implements OnItemClickListener,
 	 */
 	private void showUpdateDialogs()
 	{
+		// an update cannot start until the database has been migrated
+		if (application.isMigrating())
+		{
+			updateDialogsPending = true;
+			return;
+		}
+
 		// check for updates to the database
 		if (MUST_SHOW_UPDATE_DIALOGS)
 		{
@@ -160,6 +173,37 @@ public class AquaTest extends Activity implements OnItemClickListener,
 	}
 
 
+	/**
+	 * Shows that the database is being migrated, which may have finished
+	 * while this activity was not active.
+	 */
+	@Override
+	protected void onResume()
+	{
+		super.onResume();
+
+		if (application.isMigrating())
+			showDialog(DIALOG_MIGRATE);
+		else
+			removeDialog(DIALOG_MIGRATE);
+	}
+
+
+	/**
+	 * Called when the database has been migrated, to let the user carry on.
+	 */
+	public void migrationFinished()
+	{
+		removeDialog(DIALOG_MIGRATE);
+
+		if (updateDialogsPending)
+		{
+			updateDialogsPending = false;
+			showUpdateDialogs();
+		}
+	}
+
+
 	/**
 	 * Reset the activity view according to any updated data.
 	 */
@@ -264,17 +308,35 @@ public class AquaTest extends Activity implements OnItemClickListener,
 			case R.id.menu_clear_database:
 				// Log.v("steve","menu_clear_data");
 
-				application.dbAdapter.clearDatabase();
-				application.dbAdapter.reset();
-				resetView();
-
-				Toast.makeText(this.getApplicationContext(),
-						"Database Cleared!", Toast.LENGTH_LONG).show();
-
-				SharedPreferences settingsPref = application
-						.getSharedPreferences(AquaTestApp.PREF, 0);
-				settingsPref.edit()
-						.putLong(AquaTestApp.PREF_LAST_UPDATE_TIME, 0).commit();
+				// the database is cleared off the main thread, behind a dialog
+				// that keeps the user from screens that read it
+				showDialog(DIALOG_CLEAR);
+				application.changeData(new Runnable()
+				{
+					public void run()
+					{
+						application.dbAdapter.clearDatabase();
+						application.dataCaches.clear();
+					}
+				}, new Runnable()
+				{
+					public void run()
+					{
+						SharedPreferences settingsPref = application
+								.getSharedPreferences(AquaTestApp.PREF, 0);
+						settingsPref.edit().putLong(
+								AquaTestApp.PREF_LAST_UPDATE_TIME, 0).commit();
+
+						Toast.makeText(application, "Database Cleared!",
+								Toast.LENGTH_LONG).show();
+
+						if (ACTIVE_INSTANCE != null)
+						{
+							ACTIVE_INSTANCE.removeDialog(DIALOG_CLEAR);
+							ACTIVE_INSTANCE.resetView();
+						}
+					}
+				});
 				break;
 		}
 		return true;
@@ -342,6 +404,21 @@ public class AquaTest extends Activity implements OnItemClickListener,
 				application.updateThread.setHandler(dud.messageHandler);
 				return dud;
 
+			case DIALOG_MIGRATE:
+				ProgressDialog pd = new ProgressDialog(this);
+				pd.setTitle("Preparing Data");
+				pd.setMessage("Preparing the data for this version of the app. This is only done once, and may take a few minutes...");
+				pd.setIndeterminate(true);
+				pd.setCancelable(false);
+				return pd;
+
+			case DIALOG_CLEAR:
+				ProgressDialog cd = new ProgressDialog(this);
+				cd.setMessage("Clearing the database...");
+				cd.setIndeterminate(true);
+				cd.setCancelable(false);
+				return cd;
+
 			default:
 				return super.onCreateDialog(id);
 		}
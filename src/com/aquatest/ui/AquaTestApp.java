@@ -19,15 +19,22 @@ package com.aquatest.ui;
 
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.concurrent.Executor;
 
+import android.app.Activity;
 import android.app.Application;
+import android.content.Intent;
 import android.content.SharedPreferences;
+import android.os.Handler;
 import android.util.Log;
 
 import com.aquatest.configuration.ConfigFile;
 import com.aquatest.dbinterface.objects.Municipality;
 import com.aquatest.dbinterface.objects.Parameter;
 import com.aquatest.dbinterface.objects.Town;
+import com.aquatest.dbinterface.tools.DataCache;
+import com.aquatest.dbinterface.tools.DataCacheLoader;
+import com.aquatest.dbinterface.tools.DataCacheRegistry;
 import com.aquatest.dbinterface.tools.DatabaseAdaptor;
 import com.aquatest.dbinterface.tools.DatabaseUpdater;
 import com.aquatest.webservice.AquaTestWebService;
@@ -35,7 +42,8 @@ import com.aquatest.webservice.AquaTestWebService;
 /**
  * Application class
  */
-public class AquaTestApp extends Application
+public class AquaTestApp extends Application implements
+		DataCacheLoader.Source
 {
 	public final static String PREF = "aquatest_pref";
 	public final static String PREF_DEFAULT_MUNICIPALITY = "aquatest_pref_default_municipality";
@@ -44,12 +52,20 @@ public class AquaTestApp extends Application
 
 
 	public DatabaseAdaptor dbAdapter;
+	/** data of the areas viewed recently, shared by all the screens */
+	public DataCacheRegistry dataCaches;
+	/** loads data for the screens in the background */
+	public DataCacheLoader dataLoader;
 	private Municipality currentMunicipality;
 	private Town currentTown;
 	private Parameter currentParameter;
 	private Calendar dayDate;
 	public boolean loadSplash = true;
 	public DatabaseUpdater updateThread;
+	/** brings the database up to date after the app is upgraded, or null */
+	private Thread migrationThread;
+	/** runs code on the main thread */
+	private Handler mainHandler;
 
 	/**
 	 * Global settings as defined in the configuration file
@@ -71,15 +87,211 @@ public class AquaTestApp extends Application
 		AquaTestWebService.config = this.config;
 		
 		dbAdapter = new DatabaseAdaptor(this);
+
+		// keep recently viewed data in up to an eighth of the heap
+		dataCaches = new DataCacheRegistry(Runtime.getRuntime().maxMemory() / 8);
+
+		// loaded data is handed to the screens on the main thread
+		mainHandler = new Handler();
+		dataLoader = new DataCacheLoader(this, new Executor()
+		{
+			public void execute(Runnable command)
+			{
+				mainHandler.post(command);
+			}
+		}, DataCacheLoader.DEFAULT_THREADS);
+
+		// an update may have finished after the app was last closed, before
+		// its data was made visible
+		long updateTime = dbAdapter.replaceWithStagingDatabase();
+		if (updateTime != -1)
+		{
+			getSharedPreferences(PREF, 0).edit()
+					.putLong(PREF_LAST_UPDATE_TIME, updateTime).commit();
+			dbAdapter.reset();
+		}
+
+		// bringing the schema up to date can take minutes on a large
+		// database, so it is not done on the main thread
+		if (dbAdapter.needsMigration())
+		{
+			startMigration(mainHandler);
+		}
+
 		updateThread = new DatabaseUpdater(getLastUpdate(), dbAdapter);
 	}
 
 
+	/**
+	 * Migrates the database on a background thread, and tells the home
+	 * screen when it has finished.
+	 */
+	private void startMigration(final Handler mainHandler)
+	{
+		migrationThread = new Thread("Database migration")
+		{
+			public void run()
+			{
+				try
+				{
+					dbAdapter.migrate();
+				}
+				catch (final RuntimeException e)
+				{
+					// the data cannot be viewed without the new schema
+					mainHandler.post(new Runnable()
+					{
+						public void run()
+						{
+							throw e;
+						}
+					});
+					return;
+				}
+
+				mainHandler.post(new Runnable()
+				{
+					public void run()
+					{
+						migrationThread = null;
+						if (AquaTest.ACTIVE_INSTANCE != null)
+							AquaTest.ACTIVE_INSTANCE.migrationFinished();
+					}
+				});
+			}
+		};
+		migrationThread.start();
+	}
+
+
+	/**
+	 * Changes the data on a background thread, then reloads the base data
+	 * and calls back on the main thread. The change waits for the loads that
+	 * are reading the old data to finish, which can take seconds, and no more
+	 * loads start until it has finished. The caller must keep the user from
+	 * screens that read the database until it is called back.
+	 * 
+	 * @param change
+	 *            replaces or clears the database, and updates the data kept
+	 *            in {@link #dataCaches}
+	 * @param finished
+	 *            run on the main thread once the data has been changed
+	 */
+	public void changeData(final Runnable change, final Runnable finished)
+	{
+		new Thread("Data change")
+		{
+			public void run()
+			{
+				try
+				{
+					dbAdapter.dataLock.writeLock().lock();
+					try
+					{
+						change.run();
+						dbAdapter.reset();
+					}
+					finally
+					{
+						dbAdapter.dataLock.writeLock().unlock();
+					}
+				}
+				catch (final RuntimeException e)
+				{
+					// the old data may already be gone, so the app cannot
+					// carry on
+					mainHandler.post(new Runnable()
+					{
+						public void run()
+						{
+							throw e;
+						}
+					});
+					return;
+				}
+
+				mainHandler.post(finished);
+			}
+		}.start();
+	}
+
+
+	/**
+	 * Check if the database is being migrated. Its data must not be read or
+	 * updated until it has finished. Must be called on the main thread.
+	 * 
+	 * @return true if the migration has not finished
+	 */
+	public boolean isMigrating()
+	{
+		return (migrationThread != null);
+	}
+
+
+	/**
+	 * Sends the user back to the home screen, which shows the progress of the
+	 * migration, if the database is being migrated. Android can restore a
+	 * screen without the home screen having been shown, so screens that read
+	 * the database on the main thread call this before reading it.
+	 * 
+	 * @param activity
+	 *            screen being created
+	 * @return true if the screen has been finished and must not carry on
+	 */
+	public boolean finishIfMigrating(Activity activity)
+	{
+		if (!isMigrating())
+			return false;
+
+		Intent intent = new Intent(activity, AquaTest.class);
+		intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
+		activity.startActivity(intent);
+		activity.finish();
+		return true;
+	}
+
+
 	/**
 	 * Called on application terminated
 	 */
 	public void onTerminate()
 	{
+		dataLoader.shutdown();
+	}
+
+	/**
+	 * Get the data of an area for a period. Data that has been viewed recently
+	 * is kept, so it is only loaded from the database the first time. </p>
+	 * 
+	 * This reads the database, so screens should use {@link #dataLoader}
+	 * instead of calling it on the main thread.
+	 * 
+	 * @param areaType
+	 *            municipality or town
+	 * @param areaId
+	 *            id of the area
+	 * @param parameterId
+	 *            id of the parameter to filter the data by, or
+	 *            {@link DataCacheRegistry#ALL_PARAMETERS}
+	 * @param startDate
+	 *            start date of the data
+	 * @param endDate
+	 *            end date of the data
+	 */
+	public DataCache getDataCache(int areaType, int areaId, int parameterId,
+			Calendar startDate, Calendar endDate)
+	{
+		// the database must not be replaced or reset while it is read
+		dbAdapter.dataLock.readLock().lock();
+		try
+		{
+			return dataCaches.getDataCache(dbAdapter, areaType, areaId,
+					parameterId, startDate, endDate);
+		}
+		finally
+		{
+			dbAdapter.dataLock.readLock().unlock();
+		}
 	}
 
 	/**
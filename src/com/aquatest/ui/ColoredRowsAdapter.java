@@ -21,19 +21,32 @@ import java.util.List;
 import java.util.Map;
 
 import android.content.Context;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.BaseAdapter;
 import android.widget.SimpleAdapter;
+import android.widget.TextView;
 
 /**
- * {@link SimpleAdapter} subclass which can set different rows to different
- * colours.
+ * Adapter which binds maps to the TextViews of a row layout, as
+ * {@link SimpleAdapter} does, and can set different rows to different
+ * colours. </p>
+ * 
+ * The TextViews of each row are found once, when its view is inflated, and
+ * kept as the view's tag so the view can be reused for other rows.
  */
-public class ColoredRowsAdapter extends SimpleAdapter
+public class ColoredRowsAdapter extends BaseAdapter
 {
 	/** stores the colour for each row */
 	private int[] colorForRow;
 
+	private List<? extends Map<String, ?>> data;
+	private int resource;
+	private String[] from;
+	private int[] to;
+	private LayoutInflater inflater;
+
 	/**
 	 * Creates a {@link ColoredRowsAdapter} with each row's colours defined by
 	 * the <code>colorForRow</code> array.
@@ -53,13 +66,17 @@ public class ColoredRowsAdapter extends SimpleAdapter
 	 * @param from
 	 *        columns to map from
 	 * @param to
-	 *        columns to map to in an xml file
+	 *        TextViews to map to in an xml file
 	 */
 	public ColoredRowsAdapter(Context context,
 		List<? extends Map<String, ?>> data, int[] colorForRow, int resource,
 		String[] from, int[] to)
 	{
-		super(context, data, resource, from, to);
+		this.data = data;
+		this.resource = resource;
+		this.from = from;
+		this.to = to;
+		this.inflater = LayoutInflater.from(context);
 
 		// set row colours if they have been provided, else use defaults
 		if ((colorForRow == null) || (colorForRow.length == 0))
@@ -73,12 +90,61 @@ public class ColoredRowsAdapter extends SimpleAdapter
 	}
 
 	/**
-	 * Returns the view of the current row. All this method does is add colour
-	 * to the default {@link SimpleAdapter} implementation.
+	 * Number of rows.
+	 */
+	public int getCount()
+	{
+		return data.size();
+	}
+
+	/**
+	 * Returns the map of a row.
+	 */
+	public Object getItem(int position)
+	{
+		return data.get(position);
+	}
+
+	/**
+	 * Rows are identified by position.
+	 */
+	public long getItemId(int position)
+	{
+		return position;
+	}
+
+	/**
+	 * Returns the view of the current row, reusing convertView if there is
+	 * one, with the colour of the row.
 	 */
 	public View getView(int position, View convertView, ViewGroup parent)
 	{
-		View view = super.getView(position, convertView, parent);
+		View view;
+		TextView[] holder;
+		if (convertView == null)
+		{
+			view = inflater.inflate(resource, parent, false);
+
+			holder = new TextView[to.length];
+			for (int i = 0; i < to.length; i++)
+			{
+				holder[i] = (TextView) view.findViewById(to[i]);
+			}
+			view.setTag(holder);
+		}
+		else
+		{
+			view = convertView;
+			holder = (TextView[]) view.getTag();
+		}
+
+		Map<String, ?> row = data.get(position);
+		for (int i = 0; i < holder.length; i++)
+		{
+			Object value = row.get(from[i]);
+			holder[i].setText((value == null) ? "" : value.toString());
+		}
+
 		int colorPos = position % this.colorForRow.length;
 		view.setBackgroundColor(this.colorForRow[colorPos]);
 		
@@ -23,12 +23,16 @@ import java.util.Vector;
 import android.app.Activity;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.GridView;
 import android.widget.ListView;
 import android.widget.TextView;
 
 import com.aquatest.dbinterface.tools.DataCache;
+import com.aquatest.dbinterface.tools.DataCacheLoader;
+import com.aquatest.dbinterface.tools.DataCacheRegistry;
 import com.aquatest.dbinterface.tools.DataIndicator;
+import com.aquatest.dbinterface.tools.DataRows;
 import com.aquatest.dbinterface.tools.DataUtils;
 import com.aquatest.dbinterface.tools.DatabaseAdaptor;
 import com.aquatest.dbinterface.tools.DataUtils.TableViews;
@@ -49,6 +53,14 @@ public class DataList extends Activity {
 	AquaTestApp application;
 	boolean isMunicipality;
 	DataCache dataCache;
+	
+	/** load of the data, until it has been shown */
+	DataCacheLoader.Request loadRequest;
+	int viewType;
+	int dataId;
+	String title;
+	Calendar startDate;
+	Calendar endDate;
 
 	
 	/** Called when the activity is first created. */
@@ -62,17 +74,17 @@ public class DataList extends Activity {
 
         setContentView(R.layout.data_list);
              
-        Calendar endDate = Calendar.getInstance();
-		Calendar startDate = DataUtils.calendarSubtractDays(endDate,
+        endDate = Calendar.getInstance();
+		startDate = DataUtils.calendarSubtractDays(endDate,
 			OVERVIEW_PERIOD_DAYS);
         
         isMunicipality = (application.getCurrentTown() == null);
         
-        String title = "";
+        title = "";
         int areaType  = Integer.valueOf(uri.getPathSegments().get(1));
         int areaId = Integer.valueOf(uri.getPathSegments().get(2));
-        int viewType = Integer.valueOf(uri.getPathSegments().get(3));
-        int dataId = Integer.valueOf(uri.getPathSegments().get(4));
+        viewType = Integer.valueOf(uri.getPathSegments().get(3));
+        dataId = Integer.valueOf(uri.getPathSegments().get(4));
         
         if (areaType == DatabaseAdaptor.MUNICIPALITY) {
         	title = application.dbAdapter.municipalities.get(areaId).name;
@@ -80,15 +92,70 @@ public class DataList extends Activity {
         else
         	title = application.dbAdapter.getTown(areaId).name;
         
+        // show the screen straight away, and fill it in once the data has
+        // loaded in the background
+        this.setTitle(title);
+        TextView tV = (TextView) findViewById(R.id.ComplianceDataText);
+        tV.setTextColor(TestIndicators.WHITE_COLOR);
+        tV.setText(" Loading...");
+        
+        int parameterId = DataCacheRegistry.ALL_PARAMETERS;
+        Calendar loadStartDate = startDate;
+        Calendar loadEndDate = endDate;
+        if (viewType == TableViews.DAILY_MEASURED_VALUE) {
+        	loadStartDate = application.getDate();
+        	loadEndDate = application.getDate();
+        }
+        else if (viewType == TableViews.SINGLE_PARAMETER_MEASURED_VALUE) {
+        	parameterId = dataId;
+        }
+        
+        loadRequest = application.dataLoader.load(areaType, areaId, parameterId, 
+        		loadStartDate, loadEndDate, new DataCacheLoader.Callback() {
+        	
+        	public void onLoaded(DataCache _dataCache) {
+        		loadRequest = null;
+        		showData(_dataCache);
+        	}
+        	
+        	public void onFailed(RuntimeException e) {
+        		loadRequest = null;
+        		Log.e("DataList", "Unable to load data", e);
+        		
+        		TextView tV = (TextView) findViewById(R.id.ComplianceDataText);
+        		tV.setText(" Unable to load the data");
+        	}
+        });
+    }
+    
+    
+    /**
+     * Cancels the load of the data if it has not finished.
+     */
+    @Override
+    public void onDestroy() {
+    	if (loadRequest != null)
+    		loadRequest.cancel();
+    	
+    	super.onDestroy();
+    }
+    
+    
+    /**
+     * Fills in the screen with the loaded data.
+     * 
+     * @param _dataCache data of the area being viewed
+     */
+    private void showData(DataCache _dataCache) {
+        dataCache = _dataCache;
+        
         Vector <DataIndicator> headers = new Vector <DataIndicator>();
-        Vector <Vector <DataIndicator>> rows = new  Vector <Vector <DataIndicator>>();
+        DataRows rows = DataRows.fromVector(new Vector <Vector <DataIndicator>>());
         
         DataIndicator complianceDI = null;
         
         if (viewType == TableViews.DAILY_MEASURED_VALUE) {
         	// CRASH!
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, application.getDate(), application.getDate());
-        	
         	headers = dataCache.getMeasuredValueColumnHeaders(0);
         	rows = dataCache.getMeasuredValueDataIndicators(0);
         	title += ": " + DataUtils.calendarToString(application.getDate());
@@ -97,7 +164,6 @@ public class DataList extends Activity {
             complianceDI = dataCache.getCompliance();
         }
         else if (viewType == TableViews.RECENT_MEASURED_VALUE) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, startDate, endDate);
         	headers = dataCache.getMeasuredValueColumnHeaders(-1);
         	rows = dataCache.getMeasuredValueDataIndicators(-1);
         	title += ": " + DataUtils.calendarToStringShort(startDate) + " - " + DataUtils.calendarToStringShort(endDate);
@@ -105,16 +171,14 @@ public class DataList extends Activity {
             complianceDI = dataCache.getCompliance();
         }
         else if (viewType == TableViews.POINT_RECENT_MEASURED_VALUE) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, startDate, endDate);
         	headers = dataCache.getMeasuredValueColumnHeaders(-1);
-        	rows = dataCache.samplingPoints.get(dataId).getMeasureValueDataIndicators(-1);
+        	rows = dataCache.getSamplingPointMeasuredValueDataIndicators(dataId, -1);
         	title += " > " + dataCache.samplingPoints.get(dataId).pointName + ": " 
         			+ DataUtils.calendarToStringShort(startDate) + " - " + DataUtils.calendarToStringShort(endDate);
         	
             complianceDI = dataCache.getSamplingPointCompliance(dataId);
         }
         else if (viewType == TableViews.RECENT_PARAMETERS) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, startDate, endDate);
         	headers = dataCache.getParametersColumnHeaders();
         	rows = dataCache.getParametersDataIndicators(true);
         	title += " > Points: " + DataUtils.calendarToStringShort(startDate) + " - " + DataUtils.calendarToStringShort(endDate);
@@ -122,16 +186,14 @@ public class DataList extends Activity {
             complianceDI = dataCache.getCompliance();
         }
         else if (viewType == TableViews.POINT_RECENT_PARAMETERS) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, startDate, endDate);
         	headers = dataCache.getParametersColumnHeaders();
-        	rows = dataCache.samplingPoints.get(dataId).getParametersDataIndicators(dataCache.getOrderedParameters1(),false);
+        	rows = dataCache.getSamplingPointParametersDataIndicators(dataId, false);
         	title += " > " + dataCache.samplingPoints.get(dataId).pointName + ": " 
 				+ DataUtils.calendarToStringShort(startDate) + " - " + DataUtils.calendarToStringShort(endDate);
         	
             complianceDI = dataCache.getSamplingPointCompliance(dataId);
         }
         else if (viewType == TableViews.RECENT_PARAMETERS_GROUPED_BY_DATE) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, startDate, endDate);
         	headers = dataCache.getParametersColumnHeaders();
         	rows = dataCache.getParametersDataIndicatorsGroupedByDate();
         	title += " > Points: " + DataUtils.calendarToStringShort(startDate) + " - " + DataUtils.calendarToStringShort(endDate);
@@ -139,7 +201,6 @@ public class DataList extends Activity {
             complianceDI = dataCache.getCompliance();
         } 
         else if (viewType == TableViews.SINGLE_PARAMETER_MEASURED_VALUE) {
-        	dataCache = new DataCache(application.dbAdapter, areaId, areaType, dataId, startDate, endDate);
         	headers = dataCache.getMeasuredValueColumnHeaders(2);
         	rows = dataCache.getMeasuredValueDataIndicators(2);
         	title += " > " + application.dbAdapter.parameters.get(dataId).testNameShort + ": "
@@ -153,7 +214,6 @@ public class DataList extends Activity {
         
 
         TextView tV = (TextView) findViewById(R.id.ComplianceDataText);
-        tV.setTextColor(TestIndicators.WHITE_COLOR);
         tV.setText(" Compliance: " + complianceDI.name);
         tV.setBackgroundColor(DataUtils.getColor(complianceDI.colour));
         
@@ -20,33 +20,50 @@ package com.aquatest.ui;
 import java.util.Vector;
 
 import android.content.Context;
-import android.database.DataSetObserver;
 import android.view.Gravity;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.GridView;
-import android.widget.ListAdapter;
+import android.widget.BaseAdapter;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 
 import com.aquatest.dbinterface.tools.DataCache;
 import com.aquatest.dbinterface.tools.DataIndicator;
+import com.aquatest.dbinterface.tools.DataRows;
 
 /**
- * Render a DataList table/
+ * Render a DataList table. </p>
+ * 
+ * Each row is a LinearLayout of TextView cells, which is reused by the 
+ * ListView for other rows as the list scrolls. Cells taken off a reused row 
+ * that has more columns than the new row are kept, and put on the next row 
+ * that needs more, so scrolling creates no views once the screen is full.
  */
-public class DataListAdapter implements ListAdapter {
+public class DataListAdapter extends BaseAdapter {
 	
 	private Context mContext;
 	public DataCache dataCache;
-	private Vector <Vector <DataIndicator>> rows;
+	private DataRows rows;
+	
+	/** cells that are not in a row */
+	private Vector <TextView> spareCells = new Vector <TextView>();
+	
+	/**
+	 * Cells of a row view, kept as its tag so they need not be looked up.
+	 */
+	private static class RowHolder {
+		Vector <TextView> cells = new Vector <TextView>();
+	}
 	
 	
 	/**
 	 * Constructor
 	 * 
 	 * @param c
-	 * @param _rows data to populate the table with.
+	 * @param _rows data to populate the table with, which may build each row
+	 * 		when it is shown.
 	 */
-	public DataListAdapter (Context c, Vector <Vector <DataIndicator>> _rows){
+	public DataListAdapter (Context c, DataRows _rows){
 		
 		//dataCache = dC;
 		mContext = c;
@@ -57,7 +74,6 @@ public class DataListAdapter implements ListAdapter {
 	 * Number of rows.
 	 */
 	public int getCount() {
-		// TODO Auto-generated method stub
 		// Log.v("leo","datalistAdapter getCount"+rows.size());
         return rows.size();
 	}
@@ -66,7 +82,6 @@ public class DataListAdapter implements ListAdapter {
 	 * Not implemented.
 	 */
 	public Object getItem(int position) {
-		// TODO Auto-generated method stub
         return new Integer(position);
 
 	}
@@ -75,102 +90,72 @@ public class DataListAdapter implements ListAdapter {
 	 * Not implemented.
 	 */
 	public long getItemId(int position) {
-		// TODO Auto-generated method stub
         return position;
 
 	}
-	
-	/**
-	 * Not implemented.
-	 */
-	public boolean areAllItemsEnabled() {
-		// TODO Auto-generated method stub
-		return true;
-	}
-
-	/**
-	 * Not implemented.
-	 */
-	public boolean isEnabled(int position) {
-		// TODO Auto-generated method stub
-		return true;
-	}
-
-	/**
-	 * Not implemented.
-	 */
-	public int getItemViewType(int position) {
-		// TODO Auto-generated method stub
-		return 0;
-	}
-
-	/**
-	 * Not implemented.
-	 */
-	public int getViewTypeCount() {
-		// TODO Auto-generated method stub
-		return 1;
-	}
 
 	/**
-	 * Not implemented.
+	 * Rows are identified by position.
 	 */
 	public boolean hasStableIds() {
-		// TODO Auto-generated method stub
 		return true;
 	}
 
 	/**
-	 * Not implemented.
-	 */
-	public boolean isEmpty() {
-		// TODO Auto-generated method stub
-		return false;
-	}
-
-	/**
-	 * Not implemented.
-	 */
-	public void registerDataSetObserver(DataSetObserver observer) {
-		// TODO Auto-generated method stub
-
-	}
-
-	/**
-	 * Not implemented.
-	 */
-	public void unregisterDataSetObserver(DataSetObserver observer) {
-		// TODO Auto-generated method stub
-	}
-
-	/**
-	 * Render an individual row.
+	 * Render an individual row, reusing convertView if there is one.
 	 */
 	public View getView(int position, View convertView, ViewGroup parent) {
-		// TODO Auto-generated method stub
-		// Log.v("leo","getView");
-		
 		Vector <DataIndicator> currentRow = rows.get(position);
 		
-		GridView gridView;
+		LinearLayout rowView;
+		RowHolder holder;
         if (convertView == null) {
-        	gridView = new GridView(mContext);
-            
-            gridView.setVerticalScrollBarEnabled(false);          
-
-            gridView.setNumColumns(currentRow.size());
-            gridView.setPadding(1,1,1,1);
-            //gridView.setLayoutParams(new LayoutParams (LayoutParams.FILL_PARENT, 40));
-            gridView.setGravity(Gravity.CENTER);
-            gridView.setStretchMode(GridView.STRETCH_COLUMN_WIDTH);
-
+        	rowView = new LinearLayout(mContext);
+        	rowView.setOrientation(LinearLayout.HORIZONTAL);
+        	rowView.setPadding(1,1,1,1);
+        	rowView.setGravity(Gravity.CENTER);
+        	
+        	holder = new RowHolder();
+        	rowView.setTag(holder);
         } else {
-        	gridView = (GridView) convertView;
+        	rowView = (LinearLayout) convertView;
+        	holder = (RowHolder) rowView.getTag();
         }
-
-        DataListItemAdapter itemAdapter = new DataListItemAdapter(mContext, currentRow, false);
         
-        gridView.setAdapter(itemAdapter); 
-        return gridView;
+        setCellCount(rowView, holder, currentRow.size());
+        
+        // do this to optimise the Android code
+        int cellCount = currentRow.size();
+        for (int i = 0; i < cellCount; i++) {
+        	DataListItemAdapter.bindCell(holder.cells.get(i), currentRow.get(i), false);
+        }
+        
+        return rowView;
+	}
+	
+	/**
+	 * Adds or removes cells of a row view, so it has one for each column.
+	 */
+	private void setCellCount(LinearLayout rowView, RowHolder holder, int cellCount) {
+		while (holder.cells.size() > cellCount) {
+			TextView cell = holder.cells.remove(holder.cells.size() - 1);
+			rowView.removeView(cell);
+			spareCells.add(cell);
+		} // while
+		
+		while (holder.cells.size() < cellCount) {
+			TextView cell;
+			if (spareCells.isEmpty()) {
+				// columns share the width equally, as in the header
+				cell = DataListItemAdapter.createCell(mContext);
+				cell.setLayoutParams(new LinearLayout.LayoutParams(0, 
+						DataListItemAdapter.CELL_HEIGHT, 1));
+			}
+			else
+				cell = spareCells.remove(spareCells.size() - 1);
+			
+			rowView.addView(cell);
+			holder.cells.add(cell);
+		} // while
 	}
 }
@@ -24,6 +24,7 @@ import com.aquatest.dbinterface.tools.DataUtils;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
 
 import android.content.Context;
+import android.content.res.ColorStateList;
 import android.graphics.Typeface;
 import android.view.Gravity;
 import android.view.View;
@@ -93,18 +94,53 @@ public class DataListItemAdapter extends BaseAdapter {
 		// TODO Auto-generated method stub
 		TextView textView;
         if (convertView == null) {
-            textView = new TextView(mContext);
-            textView.setGravity(Gravity.CENTER);
-            textView.setLayoutParams(new GridView.LayoutParams(LayoutParams.FILL_PARENT, 44));//LayoutParams.WRAP_CONTENT));//34));//LayoutParams.FILL_PARENT));
+            textView = createCell(mContext);
+            textView.setLayoutParams(new GridView.LayoutParams(LayoutParams.FILL_PARENT, CELL_HEIGHT));//LayoutParams.WRAP_CONTENT));//34));//LayoutParams.FILL_PARENT));
         } else {
         	textView = (TextView) convertView;
         }
-        //textView.set
-        textView.setBackgroundColor(DataUtils.getColor(dataIndicators.get(position).colour));
-        if (dataIndicators.get(position).colour.compareTo(TestIndicators.NONE) != 0)
+
+        bindCell(textView, dataIndicators.get(position), header);
+
+        return textView;
+	}
+	
+	/** height of a cell, in pixels */
+	static final int CELL_HEIGHT = 44;
+	
+	/**
+	 * Creates a cell, without layout parameters. The cell can be bound to
+	 * any DataIndicator, so it can be reused for any cell of a table.
+	 * 
+	 * @param c
+	 * @return the cell
+	 */
+	// method declared static for Android optimisation
+	static TextView createCell(Context c) {
+		TextView textView = new TextView(c);
+		textView.setGravity(Gravity.CENTER);
+		
+		// keep the default text colour, to put back when a coloured cell is reused
+		textView.setTag(textView.getTextColors());
+		return textView;
+	}
+	
+	/**
+	 * Shows a DataIndicator in a cell made by createCell().
+	 * 
+	 * @param textView the cell
+	 * @param dI data to show
+	 * @param header whether the cell is in a header row or not
+	 */
+	// method declared static for Android optimisation
+	static void bindCell(TextView textView, DataIndicator dI, boolean header) {
+        textView.setBackgroundColor(DataUtils.getColor(dI.colour));
+        if (dI.colour.compareTo(TestIndicators.NONE) != 0)
         	textView.setTextColor(TestIndicators.WHITE_COLOR);
+        else
+        	textView.setTextColor((ColorStateList) textView.getTag());
 
-        textView.setText(dataIndicators.get(position).name);
+        textView.setText(dI.name);
 
         
         if (header) {
@@ -112,7 +148,5 @@ public class DataListItemAdapter extends BaseAdapter {
         	textView.setTypeface(Typeface.DEFAULT_BOLD);
         }
         else textView.setTextSize(12);
-
-        return textView;
 	}
 }
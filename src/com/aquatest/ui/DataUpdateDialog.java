@@ -17,6 +17,7 @@
  */
 package com.aquatest.ui;
 
+import com.aquatest.dbinterface.tools.DataChanges;
 import com.aquatest.dbinterface.tools.DatabaseAdaptor;
 import com.aquatest.dbinterface.tools.DatabaseUpdater;
 
@@ -163,21 +164,36 @@ public class DataUpdateDialog extends Dialog implements OnClickListener {
 	 * 
 	 * @param _message message to display
 	 * @param _updateTime time that the update took place.
+	 * @param _changes towns and days whose data the update changed
 	 */
-	public void updateComplete(String _message, long _updateTime) {
-		updatingButton.setVisibility(Button.VISIBLE);
-		
+	public void updateComplete(final String _message, long _updateTime, final DataChanges _changes) {
 		SharedPreferences settingsPref = this.mContext.getSharedPreferences(AquaTestApp.PREF, 0);
 		settingsPref.edit()
 			.putLong(AquaTestApp.PREF_LAST_UPDATE_TIME, _updateTime)
 			.commit();
 				
-		tV.setText(_message);
-		updatingButton.setText("Ok");
-		pB.setVisibility(ProgressBar.GONE);
+		tV.setText("Loading the updated data...");
 		
-		 AquaTest.ACTIVE_INSTANCE.application.dbAdapter.reset();
-		 AquaTest.ACTIVE_INSTANCE.resetView();
+		// make the updated data visible to the rest of the app off the main
+		// thread - the dialog keeps its button hidden until then, so no
+		// screen can read the database while it is replaced
+		final AquaTestApp application = AquaTest.ACTIVE_INSTANCE.application;
+		application.changeData(new Runnable() {
+			public void run() {
+				application.dbAdapter.replaceWithStagingDatabase();
+				application.dataCaches.invalidate(_changes);
+			}
+		}, new Runnable() {
+			public void run() {
+				updatingButton.setVisibility(Button.VISIBLE);
+				tV.setText(_message);
+				updatingButton.setText("Ok");
+				pB.setVisibility(ProgressBar.GONE);
+				
+				if (AquaTest.ACTIVE_INSTANCE != null)
+					AquaTest.ACTIVE_INSTANCE.resetView();
+			}
+		});
 	}
 	
 	/**
@@ -220,7 +236,9 @@ public class DataUpdateDialog extends Dialog implements OnClickListener {
     	  			DataUpdateDialog.this.error(msgString);
     	  			break;
     	  		case COMPLETE : 
-    	  			DataUpdateDialog.this.updateComplete(msgString, updateTime);
+    	  			DataUpdateDialog.this.updateComplete(msgString, updateTime,
+    	  					new DataChanges(b.getIntArray(DatabaseUpdater.CHANGED_TOWNS_KEY),
+    	  							b.getIntArray(DatabaseUpdater.CHANGED_DAYS_KEY)));
     	  			break;
     	  		case ITEM_COMPLETE : 
     	  			DataUpdateDialog.this.hideCancelButton();
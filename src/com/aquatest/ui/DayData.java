@@ -25,11 +25,14 @@ import java.util.Vector;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
 
 import com.aquatest.dbinterface.objects.SamplingPoint;
 import com.aquatest.dbinterface.tools.DataCache;
+import com.aquatest.dbinterface.tools.DataCacheLoader;
+import com.aquatest.dbinterface.tools.DataCacheRegistry;
 import com.aquatest.dbinterface.tools.DataUtils;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
 import com.aquatest.dbinterface.tools.DatabaseAdaptor;
@@ -45,6 +48,8 @@ public class DayData extends Activity {
 	Vector <SamplingPoint> samplingPoints;
 	boolean isMunicipality;
 	DataCache dataCache;
+	/** load of the data, until it has been shown */
+	DataCacheLoader.Request loadRequest;
 	
 	/** Called when the activity is first created. */
     @Override
@@ -55,14 +60,52 @@ public class DayData extends Activity {
         setContentView(R.layout.daydata);
         //View v = findViewById(R.id.DayDataScreenLayout);
        
+        int areaType;
+        int areaId;
         if (isMunicipality) {
         	this.setTitle(application.getCurrentMunicipality().name+"("+DataUtils.calendarToString(application.getDate())+")");
-        	dataCache = new DataCache(application.dbAdapter,application.getCurrentMunicipality().id, DatabaseAdaptor.MUNICIPALITY,application.getDate(), application.getDate());
+        	areaType = DatabaseAdaptor.MUNICIPALITY;
+        	areaId = application.getCurrentMunicipality().id;
         } else {
         	this.setTitle(application.getCurrentTown().name+"("+DataUtils.calendarToString(application.getDate())+")");
-        	dataCache = new DataCache(application.dbAdapter,application.getCurrentTown().id, DatabaseAdaptor.TOWN,application.getDate(), application.getDate());
+        	areaType = DatabaseAdaptor.TOWN;
+        	areaId = application.getCurrentTown().id;
         }
         
+        // the list is filled in once the data has loaded in the background
+        loadRequest = application.dataLoader.load(areaType, areaId, DataCacheRegistry.ALL_PARAMETERS, 
+        		application.getDate(), application.getDate(), new DataCacheLoader.Callback() {
+        	
+        	public void onLoaded(DataCache _dataCache) {
+        		loadRequest = null;
+        		showData(_dataCache);
+        	}
+        	
+        	public void onFailed(RuntimeException e) {
+        		loadRequest = null;
+        		Log.e("DayData", "Unable to load data", e);
+        	}
+        });
+    }
+    
+    /**
+     * Cancels the load of the data if it has not finished.
+     */
+    @Override
+    public void onDestroy() {
+    	if (loadRequest != null)
+    		loadRequest.cancel();
+    	
+    	super.onDestroy();
+    }
+    
+    /**
+     * Fills in the list of sampling points with the loaded data.
+     * 
+     * @param _dataCache data of the day being viewed
+     */
+    private void showData(DataCache _dataCache) {
+        dataCache = _dataCache;
         samplingPoints = dataCache.getOrderedSamplingPoints();
 
         String [] colFrom = {SAMPLING_POINT_NAME,SAMPLING_POINT_COLOR};
@@ -86,7 +129,7 @@ public class DayData extends Activity {
 			m = new HashMap<String, Object>();
 			m.put(SAMPLING_POINT_NAME, sp.pointName);
 			// Log.v("sp.name",sp.pointName);
-			int color = DataUtils.getColor(sp.getColour());
+			int color = DataUtils.getColor(dataCache.getSamplingPointSeverity(sp.id));
 			switch(color) {
 			case TestIndicators.GREEN_COLOR:
 				m.put(SAMPLING_POINT_COLOR, new Integer(R.drawable.indicator_green));
@@ -44,6 +44,8 @@ public class Overview extends Activity {
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         application = (AquaTestApp) this.getApplication();
+        if (application.finishIfMigrating(this))
+        	return;
         this.setTitle(application.getCurrentTown().name+" Overview");
         setContentView(R.layout.overview);
         //View v = findViewById(R.id.OverViewScreenLayout);
@@ -50,9 +50,12 @@ public class Parameters extends Activity implements OnItemClickListener{
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        setContentView(R.layout.parameters);
         
         application = (AquaTestApp) this.getApplication();
+        if (application.finishIfMigrating(this))
+        	return;
+        
+        setContentView(R.layout.parameters);
         
         if (!DatabaseAdaptor.HIDE_EMPTY_DATA)
         	parameters = application.dbAdapter.getOrderedParameters();
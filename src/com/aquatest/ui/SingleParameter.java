@@ -26,11 +26,13 @@ import java.util.Vector;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.ListView;
 import android.widget.SimpleAdapter;
 
 import com.aquatest.dbinterface.objects.SamplingPoint;
 import com.aquatest.dbinterface.tools.DataCache;
+import com.aquatest.dbinterface.tools.DataCacheLoader;
 import com.aquatest.dbinterface.tools.DataUtils;
 import com.aquatest.dbinterface.tools.DatabaseAdaptor;
 import com.aquatest.dbinterface.tools.DataUtils.TestIndicators;
@@ -47,6 +49,9 @@ public class SingleParameter extends Activity {
 	
 	//HashMap<Integer, SamplingPoint> samplingPoints;
 	Vector<SamplingPoint> samplingPoints;
+	DataCache dataCache;
+	/** load of the data, until it has been shown */
+	DataCacheLoader.Request loadRequest;
 	
 	/** Called when the activity is first created. */
     @Override
@@ -62,10 +67,42 @@ public class SingleParameter extends Activity {
 		Calendar startDate = DataUtils.calendarSubtractDays(endDate,
 			OVERVIEW_PERIOD_DAYS);
 
-		// get data
-		DataCache dataCache = new DataCache(application.dbAdapter,
-			application.getCurrentTown().id, DatabaseAdaptor.TOWN,
-			application.getCurrentParameter().id, startDate, endDate);
+		// get data - the list is filled in once it has loaded in the background
+		loadRequest = application.dataLoader.load(DatabaseAdaptor.TOWN,
+			application.getCurrentTown().id,
+			application.getCurrentParameter().id, startDate, endDate,
+			new DataCacheLoader.Callback() {
+
+				public void onLoaded(DataCache _dataCache) {
+					loadRequest = null;
+					showData(_dataCache);
+				}
+
+				public void onFailed(RuntimeException e) {
+					loadRequest = null;
+					Log.e("SingleParameter", "Unable to load data", e);
+				}
+			});
+    }
+
+    /**
+     * Cancels the load of the data if it has not finished.
+     */
+    @Override
+    public void onDestroy() {
+    	if (loadRequest != null)
+    		loadRequest.cancel();
+
+    	super.onDestroy();
+    }
+
+    /**
+     * Fills in the list of sampling points with the loaded data.
+     * 
+     * @param _dataCache data of the parameter being viewed
+     */
+    private void showData(DataCache _dataCache) {
+		dataCache = _dataCache;
 		samplingPoints = dataCache.getOrderedSamplingPoints();
 
         String [] colFrom = {SAMPLING_POINT_NAME,SAMPLING_POINT_COLOR};
@@ -92,7 +129,7 @@ public class SingleParameter extends Activity {
 			SamplingPoint sp = samplingPoints.elementAt(i);
 			m = new HashMap<String, Object>();
 			m.put(SAMPLING_POINT_NAME, sp.pointName);
-			int color = DataUtils.getColor(sp.getColour());
+			int color = DataUtils.getColor(dataCache.getSamplingPointSeverity(sp.id));
 			switch(color) {
 			case TestIndicators.GREEN_COLOR:
 				m.put(SAMPLING_POINT_COLOR, new Integer(R.drawable.indicator_green));
@@ -18,14 +18,32 @@
 package com.aquatest.webservice;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.Reader;
 
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
 import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
 import org.apache.http.protocol.HttpContext;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -62,15 +80,45 @@ public class AquaTestWebService
 	public static final String BATCH_SIZE_PARAM = "limit";
 	public static final String ACCESS_KEY_PARAM = "key";
 	public static final String DOMAIN_PARAM = "domain"; //aka municipality
+	public static final String FORMAT_PARAM = "format";
 	
 	public static final String ACCESS_KEY_VALUE = ""; //key to access web service
 
-	// TODO this should be parameterised, or passed in from another class
-	/** how many records to request from the web service in each response */
+	/**
+	 * asks for rows as arrays under a single list of column names - servers
+	 * that do not support this send the rows as objects, which are also read
+	 */
+	public static final String FORMAT_COLUMNS = "columns";
+
+	/**
+	 * how many records to request from the web service in each response, if
+	 * the caller does not choose a batch size
+	 */
 	public static final String BATCH_SIZE_VALUE = "500";
 	public static final String BATCH_SIZE_PARAM_STRING = "&" + BATCH_SIZE_PARAM
 			+ "=" + BATCH_SIZE_VALUE;
 	
+	/** time allowed to open a connection, in milliseconds */
+	public static final int CONNECTION_TIMEOUT = 20000;
+	/** time allowed between packets of a response, in milliseconds */
+	public static final int SOCKET_TIMEOUT = 60000;
+	/**
+	 * maximum number of connections to the server - the sync must not run
+	 * more downloads than this at once, or they could wait on each other
+	 */
+	public static final int MAX_CONNECTIONS_PER_ROUTE = 4;
+	private static final int MAX_TOTAL_CONNECTIONS = 8;
+	private static final int SOCKET_BUFFER_SIZE = 8192;
+
+	/** name of the HttpContext attribute holding the RequestMetrics */
+	private static final String METRICS_ATTRIBUTE = "com.aquatest.metrics";
+
+	/**
+	 * client shared by all requests, so that connections to the server are
+	 * kept open and reused
+	 */
+	private static DefaultHttpClient httpClient;
+
 	/**
 	 * Global settings as defined in the configuration file
 	 * /assets/config/config.txt. This is set by {@link AquaTestApp}.
@@ -94,34 +142,83 @@ public class AquaTestWebService
 
 	/**
 	 * Invokes a web service to return a list of data that has been added,
-	 * updated or deleted.
-	 * 
+	 * updated or deleted, without reading the response. </p>
+	 *
+	 * Large responses are parsed while they are downloaded, rather than being
+	 * loaded into memory in full first.
+	 *
 	 * @param method
 	 *            the specific web service to invoke
 	 * @param table
 	 *            table to invoke the web service on
-	 * @param lastTimeUpdates
+	 * @param lastTimeUpdated
 	 *            time of last update (in milliseconds)
 	 * @param offset
 	 *            offset of last update
-	 * @return JSOBObject made up from the web service response, containing list
-	 *         of relevant changes to the database
+	 * @param limit
+	 *            maximum number of records to return
+	 * @return stream containing the JSON response, which the caller must close
 	 * @throws IOException
-	 * @throws JSONException
 	 * @throws ClientProtocolException
 	 */
 	// method declared static for Android optimisation
-	public static JSONObject retrieveDataChanges(String method, String table,
-			long lastTimeUpdated, int offset) throws ClientProtocolException,
-			JSONException, IOException
-	{				
-		// TODO delete call can handle a much bigger batch size than the other
-		// calls, so change the batch size setting for deletes
+	public static ResponseStream openDataChanges(String method, String table,
+			long lastTimeUpdated, int offset, int limit)
+			throws ClientProtocolException, IOException
+	{
+		String url = getDataChangesUrl(method, table, lastTimeUpdated, offset,
+				String.valueOf(limit));
+		RequestMetrics metrics = new RequestMetrics(url);
+
+		return openResponse(sendGetRequest(url, metrics), metrics);
+	}
+
+	/**
+	 * Opens the body of an HTTP response, inflating it if the server
+	 * compressed it.
+	 * 
+	 * @param response
+	 *            an HTTP response
+	 * @param metrics
+	 *            timings of the request, or <code>null</code>
+	 * @return stream over the response body, which the caller must close
+	 * @throws IOException
+	 */
+	// method declared static for Android optimisation
+	public static ResponseStream openResponse(HttpResponse response,
+			RequestMetrics metrics) throws IOException
+	{
+		HttpEntity entity = response.getEntity();
+		Header contentEncoding = entity.getContentEncoding();
+
+		try
+		{
+			return new ResponseStream(entity.getContent(),
+					(contentEncoding == null) ? null : contentEncoding
+							.getValue(), metrics);
+		}
+		catch (IOException e)
+		{
+			// release the connection back to the pool
+			entity.consumeContent();
+			throw e;
+		}
+	}
+
+	/**
+	 * Builds the url of a web service that returns added, updated or deleted
+	 * records.
+	 */
+	// method declared static for Android optimisation
+	private static String getDataChangesUrl(String method, String table,
+			long lastTimeUpdated, int offset, String limit)
+	{
 		String requestUrl = SERVER_HOST + method + "?" + TABLE_PARAM + "="
 				+ table + "&" + TIME_PARAM + "="
 				+ String.valueOf(lastTimeUpdated / 1000) + "&" + OFFSET_PARAM
-				+ "=" + String.valueOf(offset) + BATCH_SIZE_PARAM_STRING
-				+ "&" + ACCESS_KEY_PARAM + "=" + ACCESS_KEY_VALUE;
+				+ "=" + String.valueOf(offset) + "&" + BATCH_SIZE_PARAM + "="
+				+ limit + "&" + ACCESS_KEY_PARAM + "=" + ACCESS_KEY_VALUE
+				+ "&" + FORMAT_PARAM + "=" + FORMAT_COLUMNS;
 		
 		if (!config.isInitialised()) {
 			config.init();
@@ -134,7 +231,7 @@ public class AquaTestWebService
 		}
 				
 		//Log.v("URL", requestUrl);
-		return invoke(requestUrl);
+		return requestUrl;
 	}
 
 	/**
@@ -152,10 +249,11 @@ public class AquaTestWebService
 			ClientProtocolException, IOException
 	{
 		// send a GET request to the correct url
-		HttpResponse response = sendGetRequest(url);
+		RequestMetrics metrics = new RequestMetrics(url);
+		HttpResponse response = sendGetRequest(url, metrics);
 
 		// create a JSONObject from the response
-		JSONObject json = getJsonFromResponse(response);
+		JSONObject json = getJsonFromResponse(response, metrics);
 
 		return json;
 	}
@@ -171,20 +269,44 @@ public class AquaTestWebService
 	public static JSONObject getJsonFromResponse(HttpResponse response)
 			throws JSONException, ClientProtocolException, IOException
 	{
+		return getJsonFromResponse(response, null);
+	}
+
+	/**
+	 * Converts an HTTP response object into a JSON object.
+	 * 
+	 * @param response
+	 *            an HTTP response in JSON string format
+	 * @param metrics
+	 *            timings of the request, or <code>null</code>
+	 * @return JSONObject created from the response
+	 */
+	// method declared static for Android optimisation
+	private static JSONObject getJsonFromResponse(HttpResponse response,
+			RequestMetrics metrics) throws JSONException,
+			ClientProtocolException, IOException
+	{
 
 		// read the response stream
-		InputStream inputStream = response.getEntity().getContent();
-		byte[] data = new byte[256];
+		ResponseStream responseStream = openResponse(response, metrics);
+		Reader reader = responseStream.getReader();
+		char[] data = new char[256];
 		int len = 0;
 
 		StringBuffer buffer = new StringBuffer();
-		while (-1 != (len = inputStream.read(data)))
+		try
 		{
-			buffer.append(new String(data, 0, len));
+			while (-1 != (len = reader.read(data)))
+			{
+				buffer.append(data, 0, len);
 
-			if (Thread.interrupted()) { return null; }
+				if (Thread.interrupted()) { return null; }
+			}
+		}
+		finally
+		{
+			responseStream.close();
 		}
-		inputStream.close();
 
 		// turn response string into a JSON object
 		// TODO create better error handling
@@ -216,17 +338,112 @@ public class AquaTestWebService
 	// method declared static for Android optimisation
 	public static HttpResponse sendGetRequest(String url)
 			throws ClientProtocolException, IOException
+	{
+		return sendGetRequest(url, null);
+	}
+
+	/**
+	 * Sends an HTTP GET request to the url, recording how long it takes. The
+	 * response body must be read to the end or closed, so that the connection
+	 * can be reused.
+	 * 
+	 * @param url
+	 *            URL to send GET request to
+	 * @param metrics
+	 *            timings of the request, or <code>null</code>
+	 * @return HttpResponse object
+	 * @throws IOException
+	 *             if there is an IO error during the request
+	 * @throws ClientProtocolException
+	 *             if there is a protocol error during the request
+	 */
+	// method declared static for Android optimisation
+	private static HttpResponse sendGetRequest(String url,
+			RequestMetrics metrics) throws ClientProtocolException,
+			IOException
 	{
 		// create http GET request object
 		// Log.v("WEBSERVICE", "creating GET request to [" + url + "]");
 		HttpGet get = new HttpGet(url);
 
+		// ask for a compressed response - the sync JSON repeats the field
+		// names on every row, so it compresses very well
+		get.addHeader("Accept-Encoding", ResponseStream.ACCEPT_ENCODING);
+
 		// send GET message to the url
-		HttpClient httpClient = new DefaultHttpClient();
 		HttpContext localContext = new BasicHttpContext();
-		HttpResponse response = httpClient.execute(get, localContext);
+		if (metrics != null)
+		{
+			localContext.setAttribute(METRICS_ATTRIBUTE, metrics);
+		}
+
+		HttpResponse response = getHttpClient().execute(get, localContext);
+
+		if (metrics != null)
+		{
+			metrics.responseTime = System.currentTimeMillis();
+		}
 
 		return response;
 	}
 
+	/**
+	 * Returns the client shared by all requests, creating it the first time.
+	 * The client keeps a pool of connections to the server, which can be used
+	 * by several threads at once.
+	 */
+	// method declared static for Android optimisation
+	private static synchronized DefaultHttpClient getHttpClient()
+	{
+		if (httpClient == null)
+		{
+			HttpParams params = new BasicHttpParams();
+			HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+			HttpProtocolParams.setContentCharset(params, "UTF-8");
+			HttpConnectionParams.setConnectionTimeout(params,
+					CONNECTION_TIMEOUT);
+			HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+			HttpConnectionParams.setSocketBufferSize(params,
+					SOCKET_BUFFER_SIZE);
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+			ConnManagerParams.setMaxTotalConnections(params,
+					MAX_TOTAL_CONNECTIONS);
+			ConnManagerParams.setMaxConnectionsPerRoute(params,
+					new ConnPerRouteBean(MAX_CONNECTIONS_PER_ROUTE));
+			ConnManagerParams.setTimeout(params, CONNECTION_TIMEOUT);
+
+			SchemeRegistry schemeRegistry = new SchemeRegistry();
+			schemeRegistry.register(new Scheme("http", PlainSocketFactory
+					.getSocketFactory(), 80));
+			schemeRegistry.register(new Scheme("https", SSLSocketFactory
+					.getSocketFactory(), 443));
+
+			httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(
+					params, schemeRegistry), params);
+
+			// runs once a connection has been obtained, just before the
+			// request is sent on it
+			httpClient.addRequestInterceptor(new HttpRequestInterceptor()
+			{
+				public void process(HttpRequest request, HttpContext context)
+						throws HttpException, IOException
+				{
+					RequestMetrics metrics = (RequestMetrics) context
+							.getAttribute(METRICS_ATTRIBUTE);
+					if (metrics == null)
+						return;
+
+					metrics.connectedTime = System.currentTimeMillis();
+
+					// a connection that has not sent a request yet is new
+					HttpConnection connection = (HttpConnection) context
+							.getAttribute(ExecutionContext.HTTP_CONNECTION);
+					metrics.newConnection = (connection == null)
+							|| (connection.getMetrics().getRequestCount() == 0);
+				}
+			});
+		}
+		return httpClient;
+	}
+
 }
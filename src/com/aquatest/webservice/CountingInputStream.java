@@ -0,0 +1,97 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.webservice;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream that counts the bytes read through it, and notes when the end
+ * of the stream has been reached.
+ */
+public class CountingInputStream extends FilterInputStream
+{
+	private long count = 0;
+	private boolean atEnd = false;
+
+	public CountingInputStream(InputStream in)
+	{
+		super(in);
+	}
+
+	/**
+	 * @return number of bytes read so far
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @return <code>true</code> if a read has returned the end of the stream
+	 */
+	public boolean isAtEnd()
+	{
+		return atEnd;
+	}
+
+	@Override
+	public int read() throws IOException
+	{
+		int b = super.read();
+		if (b != -1)
+		{
+			count++;
+		}
+		else
+		{
+			atEnd = true;
+		}
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException
+	{
+		int read = super.read(buffer, offset, length);
+		if (read > 0)
+		{
+			count += read;
+		}
+		else if (read == -1)
+		{
+			atEnd = true;
+		}
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException
+	{
+		long skipped = super.skip(n);
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported()
+	{
+		return false;
+	}
+}
@@ -0,0 +1,568 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.webservice;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import org.json.JSONException;
+
+/**
+ * Pull parser that reads JSON one token at a time from a {@link Reader}. </p>
+ *
+ * {@link org.json.JSONObject} needs the whole response in memory as a String
+ * before it can be parsed, which is a problem for web service responses that
+ * are several hundred kilobytes long. This class only ever holds a small
+ * buffer of the input, so a response can be processed while it is still being
+ * downloaded. The API is modelled on <code>android.util.JsonReader</code>,
+ * which is not available on the Android versions this app supports.
+ */
+public class JsonStreamReader
+{
+	// token types returned by peek()
+	public static final int BEGIN_OBJECT = 1;
+	public static final int END_OBJECT = 2;
+	public static final int BEGIN_ARRAY = 3;
+	public static final int END_ARRAY = 4;
+	public static final int NAME = 5;
+	public static final int STRING = 6;
+	public static final int NUMBER = 7;
+	public static final int BOOLEAN = 8;
+	public static final int NULL = 9;
+	public static final int END_DOCUMENT = 10;
+
+	// scopes kept on the nesting stack
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	/** size of the names cache - must be a power of 2 */
+	private static final int NAME_CACHE_SIZE = 64;
+
+	private final Reader in;
+	private final char[] buffer = new char[1024];
+	private int pos = 0;
+	private int limit = 0;
+
+	/** number of characters consumed before the current buffer */
+	private long bufferStart = 0;
+
+	private int[] stack = new int[16];
+	private int stackSize = 0;
+
+	/** token found by the last call to peek(), or 0 if none is pending */
+	private int token = 0;
+	/** text of a pending NAME, STRING, NUMBER or BOOLEAN token */
+	private String value;
+
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Field names are repeated on every row of a web service response, so
+	 * they are cached to avoid creating a new String for each one.
+	 */
+	private final String[] nameCache = new String[NAME_CACHE_SIZE];
+
+	/**
+	 * Creates a parser that reads from the given reader.
+	 *
+	 * @param in
+	 *            reader containing JSON text
+	 */
+	public JsonStreamReader(Reader in)
+	{
+		this.in = in;
+		push(EMPTY_DOCUMENT);
+	}
+
+	/**
+	 * Returns the type of the next token without consuming it.
+	 *
+	 * @return one of the token type constants in this class
+	 * @throws IOException
+	 * @throws JSONException
+	 *             if the input is not valid JSON
+	 */
+	public int peek() throws IOException, JSONException
+	{
+		if (token != 0) { return token; }
+
+		int c;
+		switch (stack[stackSize - 1])
+		{
+			case EMPTY_DOCUMENT:
+				stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+				return readValue();
+
+			case NONEMPTY_DOCUMENT:
+				c = nextNonWhitespace();
+				if (c == -1)
+				{
+					token = END_DOCUMENT;
+					return token;
+				}
+				throw syntaxError("Unexpected text after end of document");
+
+			case EMPTY_ARRAY:
+				stack[stackSize - 1] = NONEMPTY_ARRAY;
+				c = nextNonWhitespace();
+				if (c == ']')
+				{
+					stackSize--;
+					token = END_ARRAY;
+					return token;
+				}
+				if (c == -1) { throw syntaxError("Unterminated array"); }
+				pos--;
+				return readValue();
+
+			case NONEMPTY_ARRAY:
+				c = nextNonWhitespace();
+				if (c == ']')
+				{
+					stackSize--;
+					token = END_ARRAY;
+					return token;
+				}
+				if (c != ',') { throw syntaxError("Expected ',' or ']'"); }
+				return readValue();
+
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}')
+				{
+					stackSize--;
+					token = END_OBJECT;
+					return token;
+				}
+				if (stack[stackSize - 1] == NONEMPTY_OBJECT)
+				{
+					if (c != ',') { throw syntaxError("Expected ',' or '}'"); }
+					c = nextNonWhitespace();
+				}
+				if (c != '"') { throw syntaxError("Expected a name"); }
+				stack[stackSize - 1] = DANGLING_NAME;
+				readString();
+				value = cachedName();
+				token = NAME;
+				return token;
+
+			case DANGLING_NAME:
+				stack[stackSize - 1] = NONEMPTY_OBJECT;
+				if (nextNonWhitespace() != ':') { throw syntaxError("Expected ':'"); }
+				return readValue();
+
+			default:
+				throw new IllegalStateException("Corrupt JSON reader stack");
+		}
+	}
+
+	/**
+	 * Determines whether the current array or object has another element.
+	 *
+	 * @return <code>true</code> if there is another element
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public boolean hasNext() throws IOException, JSONException
+	{
+		int t = peek();
+		return (t != END_OBJECT) && (t != END_ARRAY) && (t != END_DOCUMENT);
+	}
+
+	/**
+	 * Consumes the start of an object.
+	 */
+	public void beginObject() throws IOException, JSONException
+	{
+		expect(BEGIN_OBJECT);
+	}
+
+	/**
+	 * Consumes the end of an object.
+	 */
+	public void endObject() throws IOException, JSONException
+	{
+		expect(END_OBJECT);
+	}
+
+	/**
+	 * Consumes the start of an array.
+	 */
+	public void beginArray() throws IOException, JSONException
+	{
+		expect(BEGIN_ARRAY);
+	}
+
+	/**
+	 * Consumes the end of an array.
+	 */
+	public void endArray() throws IOException, JSONException
+	{
+		expect(END_ARRAY);
+	}
+
+	/**
+	 * Consumes the next name in an object.
+	 *
+	 * @return the name
+	 */
+	public String nextName() throws IOException, JSONException
+	{
+		expect(NAME);
+		return value;
+	}
+
+	/**
+	 * Consumes the next string, number or boolean value and returns it as
+	 * text.
+	 *
+	 * @return the value as a String, or <code>null</code> if the value is a
+	 *         JSON null
+	 * @throws JSONException
+	 *             if the next token is not a simple value
+	 */
+	public String nextString() throws IOException, JSONException
+	{
+		int t = peek();
+		if (t == NULL)
+		{
+			token = 0;
+			return null;
+		}
+		if ((t != STRING) && (t != NUMBER) && (t != BOOLEAN)) { throw syntaxError("Expected a value"); }
+
+		token = 0;
+		return value;
+	}
+
+	/**
+	 * Consumes the next value and returns it as an int. Strings holding
+	 * numbers are converted, in the same way as
+	 * {@link org.json.JSONObject#getInt(String)}.
+	 *
+	 * @return the value
+	 * @throws JSONException
+	 *             if the value cannot be converted to an int
+	 */
+	public int nextInt() throws IOException, JSONException
+	{
+		String s = nextString();
+		if (s == null) { throw syntaxError("Expected a number but was null"); }
+
+		try
+		{
+			return Integer.parseInt(s);
+		}
+		catch (NumberFormatException e)
+		{
+			try
+			{
+				return (int) Double.parseDouble(s);
+			}
+			catch (NumberFormatException e1)
+			{
+				throw syntaxError("Expected a number but was [" + s + "]");
+			}
+		}
+	}
+
+	/**
+	 * Skips the next value, including any nested arrays or objects.
+	 */
+	public void skipValue() throws IOException, JSONException
+	{
+		int depth = 0;
+		do
+		{
+			int t = peek();
+			token = 0;
+
+			if ((t == BEGIN_ARRAY) || (t == BEGIN_OBJECT))
+			{
+				depth++;
+			}
+			else if ((t == END_ARRAY) || (t == END_OBJECT))
+			{
+				depth--;
+			}
+			else if (t == END_DOCUMENT) { throw syntaxError("Unexpected end of document"); }
+		}
+		while (depth != 0);
+	}
+
+	/**
+	 * Closes the underlying reader.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Consumes the next token, which must be of the given type.
+	 */
+	private void expect(int expected) throws IOException, JSONException
+	{
+		int t = peek();
+		if (t != expected) { throw syntaxError("Expected token " + expected + " but was " + t); }
+
+		token = 0;
+	}
+
+	/**
+	 * Reads the value starting at the next non-whitespace character, pushing a
+	 * new scope if it is an array or object.
+	 */
+	private int readValue() throws IOException, JSONException
+	{
+		int c = nextNonWhitespace();
+		switch (c)
+		{
+			case '{':
+				push(EMPTY_OBJECT);
+				token = BEGIN_OBJECT;
+				return token;
+
+			case '[':
+				push(EMPTY_ARRAY);
+				token = BEGIN_ARRAY;
+				return token;
+
+			case '"':
+				readString();
+				value = text.toString();
+				token = STRING;
+				return token;
+
+			case -1:
+				throw syntaxError("Unexpected end of document");
+
+			default:
+				pos--;
+				return readLiteral();
+		}
+	}
+
+	/**
+	 * Reads an unquoted value: true, false, null or a number.
+	 */
+	private int readLiteral() throws IOException, JSONException
+	{
+		text.setLength(0);
+
+		int c;
+		while ((c = nextChar()) != -1)
+		{
+			if ((c == ',') || (c == '}') || (c == ']') || (c == ':')
+					|| (c == ' ') || (c == '\t') || (c == '\n') || (c == '\r'))
+			{
+				pos--;
+				break;
+			}
+			text.append((char) c);
+		}
+
+		if (text.length() == 0) { throw syntaxError("Expected a value"); }
+
+		value = text.toString();
+		if ("null".equals(value))
+		{
+			value = null;
+			token = NULL;
+		}
+		else if ("true".equals(value) || "false".equals(value))
+		{
+			token = BOOLEAN;
+		}
+		else
+		{
+			char first = value.charAt(0);
+			if ((first != '-') && ((first < '0') || (first > '9'))) { throw syntaxError("Unexpected value [" + value + "]"); }
+			token = NUMBER;
+		}
+		return token;
+	}
+
+	/**
+	 * Reads the rest of a quoted string into <code>text</code>. The opening
+	 * quote has already been consumed.
+	 */
+	private void readString() throws IOException, JSONException
+	{
+		text.setLength(0);
+
+		while (true)
+		{
+			// copy runs of plain characters straight out of the buffer
+			int start = pos;
+			while (pos < limit)
+			{
+				char c = buffer[pos];
+				if ((c == '"') || (c == '\\'))
+				{
+					break;
+				}
+				pos++;
+			}
+			text.append(buffer, start, pos - start);
+
+			if (pos == limit)
+			{
+				if (!fill()) { throw syntaxError("Unterminated string"); }
+				continue;
+			}
+
+			char c = buffer[pos++];
+			if (c == '"') { return; }
+
+			// c is a backslash
+			text.append(readEscape());
+		}
+	}
+
+	/**
+	 * Reads an escape sequence. The backslash has already been consumed.
+	 */
+	private char readEscape() throws IOException, JSONException
+	{
+		int c = nextChar();
+		switch (c)
+		{
+			case 'b':
+				return '\b';
+			case 'f':
+				return '\f';
+			case 'n':
+				return '\n';
+			case 'r':
+				return '\r';
+			case 't':
+				return '\t';
+			case 'u':
+				int result = 0;
+				for (int i = 0; i < 4; i++)
+				{
+					int h = Character.digit(nextChar(), 16);
+					if (h == -1) { throw syntaxError("Invalid unicode escape"); }
+					result = (result << 4) + h;
+				}
+				return (char) result;
+			case -1:
+				throw syntaxError("Unterminated escape sequence");
+			default:
+				// covers \" \\ and \/
+				return (char) c;
+		}
+	}
+
+	/**
+	 * Returns the name held in <code>text</code>, reusing a previously
+	 * created String if the same name has been seen before.
+	 */
+	private String cachedName()
+	{
+		int length = text.length();
+		int hash = length;
+		for (int i = 0; i < length; i++)
+		{
+			hash = 31 * hash + text.charAt(i);
+		}
+
+		int slot = hash & (NAME_CACHE_SIZE - 1);
+		String name = nameCache[slot];
+		if ((name == null) || !name.contentEquals(text))
+		{
+			name = text.toString();
+			nameCache[slot] = name;
+		}
+		return name;
+	}
+
+	/**
+	 * Returns the next character that is not whitespace, or -1 at the end of
+	 * the input.
+	 */
+	private int nextNonWhitespace() throws IOException
+	{
+		int c;
+		do
+		{
+			c = nextChar();
+		}
+		while ((c == ' ') || (c == '\t') || (c == '\n') || (c == '\r'));
+
+		return c;
+	}
+
+	/**
+	 * Returns the next character, or -1 at the end of the input.
+	 */
+	private int nextChar() throws IOException
+	{
+		if ((pos == limit) && !fill()) { return -1; }
+
+		return buffer[pos++];
+	}
+
+	/**
+	 * Refills the buffer from the reader.
+	 *
+	 * @return <code>false</code> if the end of the input has been reached
+	 */
+	private boolean fill() throws IOException
+	{
+		bufferStart += limit;
+		pos = 0;
+		limit = 0;
+
+		int read;
+		while ((read = in.read(buffer, 0, buffer.length)) == 0)
+		{
+			// keep trying until there is data or the stream ends
+		}
+
+		if (read == -1) { return false; }
+
+		limit = read;
+		return true;
+	}
+
+	private void push(int scope)
+	{
+		if (stackSize == stack.length)
+		{
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private JSONException syntaxError(String message)
+	{
+		return new JSONException(message + " at character " + (bufferStart + pos));
+	}
+}
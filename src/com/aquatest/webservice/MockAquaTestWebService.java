@@ -17,13 +17,25 @@
  */
 package com.aquatest.webservice;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.http.client.ClientProtocolException;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import android.util.Log;
+import com.aquatest.dbinterface.tools.DatabaseUpdater;
 
 /**
  * Mock class to fake web service calls, and instead return static JSON
@@ -35,6 +47,34 @@ import android.util.Log;
  */
 public class MockAquaTestWebService extends AquaTestWebService {
 
+	/**
+	 * Delay in milliseconds before a faked response starts to arrive, to
+	 * simulate the round trip time of a real network. 0 for no delay.
+	 */
+	public static volatile long simulatedLatency = 0;
+
+	/**
+	 * Rate in bytes per second at which a faked response is delivered, to
+	 * simulate the bandwidth of a real network. 0 for no limit.
+	 */
+	public static volatile long simulatedBandwidth = 0;
+
+	/**
+	 * Content encoding ("gzip" or "deflate") used to compress faked responses,
+	 * as a server would if asked to. <code>null</code> to send them
+	 * uncompressed.
+	 */
+	public static volatile String simulatedContentEncoding = null;
+
+	/**
+	 * If <code>true</code>, faked responses are sent in the columnar format,
+	 * with the column names sent once and each row as an array of values.
+	 */
+	public static volatile boolean simulatedColumnarFormat = false;
+
+	/** parsed fixtures, keyed by method and table */
+	private static HashMap<String, JSONObject> parsedResponses = new HashMap<String, JSONObject>();
+
 	/**
 	 * Fakes the web service that will return the list of table names.
 	 * 
@@ -52,7 +92,10 @@ public class MockAquaTestWebService extends AquaTestWebService {
 
 	/**
 	 * Fakes a web service to return a list of data that has been added, updated
-	 * or deleted.
+	 * or deleted, as a stream that is read in the same way as a real response.
+	 * The rows of the faked response are paged as the server pages them, so
+	 * each call returns at most <code>limit</code> rows from
+	 * <code>offset</code>.
 	 * 
 	 * @param method
 	 *            the specific web service to invoke
@@ -61,16 +104,227 @@ public class MockAquaTestWebService extends AquaTestWebService {
 	 * @param lastTimeUpdates
 	 *            time of last update (in milliseconds)
 	 * @param offset
-	 *            offset of last update
-	 * @return JSOBObject made up from the web service response, containing list
-	 *         of relevant changes to the database
+	 *            offset of the first record to return
+	 * @param limit
+	 *            maximum number of records to return
+	 * @return stream containing the faked JSON response
 	 * @throws IOException
-	 * @throws JSONException
 	 * @throws ClientProtocolException
 	 */
-	public static JSONObject retrieveDataChanges(String method, String table, long lastTimeUpdated, int offset) throws ClientProtocolException, JSONException, IOException
+	public static ResponseStream openDataChanges(String method, String table, long lastTimeUpdated, int offset, int limit) throws ClientProtocolException, IOException
+	{
+		String mockResponse = mockDataChanges(method, table);
+		if (mockResponse == null) { return null; }
+
+		// simulate the round trip to the server
+		long latency = simulatedLatency;
+		if (latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException("Mock web service call interrupted");
+			}
+		}
+
+		String contentEncoding = simulatedContentEncoding;
+		String page = pageResponse(method, table, mockResponse, offset, limit);
+		InputStream inputStream = new ByteArrayInputStream(encodeResponse(
+				page, simulatedColumnarFormat, contentEncoding));
+
+		// simulate the bandwidth of the network
+		long bandwidth = simulatedBandwidth;
+		if (bandwidth > 0) {
+			inputStream = new ThrottledInputStream(inputStream, bandwidth);
+		}
+
+		return new ResponseStream(inputStream, contentEncoding);
+	}
+
+	/**
+	 * Returns one page of the rows of a faked response, with the count, total
+	 * count and offset set as the server sets them. The fixture is parsed
+	 * once and kept, so that parsing it is not counted as part of the time
+	 * taken to sync; the page is built on each call, as a server would.
+	 */
+	private static String pageResponse(String method, String table,
+			String mockResponse, int offset, int limit) throws IOException
+	{
+		try {
+			JSONObject response;
+			String key = method + ":" + table;
+			synchronized (parsedResponses) {
+				response = parsedResponses.get(key);
+				if (response == null) {
+					response = new JSONObject(mockResponse);
+					parsedResponses.put(key, response);
+				}
+			}
+
+			JSONArray data = response.optJSONArray("data");
+			if (data == null) {
+				return mockResponse;
+			}
+
+			// the fixtures' counts may have been edited, so page by the rows
+			int totalCount = data.length();
+			int start = Math.min(Math.max(offset, 0), totalCount);
+			int end = (limit > 0) ? Math.min(start + limit, totalCount) : totalCount;
+
+			JSONObject page = new JSONObject();
+			Iterator<?> keys = response.keys();
+			while (keys.hasNext()) {
+				String name = (String) keys.next();
+				if (!"data".equals(name)) {
+					page.put(name, response.get(name));
+				}
+			}
+
+			JSONArray rows = new JSONArray();
+			for (int i = start; i < end; i++) {
+				rows.put(data.get(i));
+			}
+			page.put(DatabaseUpdater.COUNT_KEY, end - start);
+			page.put(DatabaseUpdater.TOTAL_COUNT_KEY, totalCount);
+			page.put(DatabaseUpdater.OFFSET_KEY, start);
+			page.put("data", rows);
+
+			return page.toString();
+		} catch (JSONException e) {
+			throw new IOException("Invalid mock response: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the bytes of a page of a faked response, in the columnar format
+	 * if asked for, and compressed with the given content encoding.
+	 */
+	private static byte[] encodeResponse(String page, boolean columnar,
+			String contentEncoding) throws IOException
+	{
+		if (columnar) {
+			page = toColumnarFormat(page);
+		}
+		if (contentEncoding == null) {
+			return page.getBytes("UTF-8");
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OutputStream out;
+		if ("gzip".equals(contentEncoding)) {
+			out = new GZIPOutputStream(bytes);
+		} else if ("deflate".equals(contentEncoding)) {
+			out = new DeflaterOutputStream(bytes);
+		} else {
+			throw new IOException("Unsupported content encoding: " + contentEncoding);
+		}
+		out.write(page.getBytes("UTF-8"));
+		out.close();
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Converts a faked response from rows of objects to the columnar format.
+	 * The columns are the fields of all the rows, in the order they are first
+	 * seen, and a field missing from a row is sent as null.
+	 */
+	private static String toColumnarFormat(String mockResponse) throws IOException
 	{
-		JSONObject dataChanges = null;
+		try {
+			JSONObject response = new JSONObject(mockResponse);
+			JSONArray data = response.optJSONArray("data");
+			if (data == null) {
+				return mockResponse;
+			}
+
+			Vector<String> columns = new Vector<String>();
+			for (int i = 0; i < data.length(); i++) {
+				Iterator<?> keys = data.getJSONObject(i).keys();
+				while (keys.hasNext()) {
+					String key = (String) keys.next();
+					if (!columns.contains(key)) {
+						columns.add(key);
+					}
+				}
+			}
+
+			JSONArray rows = new JSONArray();
+			for (int i = 0; i < data.length(); i++) {
+				JSONObject row = data.getJSONObject(i);
+				JSONArray values = new JSONArray();
+				for (int j = 0; j < columns.size(); j++) {
+					Object value = row.opt(columns.get(j));
+					values.put(value == null ? JSONObject.NULL : value);
+				}
+				rows.put(values);
+			}
+
+			// the columns must come before the data, which JSONObject does
+			// not guarantee, so add them to the end by hand
+			response.remove("data");
+			String paging = response.toString();
+			return paging.substring(0, paging.length() - 1)
+					+ (response.length() > 0 ? "," : "") + "\"columns\":"
+					+ new JSONArray(columns) + ",\"data\":" + rows + "}";
+		} catch (JSONException e) {
+			throw new IOException("Invalid mock response: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Input stream that delivers data no faster than a given rate.
+	 */
+	private static class ThrottledInputStream extends FilterInputStream {
+
+		/** size of the blocks that data is delivered in */
+		private static final int BLOCK_SIZE = 1024;
+
+		private long bytesPerSecond;
+		private long startTime = -1;
+		private long bytesRead = 0;
+
+		ThrottledInputStream(InputStream in, long _bytesPerSecond) {
+			super(in);
+			bytesPerSecond = _bytesPerSecond;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (startTime == -1) {
+				startTime = System.currentTimeMillis();
+			}
+
+			int read = super.read(buffer, offset, Math.min(length, BLOCK_SIZE));
+			if (read > 0) {
+				bytesRead += read;
+
+				// wait until the data would have arrived over the network
+				long due = startTime + (bytesRead * 1000 / bytesPerSecond);
+				long wait = due - System.currentTimeMillis();
+				if (wait > 0) {
+					try {
+						Thread.sleep(wait);
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException("Mock web service read interrupted");
+					}
+				}
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * Returns the faked JSON text for a web service method.
+	 */
+	private static String mockDataChanges(String method, String table)
+	{
+		String dataChanges = null;
 
 		if (AquaTestWebService.ADDED_ROWS.equals(method)) {
 			dataChanges = mockAddedRecords(table);
@@ -88,64 +342,41 @@ public class MockAquaTestWebService extends AquaTestWebService {
 	 * 
 	 * @param table
 	 *            table to fake added records for
-	 * @return JSONObject faking a list of added database records
+	 * @return JSON text faking a list of added database records
 	 */
-	private static JSONObject mockAddedRecords(String table) {
-		JSONObject mockResponse = null;
-
-		try {
-
-			if ("abnormalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_ABNORMAL_RANGE);
-			} else if ("authorisedsampler".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_AUTHORISED_SAMPLER);
-			} else if ("authoritymanager".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_AUTHORITY_MANAGER);
-			} else if ("domainlookup".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_DOMAIN_LOOKUP);
-			} else if ("measuredvalue".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_MEASURED_VALUE);
-			} else if ("normalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_NORMAL_RANGE);
-			} else if ("parameter".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_PARAMETER);
-			} else if ("sample".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_SAMPLE);
-			} else if ("samplingpoint".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_SAMPLING_POINT);
-			} else if ("smsnotifications".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_SMS_NOTIFICATIONS);
-			} else if ("standard".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_STANDARD);
-			} else if ("valuerule".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_VALUE_RULE);
-			} else if ("waterusetype".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_WATER_USE_TYPE);
-			} else if ("wqmarea".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_WQM_AREA);
-			} else if ("wqmauthority".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.ADD_WQM_AUTHORITY);
-			}
+	private static String mockAddedRecords(String table) {
+		String mockResponse = null;
 
-		} catch (JSONException e) {
-			Log.e("JSON",
-					"Invalid JSON response for added records in table ["
-							+ table + "]. Error is [" + e.getLocalizedMessage() + "].");
+		if ("abnormalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_ABNORMAL_RANGE;
+		} else if ("authorisedsampler".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_AUTHORISED_SAMPLER;
+		} else if ("authoritymanager".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_AUTHORITY_MANAGER;
+		} else if ("domainlookup".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_DOMAIN_LOOKUP;
+		} else if ("measuredvalue".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_MEASURED_VALUE;
+		} else if ("normalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_NORMAL_RANGE;
+		} else if ("parameter".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_PARAMETER;
+		} else if ("sample".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_SAMPLE;
+		} else if ("samplingpoint".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_SAMPLING_POINT;
+		} else if ("smsnotifications".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_SMS_NOTIFICATIONS;
+		} else if ("standard".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_STANDARD;
+		} else if ("valuerule".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_VALUE_RULE;
+		} else if ("waterusetype".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_WATER_USE_TYPE;
+		} else if ("wqmarea".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_WQM_AREA;
+		} else if ("wqmauthority".equals(table)) {
+			mockResponse = MockJsonResponsesFull.ADD_WQM_AUTHORITY;
 		}
 
 		return mockResponse;
@@ -156,64 +387,41 @@ public class MockAquaTestWebService extends AquaTestWebService {
 	 * 
 	 * @param table
 	 *            table to fake updated records for
-	 * @return JSONObject faking a list of updated database records
+	 * @return JSON text faking a list of updated database records
 	 */
-	private static JSONObject mockUpdatedRecords(String table) {
-		JSONObject mockResponse = null;
-
-		try {
-
-			if ("abnormalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_ABNORMAL_RANGE);
-			} else if ("authorisedsampler".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_AUTHORISED_SAMPLER);
-			} else if ("authoritymanager".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_AUTHORITY_MANAGER);
-			} else if ("domainlookup".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_DOMAIN_LOOKUP);
-			} else if ("measuredvalue".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_MEASURED_VALUE);
-			} else if ("normalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_NORMAL_RANGE);
-			} else if ("parameter".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_PARAMETER);
-			} else if ("sample".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_SAMPLE);
-			} else if ("samplingpoint".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_SAMPLING_POINT);
-			} else if ("smsnotifications".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_SMS_NOTIFICATIONS);
-			} else if ("standard".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_STANDARD);
-			} else if ("valuerule".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_VALUE_RULE);
-			} else if ("waterusetype".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_WATER_USE_TYPE);
-			} else if ("wqmarea".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_WQM_AREA);
-			} else if ("wqmauthority".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.UPDATE_WQM_AUTHORITY);
-			}
+	private static String mockUpdatedRecords(String table) {
+		String mockResponse = null;
 
-		} catch (JSONException e) {
-			Log.e("JSON",
-					"Invalid JSON response for updated records in table ["
-							+ table + "]. Error is [" + e.getLocalizedMessage() + "].");
+		if ("abnormalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_ABNORMAL_RANGE;
+		} else if ("authorisedsampler".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_AUTHORISED_SAMPLER;
+		} else if ("authoritymanager".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_AUTHORITY_MANAGER;
+		} else if ("domainlookup".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_DOMAIN_LOOKUP;
+		} else if ("measuredvalue".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_MEASURED_VALUE;
+		} else if ("normalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_NORMAL_RANGE;
+		} else if ("parameter".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_PARAMETER;
+		} else if ("sample".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_SAMPLE;
+		} else if ("samplingpoint".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_SAMPLING_POINT;
+		} else if ("smsnotifications".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_SMS_NOTIFICATIONS;
+		} else if ("standard".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_STANDARD;
+		} else if ("valuerule".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_VALUE_RULE;
+		} else if ("waterusetype".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_WATER_USE_TYPE;
+		} else if ("wqmarea".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_WQM_AREA;
+		} else if ("wqmauthority".equals(table)) {
+			mockResponse = MockJsonResponsesFull.UPDATE_WQM_AUTHORITY;
 		}
 
 		return mockResponse;
@@ -224,64 +432,41 @@ public class MockAquaTestWebService extends AquaTestWebService {
 	 * 
 	 * @param table
 	 *            table to fake deleted records for
-	 * @return JSONObject faking a list of deleted database records
+	 * @return JSON text faking a list of deleted database records
 	 */
-	private static JSONObject mockDeletedRecords(String table) {
-		JSONObject mockResponse = null;
-
-		try {
+	private static String mockDeletedRecords(String table) {
+		String mockResponse = null;
 
-			if ("abnormalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_ABNORMAL_RANGE);
-			} else if ("authorisedsampler".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_AUTHORISED_SAMPLER);
-			} else if ("authoritymanager".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_AUTHORITY_MANAGER);
-			} else if ("domainlookup".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_DOMAIN_LOOKUP);
-			} else if ("measuredvalue".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_MEASURED_VALUE);
-			} else if ("normalrange".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_NORMAL_RANGE);
-			} else if ("parameter".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_PARAMETER);
-			} else if ("sample".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_SAMPLE);
-			} else if ("samplingpoint".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_SAMPLING_POINT);
-			} else if ("smsnotifications".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_SMS_NOTIFICATIONS);
-			} else if ("standard".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_STANDARD);
-			} else if ("valuerule".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_VALUE_RULE);
-			} else if ("waterusetype".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_WATER_USE_TYPE);
-			} else if ("wqmarea".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_WQM_AREA);
-			} else if ("wqmauthority".equals(table)) {
-				mockResponse = new JSONObject(
-						MockJsonResponsesFull.DELETE_WQM_AUTHORITY);
-			}
-
-		} catch (JSONException e) {
-			Log.e("JSON",
-					"Invalid JSON response for deleted records in table ["
-							+ table + "]. Error is [" + e.getLocalizedMessage() + "].");
+		if ("abnormalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_ABNORMAL_RANGE;
+		} else if ("authorisedsampler".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_AUTHORISED_SAMPLER;
+		} else if ("authoritymanager".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_AUTHORITY_MANAGER;
+		} else if ("domainlookup".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_DOMAIN_LOOKUP;
+		} else if ("measuredvalue".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_MEASURED_VALUE;
+		} else if ("normalrange".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_NORMAL_RANGE;
+		} else if ("parameter".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_PARAMETER;
+		} else if ("sample".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_SAMPLE;
+		} else if ("samplingpoint".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_SAMPLING_POINT;
+		} else if ("smsnotifications".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_SMS_NOTIFICATIONS;
+		} else if ("standard".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_STANDARD;
+		} else if ("valuerule".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_VALUE_RULE;
+		} else if ("waterusetype".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_WATER_USE_TYPE;
+		} else if ("wqmarea".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_WQM_AREA;
+		} else if ("wqmauthority".equals(table)) {
+			mockResponse = MockJsonResponsesFull.DELETE_WQM_AUTHORITY;
 		}
 
 		return mockResponse;
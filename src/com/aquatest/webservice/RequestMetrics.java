@@ -0,0 +1,156 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.webservice;
+
+import android.util.Log;
+
+import com.aquatest.debug.DebugConstants;
+
+/**
+ * Timings of a single web service request. </p>
+ *
+ * A request is split into three parts: getting a connection (which includes
+ * the TCP and TLS handshakes when a new connection has to be opened), waiting
+ * for the response headers, and reading the response body. Totals for all
+ * requests since the last {@link #reset()} are kept, so that the handshake
+ * overhead of a whole sync can be seen.
+ */
+public class RequestMetrics
+{
+	/** time the request was started */
+	public long startTime;
+	/** time a connection was ready to send the request on */
+	public long connectedTime;
+	/** time the response headers arrived */
+	public long responseTime;
+	/** time the response body was closed */
+	public long endTime;
+
+	/** true if a new connection was opened, false if one was reused */
+	public boolean newConnection;
+
+	/** number of bytes received for the response body */
+	public long bytesReceived;
+
+	private String url;
+
+	// totals for all finished requests
+	private static int requestCount = 0;
+	private static int newConnectionCount = 0;
+	private static long totalConnectTime = 0;
+	private static long totalResponseTime = 0;
+	private static long totalTransferTime = 0;
+
+	/**
+	 * Starts timing a request.
+	 *
+	 * @param _url
+	 *            url being requested, for logging
+	 */
+	public RequestMetrics(String _url)
+	{
+		url = _url;
+		startTime = System.currentTimeMillis();
+		connectedTime = startTime;
+		responseTime = startTime;
+	}
+
+	/**
+	 * @return time taken to get a connection, in milliseconds
+	 */
+	public long getConnectTime()
+	{
+		return connectedTime - startTime;
+	}
+
+	/**
+	 * @return time between sending the request and the response headers
+	 *         arriving, in milliseconds
+	 */
+	public long getResponseTime()
+	{
+		return responseTime - connectedTime;
+	}
+
+	/**
+	 * @return time taken to read the response body, in milliseconds
+	 */
+	public long getTransferTime()
+	{
+		return endTime - responseTime;
+	}
+
+	/**
+	 * Records that the request has finished, and adds it to the totals.
+	 *
+	 * @param _bytesReceived
+	 *            number of bytes received for the response body
+	 */
+	public void finished(long _bytesReceived)
+	{
+		endTime = System.currentTimeMillis();
+		bytesReceived = _bytesReceived;
+
+		synchronized (RequestMetrics.class)
+		{
+			requestCount++;
+			if (newConnection)
+			{
+				newConnectionCount++;
+			}
+			totalConnectTime += getConnectTime();
+			totalResponseTime += getResponseTime();
+			totalTransferTime += getTransferTime();
+		}
+
+		// java compiler optimises this "if" statement away
+		if (DebugConstants.LOG_REQUEST_METRICS)
+		{
+			Log.d("HTTP", (newConnection ? "new" : "reused")
+					+ " connection, connect " + getConnectTime()
+					+ "ms, response " + getResponseTime() + "ms, transfer "
+					+ getTransferTime() + "ms, " + bytesReceived + " bytes: "
+					+ url);
+		}
+	}
+
+	/**
+	 * Clears the totals.
+	 */
+	// method declared static for Android optimisation
+	public static synchronized void reset()
+	{
+		requestCount = 0;
+		newConnectionCount = 0;
+		totalConnectTime = 0;
+		totalResponseTime = 0;
+		totalTransferTime = 0;
+	}
+
+	/**
+	 * @return description of the totals since the last reset
+	 */
+	// method declared static for Android optimisation
+	public static synchronized String getSummary()
+	{
+		return requestCount + " requests on " + newConnectionCount
+				+ " new connections, connect " + totalConnectTime
+				+ "ms, response " + totalResponseTime + "ms, transfer "
+				+ totalTransferTime + "ms";
+	}
+}
@@ -0,0 +1,249 @@
+/**
+ * Water Quality Manager for Android
+ * Copyright (C) 2011 iCOMMS (University of Cape Town)
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.aquatest.webservice;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.http.conn.ConnectionReleaseTrigger;
+
+/**
+ * Body of a web service response that is read as it arrives, rather than
+ * being loaded into memory first. </p>
+ *
+ * A body sent with a <code>gzip</code> or <code>deflate</code> content
+ * encoding is inflated as it is read. The bytes received and the bytes after
+ * inflation are counted separately. </p>
+ *
+ * Callers must always call {@link #close()} when they are finished with the
+ * response, even if it was not read to the end. A response that is closed
+ * before its end drops its connection, rather than downloading the rest.
+ */
+public class ResponseStream
+{
+	/** content encodings that the client can read */
+	public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int INFLATE_BUFFER_SIZE = 8192;
+
+	/**
+	 * Most bytes read when closing to find the end of a body that has been
+	 * parsed, such as a gzip trailer or the last chunk, before the connection
+	 * is dropped instead
+	 */
+	private static final int DRAIN_LIMIT = 1024;
+
+	/** response body as received, which may be able to drop its connection */
+	private InputStream bodyStream;
+	private CountingInputStream receivedStream;
+	private CountingInputStream inputStream;
+	private Reader reader;
+	private RequestMetrics metrics;
+
+	/**
+	 * Creates a response stream reading from the given response body, which
+	 * is not compressed.
+	 *
+	 * @param _inputStream
+	 *            response body
+	 * @throws IOException
+	 */
+	public ResponseStream(InputStream _inputStream) throws IOException
+	{
+		this(_inputStream, null);
+	}
+
+	/**
+	 * Creates a response stream reading from the given response body.
+	 *
+	 * @param _inputStream
+	 *            response body
+	 * @param _contentEncoding
+	 *            value of the Content-Encoding header, or <code>null</code>
+	 *            if there was none
+	 * @throws IOException
+	 *             if the encoding is not supported or the body could not be
+	 *             read
+	 */
+	public ResponseStream(InputStream _inputStream, String _contentEncoding)
+			throws IOException
+	{
+		this(_inputStream, _contentEncoding, null);
+	}
+
+	/**
+	 * Creates a response stream reading from the given response body, and
+	 * records the time that it is closed.
+	 *
+	 * @param _inputStream
+	 *            response body
+	 * @param _contentEncoding
+	 *            value of the Content-Encoding header, or <code>null</code>
+	 *            if there was none
+	 * @param _metrics
+	 *            timings of the request, or <code>null</code>
+	 * @throws IOException
+	 *             if the encoding is not supported or the body could not be
+	 *             read
+	 */
+	public ResponseStream(InputStream _inputStream, String _contentEncoding,
+			RequestMetrics _metrics) throws IOException
+	{
+		metrics = _metrics;
+		bodyStream = _inputStream;
+		receivedStream = new CountingInputStream(_inputStream);
+		inputStream = new CountingInputStream(decode(receivedStream,
+				_contentEncoding));
+		reader = new InputStreamReader(inputStream, "UTF-8");
+	}
+
+	/**
+	 * Wraps the received bytes in a stream that undoes the content encoding.
+	 */
+	// method declared static for Android optimisation
+	private static InputStream decode(InputStream in, String contentEncoding)
+			throws IOException
+	{
+		if (contentEncoding == null)
+			return in;
+
+		// the header is not text in the user's language, so it must not be
+		// lower-cased by the rules of the default locale
+		String encoding = contentEncoding.trim().toLowerCase(Locale.ENGLISH);
+
+		if ((encoding.length() == 0) || encoding.equals("identity"))
+			return in;
+
+		if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+			return new GZIPInputStream(in, INFLATE_BUFFER_SIZE);
+
+		if (encoding.equals("deflate"))
+		{
+			// deflate should have a zlib header, but some servers send the
+			// raw deflate data, so look at the first two bytes to see which
+			PushbackInputStream pushback = new PushbackInputStream(in, 2);
+			int b0 = pushback.read();
+			int b1 = pushback.read();
+			if (b1 != -1)
+				pushback.unread(b1);
+			if (b0 != -1)
+				pushback.unread(b0);
+
+			boolean zlibHeader = (b0 != -1) && (b1 != -1)
+					&& ((b0 & 0x0f) == 8) && (((b0 << 8) | b1) % 31 == 0);
+
+			return new InflaterInputStream(pushback, new Inflater(!zlibHeader),
+					INFLATE_BUFFER_SIZE);
+		}
+
+		throw new IOException("Unsupported content encoding: "
+				+ contentEncoding);
+	}
+
+	/**
+	 * @return number of bytes of the response body read so far, after it has
+	 *         been inflated
+	 */
+	public long getBytesRead()
+	{
+		return inputStream.getCount();
+	}
+
+	/**
+	 * @return number of bytes of the response body received so far, as sent
+	 *         by the server
+	 */
+	public long getBytesReceived()
+	{
+		return receivedStream.getCount();
+	}
+
+	/**
+	 * @return reader over the response body
+	 */
+	public Reader getReader()
+	{
+		return reader;
+	}
+
+	/**
+	 * Releases the response. If the whole body has been received, closing the
+	 * body of a response from the shared HTTP client returns its connection
+	 * to the pool. If it has not, as when an update is cancelled or a page is
+	 * given up on, the connection is aborted so the rest of the body is not
+	 * downloaded only to be thrown away.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException
+	{
+		try
+		{
+			if (!receivedStream.isAtEnd() && !drain()
+					&& (bodyStream instanceof ConnectionReleaseTrigger))
+			{
+				((ConnectionReleaseTrigger) bodyStream).abortConnection();
+			}
+
+			reader.close();
+		}
+		finally
+		{
+			if (metrics != null)
+			{
+				metrics.finished(receivedStream.getCount());
+				metrics = null;
+			}
+		}
+	}
+
+	/**
+	 * Reads what is left of the body, if it is no more than DRAIN_LIMIT
+	 * bytes.
+	 *
+	 * @return <code>true</code> if the end of the body was reached
+	 */
+	private boolean drain()
+	{
+		byte[] buffer = new byte[DRAIN_LIMIT];
+		int total = 0;
+		try
+		{
+			while (total < DRAIN_LIMIT)
+			{
+				int read = receivedStream.read(buffer, 0, DRAIN_LIMIT - total);
+				if (read == -1)
+					return true;
+				total += read;
+			} // while
+
+			return (receivedStream.read() == -1);
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+}